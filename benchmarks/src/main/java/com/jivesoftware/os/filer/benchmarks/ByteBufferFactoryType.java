@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.benchmarks;
+
+import com.jivesoftware.os.filer.io.ByteBufferFactory;
+import com.jivesoftware.os.filer.io.DirectByteBufferFactory;
+import com.jivesoftware.os.filer.io.FileBackedMemMappedByteBufferFactory;
+import com.jivesoftware.os.filer.io.HeapByteBufferFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The ByteBufferFactory flavors every benchmark is parameterized over.
+ *
+ * @author jonathan.colt
+ */
+public enum ByteBufferFactoryType {
+
+    HEAP {
+        @Override
+        ByteBufferFactory create(String name, List<File> tempDirectories) throws IOException {
+            return new HeapByteBufferFactory();
+        }
+    },
+    DIRECT {
+        @Override
+        ByteBufferFactory create(String name, List<File> tempDirectories) throws IOException {
+            return new DirectByteBufferFactory();
+        }
+    },
+    MMAP {
+        @Override
+        ByteBufferFactory create(String name, List<File> tempDirectories) throws IOException {
+            return new FileBackedMemMappedByteBufferFactory(name, 0, tempDirectory(name, tempDirectories));
+        }
+    };
+
+    abstract ByteBufferFactory create(String name, List<File> tempDirectories) throws IOException;
+
+    /**
+     * @param tempDirectories the new directory is added here so the benchmark's tear down can delete it with deleteTempDirectories
+     */
+    static File tempDirectory(String name, List<File> tempDirectories) throws IOException {
+        File dir = Files.createTempDirectory("filer-bench-" + name).toFile();
+        tempDirectories.add(dir);
+        return dir;
+    }
+
+    /**
+     * deleteOnExit only removes empty directories, so the MMAP segment files have to go first.
+     */
+    static void deleteTempDirectories(List<File> tempDirectories) throws IOException {
+        for (File dir : tempDirectories) {
+            List<Path> paths;
+            try (Stream<Path> walk = Files.walk(dir.toPath())) {
+                paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList()); // children before their parents
+            }
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        tempDirectories.clear();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.benchmarks;
+
+import com.jivesoftware.os.filer.chunk.store.ChunkStoreInitializer;
+import com.jivesoftware.os.filer.io.FilerIO;
+import com.jivesoftware.os.filer.io.HeapByteBufferFactory;
+import com.jivesoftware.os.filer.io.NoOpCreateFiler;
+import com.jivesoftware.os.filer.io.NoOpOpenFiler;
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
+import com.jivesoftware.os.filer.io.chunk.ChunkStore;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One ChunkStore shared by all benchmark threads. Run with -t to measure stripe and root lock contention.
+ *
+ * @author jonathan.colt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkStoreBenchmark {
+
+    @Param({ "HEAP", "DIRECT", "MMAP" })
+    public ByteBufferFactoryType factoryType;
+
+    @Param({ "64", "4096" })
+    public long chunkSize;
+
+    @Param({ "10000" })
+    public int count;
+
+    private final NoOpCreateFiler<ChunkFiler> createFiler = new NoOpCreateFiler<>();
+    private final NoOpOpenFiler<ChunkFiler> openFiler = new NoOpOpenFiler<>();
+    private final List<File> tempDirectories = new ArrayList<>();
+    private ChunkStore chunkStore;
+    private long[] chunkFPs;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        chunkStore = new ChunkStoreInitializer().create(factoryType.create("chunkStore", tempDirectories), FilerIO.chunkLength(24),
+            new HeapByteBufferFactory(), 500, 5_000, stackBuffer);
+        chunkFPs = new long[count];
+        for (int i = 0; i < count; i++) {
+            chunkFPs[i] = chunkStore.newChunk(chunkSize, createFiler, stackBuffer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        chunkStore.close();
+        ByteBufferFactoryType.deleteTempDirectories(tempDirectories);
+    }
+
+    @Benchmark
+    public long execute(StackBufferState state) throws Exception {
+        long chunkFP = chunkFPs[state.random.nextInt(count)];
+        return chunkStore.execute(chunkFP, openFiler, (monkey, filer, stackBuffer, lock) -> {
+            return ChunkLocks.read(lock, () -> {
+                filer.seek(0);
+                return FilerIO.readLong(filer, "value", stackBuffer);
+            });
+        }, state.stackBuffer);
+    }
+
+    /**
+     * Allocation and free are paired so the store stays at a steady size and exercises free list reuse.
+     */
+    @Benchmark
+    public long newChunkRemove(StackBufferState state) throws Exception {
+        long chunkFP = chunkStore.newChunk(chunkSize, createFiler, state.stackBuffer);
+        chunkStore.remove(chunkFP, state.stackBuffer);
+        return chunkFP;
+    }
+
+    @Benchmark
+    public boolean isValid(StackBufferState state) throws Exception {
+        return chunkStore.isValid(chunkFPs[state.random.nextInt(count)], state.stackBuffer);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.benchmarks;
+
+import com.jivesoftware.os.filer.queue.store.FileQueue;
+import com.jivesoftware.os.filer.queue.store.FileQueueEntry;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FileQueue is file backed only so it is parameterized over payload size and flush mode rather than ByteBufferFactory.
+ *
+ * @author jonathan.colt
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileQueueBenchmark {
+
+    @Param({ "64", "4096" })
+    public int payloadSize;
+
+    @Param({ "false", "true" })
+    public boolean hardFlush;
+
+    private File file;
+    private FileQueue queue;
+    private byte[] payload;
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        file = File.createTempFile("fileQueueBench", null);
+        file.deleteOnExit();
+        queue = new FileQueue(file, hardFlush);
+        payload = new byte[payloadSize];
+        new Random(1234).nextBytes(payload);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        queue.close();
+        queue.delete();
+    }
+
+    @Benchmark
+    public void append() throws Exception {
+        queue.append(System.currentTimeMillis(), payload);
+    }
+
+    /**
+     * Appends then consumes one entry so the reader always has something to read and the file stays bounded by the iteration.
+     */
+    @Benchmark
+    public FileQueueEntry appendReadNext() throws Exception {
+        queue.append(System.currentTimeMillis(), payload);
+        return queue.readNext(FileQueue.ENQEUED, FileQueue.CONSUMED);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.benchmarks;
+
+import com.jivesoftware.os.filer.io.ByteBufferBackedFiler;
+import com.jivesoftware.os.filer.io.ByteBufferFactory;
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.map.MapContext;
+import com.jivesoftware.os.filer.io.map.MapStore;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MapStore is not thread safe so every benchmark thread gets its own map.
+ *
+ * @author jonathan.colt
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapStoreBenchmark {
+
+    @Param({ "HEAP", "DIRECT", "MMAP" })
+    public ByteBufferFactoryType factoryType;
+
+    @Param({ "8", "32" })
+    public int keySize;
+
+    @Param({ "8", "64" })
+    public int payloadSize;
+
+    @Param({ "100000" })
+    public int count;
+
+    private final StackBuffer stackBuffer = new StackBuffer();
+    private final List<File> tempDirectories = new ArrayList<>();
+    private ByteBufferBackedFiler filer;
+    private MapContext context;
+    private byte[][] keys;
+    private byte[] payload;
+    private Random random;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ByteBufferFactory factory = factoryType.create("mapStore", tempDirectories);
+        long filerSize = MapStore.INSTANCE.computeFilerSize(count, keySize, false, payloadSize, false);
+        filer = new ByteBufferBackedFiler(factory.allocate("map".getBytes(), filerSize));
+        context = MapStore.INSTANCE.create(count, keySize, false, payloadSize, false, filer, stackBuffer);
+
+        random = new Random(1234);
+        keys = new byte[count][];
+        payload = new byte[payloadSize];
+        for (int i = 0; i < count; i++) {
+            keys[i] = new byte[keySize];
+            random.nextBytes(keys[i]);
+            MapStore.INSTANCE.add(filer, context, (byte) 1, keys[i], payload, stackBuffer);
+        }
+    }
+
+    private byte[] nextKey() {
+        return keys[random.nextInt(count)];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ByteBufferFactoryType.deleteTempDirectories(tempDirectories);
+    }
+
+    @Benchmark
+    public long get() throws Exception {
+        return MapStore.INSTANCE.get(filer, context, nextKey(), stackBuffer);
+    }
+
+    @Benchmark
+    public byte[] getPayload() throws Exception {
+        return MapStore.INSTANCE.getPayload(filer, context, nextKey(), stackBuffer);
+    }
+
+    @Benchmark
+    public long addExisting() throws Exception {
+        return MapStore.INSTANCE.add(filer, context, (byte) 1, nextKey(), payload, stackBuffer);
+    }
+
+    /**
+     * Removes and re-adds the same key so the map stays at a constant count while accumulating the churn that long lived maps see.
+     */
+    @Benchmark
+    public long removeAdd() throws Exception {
+        byte[] key = keys[next];
+        next = (next + 1) % count;
+        MapStore.INSTANCE.remove(filer, context, key, stackBuffer);
+        return MapStore.INSTANCE.add(filer, context, (byte) 1, key, payload, stackBuffer);
+    }
+}
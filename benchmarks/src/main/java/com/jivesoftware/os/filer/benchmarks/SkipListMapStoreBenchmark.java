@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.benchmarks;
+
+import com.jivesoftware.os.filer.io.ByteBufferBackedFiler;
+import com.jivesoftware.os.filer.io.ByteBufferFactory;
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.map.SkipListMapContext;
+import com.jivesoftware.os.filer.io.map.SkipListMapStore;
+import com.jivesoftware.os.filer.map.store.LexSkipListComparator;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @author jonathan.colt
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SkipListMapStoreBenchmark {
+
+    @Param({ "HEAP", "DIRECT", "MMAP" })
+    public ByteBufferFactoryType factoryType;
+
+    @Param({ "8", "32" })
+    public int keySize;
+
+    @Param({ "8" })
+    public int payloadSize;
+
+    @Param({ "10000" })
+    public int count;
+
+    private final StackBuffer stackBuffer = new StackBuffer();
+    private final Object lock = new Object();
+    private final List<File> tempDirectories = new ArrayList<>();
+    private ByteBufferBackedFiler filer;
+    private SkipListMapContext context;
+    private byte[][] keys;
+    private byte[] payload;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ByteBufferFactory factory = factoryType.create("skipListMapStore", tempDirectories);
+        long filerSize = SkipListMapStore.INSTANCE.computeFilerSize(count, keySize, false, payloadSize);
+        filer = new ByteBufferBackedFiler(factory.allocate("skipList".getBytes(), filerSize));
+        byte[] headKey = new byte[keySize];
+        context = SkipListMapStore.INSTANCE.create(count, headKey, keySize, false, payloadSize, LexSkipListComparator.cSingleton, filer, stackBuffer);
+
+        Random random = new Random(1234);
+        keys = new byte[count][];
+        payload = new byte[payloadSize];
+        for (int i = 0; i < count; i++) {
+            keys[i] = new byte[keySize];
+            random.nextBytes(keys[i]);
+            keys[i][0] |= 1; // never collide with the all zero head key
+            SkipListMapStore.INSTANCE.add(filer, context, keys[i], payload, stackBuffer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ByteBufferFactoryType.deleteTempDirectories(tempDirectories);
+    }
+
+    /**
+     * Removes and re-inserts a key so every invocation pays for a full ordered insert without the map filling up.
+     */
+    @Benchmark
+    public long removeAdd() throws Exception {
+        byte[] key = keys[next];
+        next = (next + 1) % count;
+        SkipListMapStore.INSTANCE.remove(filer, context, key, stackBuffer);
+        return SkipListMapStore.INSTANCE.add(filer, context, key, payload, stackBuffer);
+    }
+
+    @Benchmark
+    public long addExisting() throws Exception {
+        byte[] key = keys[next];
+        next = (next + 1) % count;
+        return SkipListMapStore.INSTANCE.add(filer, context, key, payload, stackBuffer);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean streamKeys(Blackhole blackhole) throws Exception {
+        return SkipListMapStore.INSTANCE.streamKeys(filer, context, lock, null, key -> {
+            blackhole.consume(key);
+            return true;
+        }, stackBuffer);
+    }
+}
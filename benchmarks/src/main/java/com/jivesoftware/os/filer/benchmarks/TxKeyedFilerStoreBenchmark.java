@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.benchmarks;
+
+import com.jivesoftware.os.filer.chunk.store.ChunkStoreInitializer;
+import com.jivesoftware.os.filer.chunk.store.transaction.TxCogs;
+import com.jivesoftware.os.filer.chunk.store.transaction.TxNamedMapOfFiler;
+import com.jivesoftware.os.filer.io.FilerIO;
+import com.jivesoftware.os.filer.io.HeapByteBufferFactory;
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
+import com.jivesoftware.os.filer.io.chunk.ChunkStore;
+import com.jivesoftware.os.filer.keyed.store.TxKeyedFilerStore;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author jonathan.colt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TxKeyedFilerStoreBenchmark {
+
+    @Param({ "HEAP", "DIRECT", "MMAP" })
+    public ByteBufferFactoryType factoryType;
+
+    @Param({ "false", "true" })
+    public boolean lexOrderKeys;
+
+    @Param({ "8", "32" })
+    public int keySize;
+
+    @Param({ "64", "4096" })
+    public long payloadSize;
+
+    @Param({ "10000" })
+    public int count;
+
+    private final List<File> tempDirectories = new ArrayList<>();
+    private ChunkStore[] chunkStores;
+    private TxKeyedFilerStore<Long, Void> store;
+    private byte[][] keys;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkStoreInitializer initializer = new ChunkStoreInitializer();
+        chunkStores = new ChunkStore[] {
+            initializer.create(factoryType.create("keyedStore1", tempDirectories), FilerIO.chunkLength(24), new HeapByteBufferFactory(), 500, 5_000,
+                stackBuffer),
+            initializer.create(factoryType.create("keyedStore2", tempDirectories), FilerIO.chunkLength(24), new HeapByteBufferFactory(), 500, 5_000,
+                stackBuffer)
+        };
+        store = new TxKeyedFilerStore<>(new TxCogs(256, 64, null, null, null),
+            0,
+            chunkStores,
+            "bench".getBytes(),
+            lexOrderKeys,
+            TxNamedMapOfFiler.CHUNK_FILER_CREATOR,
+            TxNamedMapOfFiler.CHUNK_FILER_OPENER,
+            TxNamedMapOfFiler.OVERWRITE_GROWER_PROVIDER,
+            TxNamedMapOfFiler.REWRITE_GROWER_PROVIDER);
+
+        Random random = new Random(1234);
+        keys = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            keys[i] = new byte[keySize];
+            random.nextBytes(keys[i]);
+            store.readWriteAutoGrow(keys[i], payloadSize, (monkey, filer, _stackBuffer, lock) -> {
+                return ChunkLocks.write(lock, () -> {
+                    filer.seek(0);
+                    FilerIO.writeLong(filer, 1L, "value", _stackBuffer);
+                    return null;
+                });
+            }, stackBuffer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (ChunkStore chunkStore : chunkStores) {
+            chunkStore.close();
+        }
+        ByteBufferFactoryType.deleteTempDirectories(tempDirectories);
+    }
+
+    @Benchmark
+    public Long read(StackBufferState state) throws Exception {
+        return store.read(keys[state.random.nextInt(count)], null, (monkey, filer, stackBuffer, lock) -> {
+            if (filer == null) {
+                return null;
+            }
+            return ChunkLocks.read(lock, () -> {
+                filer.seek(0);
+                return FilerIO.readLong(filer, "value", stackBuffer);
+            });
+        }, state.stackBuffer);
+    }
+
+    @Benchmark
+    public Long readWriteAutoGrow(StackBufferState state) throws Exception {
+        return store.readWriteAutoGrow(keys[state.random.nextInt(count)], payloadSize, (monkey, filer, stackBuffer, lock) -> {
+            return ChunkLocks.write(lock, () -> {
+                filer.seek(0);
+                long value = FilerIO.readLong(filer, "value", stackBuffer) + 1;
+                filer.seek(0);
+                FilerIO.writeLong(filer, value, "value", stackBuffer);
+                return value;
+            });
+        }, state.stackBuffer);
+    }
+}
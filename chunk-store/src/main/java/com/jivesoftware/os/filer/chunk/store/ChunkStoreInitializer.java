@@ -2,7 +2,9 @@ package com.jivesoftware.os.filer.chunk.store;
 
 import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
 import com.jivesoftware.os.filer.io.ByteBufferFactory;
+import com.jivesoftware.os.filer.io.DuplicableFiler;
 import com.jivesoftware.os.filer.io.FileBackedMemMappedByteBufferFactory;
+import com.jivesoftware.os.filer.io.FileChannelFiler;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import com.jivesoftware.os.filer.io.chunk.StripedFiler;
@@ -15,6 +17,86 @@ import java.io.IOException;
 public class ChunkStoreInitializer {
 
     private static final long referenceNumber = 2;
+    private static final long buddyReferenceNumber = 3;
+    private static final long slabReferenceFlag = 1L << 8;
+
+    private final int numberOfStripes;
+    private final int maxCachedChunksPerStripe;
+    private final long maxCachedBytesPerStripe;
+    private boolean buddyAllocation;
+    private boolean slabAllocation;
+    private boolean zeroOnReuse;
+    private long stripeSegmentSize;
+    private long groupCommitWindowMillis = -1;
+    private int groupCommitMaxUpdates;
+
+    /**
+     * Chunks stay cached until they are removed.
+     */
+    public ChunkStoreInitializer() {
+        this(StripedFiler.defaultNumberOfStripes(), Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Bounds each stripe's chunk cache; unacquired chunks are evicted once either bound is exceeded.
+     *
+     * @param numberOfStripes concurrent chunk lookups are spread over this many independently locked stripes
+     * @param maxCachedChunksPerStripe Integer.MAX_VALUE for no bound on entries
+     * @param maxCachedBytesPerStripe Long.MAX_VALUE for no bound on chunk bytes
+     */
+    public ChunkStoreInitializer(int numberOfStripes, int maxCachedChunksPerStripe, long maxCachedBytesPerStripe) {
+        this.numberOfStripes = numberOfStripes;
+        this.maxCachedChunksPerStripe = maxCachedChunksPerStripe;
+        this.maxCachedBytesPerStripe = maxCachedBytesPerStripe;
+    }
+
+    /**
+     * @param buddyAllocation new stores split and merge free chunks across powers instead of keeping a free list per power; existing stores
+     * keep the allocation scheme they were created with
+     */
+    public ChunkStoreInitializer setBuddyAllocation(boolean buddyAllocation) {
+        this.buddyAllocation = buddyAllocation;
+        return this;
+    }
+
+    /**
+     * @param slabAllocation new stores pack chunks of up to 64 bytes into shared slabs instead of giving each its own chunk; existing stores
+     * keep the allocation scheme they were created with
+     */
+    public ChunkStoreInitializer setSlabAllocation(boolean slabAllocation) {
+        this.slabAllocation = slabAllocation;
+        return this;
+    }
+
+    /**
+     * @param zeroOnReuse removed chunks are zeroed when they are handed out again, and then only as far as the creator asked for, instead of
+     * on remove
+     */
+    public ChunkStoreInitializer setZeroOnReuse(boolean zeroOnReuse) {
+        this.zeroOnReuse = zeroOnReuse;
+        return this;
+    }
+
+    /**
+     * @param stripeSegmentSize when positive openOrCreate stripes each store across all of its directories in segments of this size (rounded up
+     * to a power of 2), RAID-0 style, so a single store spreads its I/O over every disk; 0 places each 1GB segment by the hash of its name. A
+     * store must always be opened with the layout it was created with.
+     */
+    public ChunkStoreInitializer setStripeSegmentSize(long stripeSegmentSize) {
+        this.stripeSegmentSize = stripeSegmentSize;
+        return this;
+    }
+
+    /**
+     * @param groupCommitWindowMillis negative leaves writing allocations and removes back to the OS, 0 forces the file on every update, and
+     * anything larger batches the updates of each window (or of groupCommitMaxUpdates, whichever comes first) into a single force; see
+     * ChunkStore.durable()
+     */
+    public ChunkStoreInitializer setGroupCommit(long groupCommitWindowMillis, int groupCommitMaxUpdates) {
+        this.groupCommitWindowMillis = groupCommitWindowMillis;
+        this.groupCommitMaxUpdates = groupCommitMaxUpdates;
+        return this;
+    }
 
     public ChunkStore openOrCreate(File[] dirs,
         int directoryOffset,
@@ -25,9 +107,7 @@ public class ChunkStoreInitializer {
         int maxNewCacheSize,
         StackBuffer stackBuffer) throws Exception {
 
-        FileBackedMemMappedByteBufferFactory factory = new FileBackedMemMappedByteBufferFactory(chunkName, directoryOffset, dirs);
-        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(factory, initialSize,
-            AutoGrowingByteBufferBackedFiler.MAX_BUFFER_SEGMENT_SIZE);
+        AutoGrowingByteBufferBackedFiler filer = filer(dirs, directoryOffset, chunkName, initialSize);
         if (filer.exists()) {
             return open(filer, cacheByteBufferFactory, initialCacheSize, maxNewCacheSize, stackBuffer);
         } else {
@@ -35,9 +115,34 @@ public class ChunkStoreInitializer {
         }
     }
 
+    /**
+     * Opts out of memory mapping: the store lives in a single file read and written with positional FileChannel calls, see FileChannelFiler.
+     * Chunks are then never leaked as ByteBuffers and every read goes to the OS, which suits stores far larger than memory.
+     */
+    public ChunkStore openOrCreate(File file,
+        ByteBufferFactory cacheByteBufferFactory,
+        int initialCacheSize,
+        int maxNewCacheSize,
+        StackBuffer stackBuffer) throws Exception {
+
+        boolean exists = file.exists() && file.length() > 0;
+        FileChannelFiler filer = new FileChannelFiler(file, false);
+        if (exists) {
+            return open(filer, cacheByteBufferFactory, initialCacheSize, maxNewCacheSize, stackBuffer);
+        } else {
+            return create(filer, cacheByteBufferFactory, initialCacheSize, maxNewCacheSize, stackBuffer);
+        }
+    }
+
     public boolean checkExists(File[] dirs, int directoryOffset, String chunkName) throws IOException {
-        FileBackedMemMappedByteBufferFactory factory = new FileBackedMemMappedByteBufferFactory(chunkName, directoryOffset, dirs);
-        return new AutoGrowingByteBufferBackedFiler(factory, 1024, AutoGrowingByteBufferBackedFiler.MAX_BUFFER_SEGMENT_SIZE).exists();
+        return filer(dirs, directoryOffset, chunkName, 1024).exists();
+    }
+
+    private AutoGrowingByteBufferBackedFiler filer(File[] dirs, int directoryOffset, String chunkName, long initialSize) throws IOException {
+        FileBackedMemMappedByteBufferFactory factory = new FileBackedMemMappedByteBufferFactory(chunkName, directoryOffset, stripeSegmentSize > 0,
+            dirs);
+        long segmentSize = stripeSegmentSize > 0 ? stripeSegmentSize : AutoGrowingByteBufferBackedFiler.MAX_BUFFER_SEGMENT_SIZE;
+        return new AutoGrowingByteBufferBackedFiler(factory, Math.min(initialSize, segmentSize), segmentSize);
     }
 
     public ChunkStore open(ByteBufferFactory filer,
@@ -50,13 +155,14 @@ public class ChunkStoreInitializer {
             stackBuffer);
     }
 
-    private ChunkStore open(AutoGrowingByteBufferBackedFiler filer,
+    private ChunkStore open(DuplicableFiler filer,
         ByteBufferFactory cacheByteBufferFactory,
         int initialCacheSize,
         int maxNewCacheSize,
         StackBuffer stackBuffer) throws Exception {
-        StripedFiler stripedFiler = new StripedFiler(filer, new byte[]{0}, cacheByteBufferFactory, 128);
-        ChunkStore chunkStore = new ChunkStore(stripedFiler);
+        StripedFiler stripedFiler = new StripedFiler(filer, new byte[]{0}, cacheByteBufferFactory, numberOfStripes,
+            maxCachedChunksPerStripe, maxCachedBytesPerStripe);
+        ChunkStore chunkStore = new ChunkStore(stripedFiler, zeroOnReuse, groupCommitWindowMillis, groupCommitMaxUpdates);
         chunkStore.open(stackBuffer);
         return chunkStore;
     }
@@ -71,14 +177,15 @@ public class ChunkStoreInitializer {
             stackBuffer);
     }
 
-    private ChunkStore create(AutoGrowingByteBufferBackedFiler filer,
+    private ChunkStore create(DuplicableFiler filer,
         ByteBufferFactory cacheByteBufferFactory,
         int initialCacheSize,
         int maxNewCacheSize,
         StackBuffer stackBuffer) throws Exception {
-        StripedFiler stripedFiler = new StripedFiler(filer, new byte[]{0}, cacheByteBufferFactory, 128);
-        ChunkStore chunkStore = new ChunkStore(stripedFiler);
-        chunkStore.setup(referenceNumber);
+        StripedFiler stripedFiler = new StripedFiler(filer, new byte[]{0}, cacheByteBufferFactory, numberOfStripes,
+            maxCachedChunksPerStripe, maxCachedBytesPerStripe);
+        ChunkStore chunkStore = new ChunkStore(stripedFiler, zeroOnReuse, groupCommitWindowMillis, groupCommitMaxUpdates);
+        chunkStore.setup((buddyAllocation ? buddyReferenceNumber : referenceNumber) | (slabAllocation ? slabReferenceFlag : 0));
         chunkStore.createAndOpen(stripedFiler, stackBuffer);
         return chunkStore;
     }
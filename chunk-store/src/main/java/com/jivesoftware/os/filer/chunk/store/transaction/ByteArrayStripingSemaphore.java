@@ -15,7 +15,7 @@
  */
 package com.jivesoftware.os.filer.chunk.store.transaction;
 
-import java.util.Arrays;
+import com.jivesoftware.os.filer.io.KeyHashers;
 import java.util.concurrent.Semaphore;
 
 /**
@@ -37,7 +37,7 @@ public class ByteArrayStripingSemaphore implements SemaphoreProvider<byte[]> {
 
     @Override
     public Semaphore semaphore(byte[] toLock, int seed) {
-        return semaphores[Math.abs((Arrays.hashCode(toLock) ^ seed) % semaphores.length)];
+        return semaphores[Math.abs((KeyHashers.XX_HASH_64.hash(toLock) ^ seed) % semaphores.length)];
     }
 
     @Override
@@ -70,6 +70,13 @@ public interface FPIndex<K, I extends FPIndex<K, I>> {
         ChunkTransaction<M, R> filerTransaction,
         StackBuffer stackBuffer) throws IOException, InterruptedException;
 
+    /**
+     * Moves the chunk behind key lower in the chunkStore, see ChunkStore.relocate, and repoints key at it.
+     *
+     * @return the chunkFP key now points at, or -1 if key is absent
+     */
+    long relocate(ChunkStore chunkStore, K key, StackBuffer stackBuffer) throws IOException, InterruptedException;
+
     <H, M, R> R readWriteAutoGrow(
         ChunkStore chunkStore,
         K key,
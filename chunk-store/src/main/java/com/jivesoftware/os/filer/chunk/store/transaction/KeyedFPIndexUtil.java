@@ -24,7 +24,6 @@ import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import java.io.IOException;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -48,20 +47,24 @@ public class KeyedFPIndexUtil {
         ChunkTransaction<M, R> filerTransaction,
         StackBuffer stackBuffer) throws IOException, InterruptedException {
 
-        semaphore.acquire();
-
+        long entered = chunkStore.enterEpoch();
         try {
-            long fp;
-            synchronized (keyLock) {
-                fp = backingFPIndex.get(key, stackBuffer);
-                if (fp < 0) {
-                    return filerTransaction.commit(null, null, stackBuffer, null);
+            semaphore.acquire();
+            try {
+                long fp;
+                synchronized (keyLock) {
+                    fp = backingFPIndex.get(key, stackBuffer);
+                    if (fp < 0) {
+                        return filerTransaction.commit(null, null, stackBuffer, null);
+                    }
                 }
-            }
 
-            return chunkStore.execute(fp, opener, filerTransaction, stackBuffer);
+                return chunkStore.execute(fp, opener, filerTransaction, stackBuffer);
+            } finally {
+                semaphore.release();
+            }
         } finally {
-            semaphore.release();
+            chunkStore.exitEpoch(entered);
         }
     }
 
@@ -78,45 +81,65 @@ public class KeyedFPIndexUtil {
         final ChunkTransaction<M, R> filerTransaction,
         StackBuffer stackBuffer) throws IOException, InterruptedException {
 
-        semaphore.acquire();
-
-        final AtomicInteger releasablePermits = new AtomicInteger(1);
+        // readers of the replaced chunk are not drained, it is removed once every epoch that could have seen it has exited
+        long entered = chunkStore.enterEpoch();
         try {
-
-            final long grownFP = chunkStore.newChunk(hint, creator, stackBuffer);
-            R result;
-            final AtomicLong currentFP = new AtomicLong(-1);
-            result = chunkStore.execute(grownFP, opener, (newMonkey, newFiler, _stackBuffer, newLock) -> {
-                growFiler.growAndAcquire(hint, null, null, newMonkey, newFiler, newLock, newLock, _stackBuffer);
-                try {
-                    synchronized (keyLock) {
-                        currentFP.set(backingFPIndex.getAndSet(key, grownFP, _stackBuffer));
+            semaphore.acquire();
+            try {
+                final long grownFP = chunkStore.newChunk(hint, creator, stackBuffer);
+                final AtomicLong currentFP = new AtomicLong(-1);
+                R result = chunkStore.execute(grownFP, opener, (newMonkey, newFiler, _stackBuffer, newLock) -> {
+                    growFiler.growAndAcquire(hint, null, null, newMonkey, newFiler, newLock, newLock, _stackBuffer);
+                    try {
+                        synchronized (keyLock) {
+                            currentFP.set(backingFPIndex.getAndSet(key, grownFP, _stackBuffer));
+                        }
+                        return filerTransaction.commit(newMonkey, newFiler, _stackBuffer, newLock);
+                    } finally {
+                        growFiler.release(hint, newMonkey, newLock);
                     }
-                    return filerTransaction.commit(newMonkey, newFiler, _stackBuffer, newLock);
-                } finally {
-                    growFiler.release(hint, newMonkey, newLock);
-                }
-            }, stackBuffer);
+                }, stackBuffer);
 
-            if (currentFP.get() > -1) {
+                if (currentFP.get() > -1) {
+                    chunkStore.removeDeferred(currentFP.get(), stackBuffer);
+                }
+                return result;
+            } finally {
                 semaphore.release();
-                releasablePermits.set(0);
-                while (!semaphore.tryAcquire(numPermits, 5, TimeUnit.MINUTES)) {
-                    System.err.println("Deadlock due to probable case of reentrant transaction");
-                    Thread.dumpStack();
+            }
+        } finally {
+            chunkStore.exitEpoch(entered);
+        }
+    }
+
+    public <K> long relocate(FPIndex<K, ?> backingFPIndex,
+        Semaphore semaphore,
+        int numPermits,
+        ChunkStore chunkStore,
+        Object keyLock,
+        K key,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+
+        // a shared permit is enough, transactions that looked up the old chunk are forwarded to the moved one until it is removed
+        semaphore.acquire();
+        try {
+            long fp;
+            long relocatedFP;
+            synchronized (keyLock) {
+                fp = backingFPIndex.get(key, stackBuffer);
+                if (fp < 0) {
+                    return -1;
                 }
-                releasablePermits.set(numPermits);
-                try {
-                    chunkStore.remove(currentFP.get(), stackBuffer);
-                } finally {
-                    semaphore.release(numPermits - 1);
-                    releasablePermits.set(1);
+                relocatedFP = chunkStore.relocate(fp, stackBuffer);
+                if (relocatedFP == fp) {
+                    return fp;
                 }
+                fp = backingFPIndex.getAndSet(key, relocatedFP, stackBuffer);
             }
-            return result;
-
+            chunkStore.removeDeferred(fp, stackBuffer);
+            return relocatedFP;
         } finally {
-            semaphore.release(releasablePermits.get());
+            semaphore.release();
         }
     }
 
@@ -134,48 +157,51 @@ public class KeyedFPIndexUtil {
         StackBuffer stackBuffer) throws IOException, InterruptedException {
 
         long fp;
-
-        semaphore.acquire();
-
+        long entered = chunkStore.enterEpoch();
         try {
-            synchronized (keyLock) {
-                fp = backingFPIndex.get(key, stackBuffer);
-                if (fp < 0) {
-                    if (creator == null) {
-                        return filerTransaction.commit(null, null, stackBuffer, null);
+            semaphore.acquire();
+
+            try {
+                synchronized (keyLock) {
+                    fp = backingFPIndex.get(key, stackBuffer);
+                    if (fp < 0) {
+                        if (creator == null) {
+                            return filerTransaction.commit(null, null, stackBuffer, null);
+                        }
+                        final long newFp = chunkStore.newChunk(hint, creator, stackBuffer);
+                        backingFPIndex.set(key, newFp, stackBuffer);
+                        fp = newFp;
                     }
-                    final long newFp = chunkStore.newChunk(hint, creator, stackBuffer);
-                    backingFPIndex.set(key, newFp, stackBuffer);
-                    fp = newFp;
                 }
-            }
 
-            Bag<R> bag = chunkStore.execute(fp, opener, (monkey, filer, _stackBuffer, lock) -> {
-                if (growFiler != null) {
-                    H hint1 = growFiler.acquire(hint, monkey, filer, lock);
-                    try {
-                        if (hint1 != null) {
-                            return null;
+                Bag<R> bag = chunkStore.execute(fp, opener, (monkey, filer, _stackBuffer, lock) -> {
+                    if (growFiler != null) {
+                        H hint1 = growFiler.acquire(hint, monkey, filer, lock);
+                        try {
+                            if (hint1 != null) {
+                                return null;
+                            }
+                            return new Bag<>(filerTransaction.commit(monkey, filer, _stackBuffer, lock));
+                        } finally {
+                            growFiler.release(hint, monkey, lock);
                         }
+                    } else {
                         return new Bag<>(filerTransaction.commit(monkey, filer, _stackBuffer, lock));
-                    } finally {
-                        growFiler.release(hint, monkey, lock);
                     }
-                } else {
-                    return new Bag<>(filerTransaction.commit(monkey, filer, _stackBuffer, lock));
+                }, stackBuffer);
+                if (bag != null) {
+                    return bag.result;
                 }
-            }, stackBuffer);
-            if (bag != null) {
-                return bag.result;
+            } finally {
+                semaphore.release();
             }
         } finally {
-            semaphore.release();
+            chunkStore.exitEpoch(entered);
         }
 
-        while (!semaphore.tryAcquire(numPermits, 5, TimeUnit.MINUTES)) {
-            System.err.println("Deadlock due to probable case of reentrant transaction");
-            Thread.dumpStack();
-        }
+        // draining every permit already keeps readers off the chunk it replaces, and waiting inside an epoch would hold up every
+        // removeDeferred in the store
+        semaphore.acquire(numPermits);
 
         final AtomicInteger releasablePermits = new AtomicInteger(numPermits);
         try {
@@ -26,6 +26,7 @@ import com.jivesoftware.os.filer.io.api.ChunkTransaction;
 import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import com.jivesoftware.os.filer.io.map.MapContext;
 import com.jivesoftware.os.filer.io.map.MapStore;
@@ -95,13 +96,13 @@ public class MapBackedKeyedFPIndex implements FPIndex<byte[], MapBackedKeyedFPIn
         }
         if (got == null) {
             got = backingChunkStore.execute(backingFP, opener, (monkey, filer, stackBuffer1, lock) -> {
-                synchronized (lock) {
+                return ChunkLocks.read(lock, () -> {
                     long ai = MapStore.INSTANCE.get(filer, monkey.mapContext, key, stackBuffer1);
                     if (ai < 0) {
                         return -1L;
                     }
-                    return FilerIO.bytesLong(MapStore.INSTANCE.getPayload(filer, monkey.mapContext, ai, stackBuffer1));
-                }
+                    return MapStore.INSTANCE.getPayloadLong(filer, monkey.mapContext, ai, stackBuffer1);
+                });
             }, stackBuffer);
             if (keyToFpCache != null) {
                 keyToFpCache.put(new IBA(key), got);
@@ -116,10 +117,10 @@ public class MapBackedKeyedFPIndex implements FPIndex<byte[], MapBackedKeyedFPIn
             keyToFpCache.put(new IBA(key), fp);
         }
         backingChunkStore.execute(backingFP, opener, (monkey, filer, stackBuffer1, lock) -> {
-            synchronized (lock) {
+            return ChunkLocks.write(lock, () -> {
                 MapStore.INSTANCE.add(filer, monkey.mapContext, (byte) 1, key, FilerIO.longBytes(fp), stackBuffer1);
-            }
-            return null;
+                return null;
+            });
         }, stackBuffer);
     }
 
@@ -129,15 +130,15 @@ public class MapBackedKeyedFPIndex implements FPIndex<byte[], MapBackedKeyedFPIn
             keyToFpCache.put(new IBA(key), fp);
         }
         return backingChunkStore.execute(backingFP, opener, (monkey, filer, stackBuffer1, lock) -> {
-            synchronized (lock) {
+            return ChunkLocks.write(lock, () -> {
                 long ai = MapStore.INSTANCE.get(filer, monkey.mapContext, key, stackBuffer1);
                 long got = -1L;
                 if (ai > -1) {
-                    got = FilerIO.bytesLong(MapStore.INSTANCE.getPayload(filer, monkey.mapContext, ai, stackBuffer1));
+                    got = MapStore.INSTANCE.getPayloadLong(filer, monkey.mapContext, ai, stackBuffer1);
                 }
                 MapStore.INSTANCE.add(filer, monkey.mapContext, (byte) 1, key, FilerIO.longBytes(fp), stackBuffer1);
                 return got;
-            }
+            });
         }, stackBuffer);
     }
 
@@ -160,6 +161,13 @@ public class MapBackedKeyedFPIndex implements FPIndex<byte[], MapBackedKeyedFPIn
             key, hint, creator, opener, growFiler, filerTransaction, stackBuffer);
     }
 
+    @Override
+    public long relocate(ChunkStore chunkStore, byte[] key, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        Object keyLock = keyLocks.lock(key, seed);
+        return KeyedFPIndexUtil.INSTANCE.relocate(this, keySemaphores.semaphore(key, seed), keySemaphores.getNumPermits(), chunkStore, keyLock,
+            key, stackBuffer);
+    }
+
     @Override
     public <H, M, R> R readWriteAutoGrow(ChunkStore chunkStore, byte[] key, H hint,
         CreateFiler<H, M, ChunkFiler> creator, OpenFiler<M, ChunkFiler> opener, GrowFiler<H, M, ChunkFiler> growFiler,
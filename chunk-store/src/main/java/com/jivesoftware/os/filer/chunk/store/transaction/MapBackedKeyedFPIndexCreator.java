@@ -30,6 +30,8 @@ import java.util.Map;
  */
 public class MapBackedKeyedFPIndexCreator implements CreateFiler<Integer, MapBackedKeyedFPIndex, ChunkFiler> {
 
+    private static final int HASH_TAG_MIN_KEY_SIZE = 16; // below this comparing the key costs about the same as the tag
+
     private final int seed;
     private final int initialCapacity;
     private final int keySize;
@@ -40,6 +42,7 @@ public class MapBackedKeyedFPIndexCreator implements CreateFiler<Integer, MapBac
     private final LocksProvider<byte[]> keyLocks;
     private final SemaphoreProvider<byte[]> keySemaphores;
     private final KeyToFPCacheFactory cacheFactory; // Nullable
+    private final byte mapVersion;
 
     public MapBackedKeyedFPIndexCreator(int seed,
         int initialCapacity,
@@ -62,13 +65,15 @@ public class MapBackedKeyedFPIndexCreator implements CreateFiler<Integer, MapBac
         this.keyLocks = keyLocks;
         this.keySemaphores = keySemaphores;
         this.cacheFactory = cacheProvider;
+        this.mapVersion = keySize >= HASH_TAG_MIN_KEY_SIZE ? MapStore.cHashTagMapVersion : MapStore.cMapVersion;
     }
 
     @Override
     public MapBackedKeyedFPIndex create(Integer hint, ChunkFiler filer, StackBuffer stackBuffer) throws IOException {
         hint += initialCapacity;
         hint = hint < 2 ? 2 : hint;
-        MapContext mapContext = MapStore.INSTANCE.create(hint, keySize, variableKeySize, payloadSize, variablePayloadSize, filer, stackBuffer);
+        MapContext mapContext = MapStore.INSTANCE.create(hint, keySize, variableKeySize, payloadSize, variablePayloadSize, mapVersion, filer,
+            stackBuffer);
         Map<IBA, Long> keyToFPcache = null;
         if (cacheFactory != null) {
             keyToFPcache = cacheFactory.createCache();
@@ -80,6 +85,6 @@ public class MapBackedKeyedFPIndexCreator implements CreateFiler<Integer, MapBac
     public long sizeInBytes(Integer hint) throws IOException {
         hint += initialCapacity;
         hint = hint < 2 ? 2 : hint;
-        return MapStore.INSTANCE.computeFilerSize(hint, keySize, variableKeySize, payloadSize, variablePayloadSize);
+        return MapStore.INSTANCE.computeFilerSize(hint, keySize, variableKeySize, payloadSize, variablePayloadSize, mapVersion);
     }
 }
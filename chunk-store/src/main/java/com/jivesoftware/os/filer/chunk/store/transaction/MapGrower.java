@@ -3,6 +3,7 @@ package com.jivesoftware.os.filer.chunk.store.transaction;
 import com.jivesoftware.os.filer.io.GrowFiler;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import com.jivesoftware.os.filer.io.map.MapContext;
 import com.jivesoftware.os.filer.io.map.MapStore;
 import java.io.IOException;
@@ -15,13 +16,13 @@ public class MapGrower<M extends MapContext> implements GrowFiler<Integer, M, Ch
 
     @Override
     public Integer acquire(Integer sizeHint, M monkey, ChunkFiler filer, Object lock) throws IOException {
-        synchronized (lock) {
+        return ChunkLocks.write(lock, () -> {
             if (MapStore.INSTANCE.acquire(monkey, sizeHint)) {
                 return null;
             } else {
                 return MapStore.INSTANCE.nextGrowSize(monkey, sizeHint);
             }
-        }
+        });
     }
 
     @Override
@@ -34,21 +35,21 @@ public class MapGrower<M extends MapContext> implements GrowFiler<Integer, M, Ch
         Object newLock,
         StackBuffer stackBuffer) throws IOException {
 
-        synchronized (currentLock) {
-            synchronized (newLock) {
-                if (MapStore.INSTANCE.acquire(newMonkey, sizeHint)) {
-                    MapStore.INSTANCE.copyTo(currentFiler, currentMonkey, newFiler, newMonkey, null, stackBuffer);
-                } else {
-                    throw new RuntimeException("Newly allocated MapGrower context does not have necessary capacity!");
-                }
+        ChunkLocks.write(currentLock, () -> ChunkLocks.write(newLock, () -> {
+            if (MapStore.INSTANCE.acquire(newMonkey, sizeHint)) {
+                MapStore.INSTANCE.copyTo(currentFiler, currentMonkey, newFiler, newMonkey, null, stackBuffer);
+            } else {
+                throw new RuntimeException("Newly allocated MapGrower context does not have necessary capacity!");
             }
-        }
+            return null;
+        }));
     }
 
     @Override
     public void release(Integer sizeHint, M monkey, Object lock) {
-        synchronized (lock) {
+        ChunkLocks.write(lock, () -> {
             MapStore.INSTANCE.release(monkey, sizeHint);
-        }
+            return null;
+        });
     }
 }
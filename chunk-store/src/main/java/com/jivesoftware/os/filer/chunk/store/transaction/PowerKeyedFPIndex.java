@@ -24,6 +24,7 @@ import com.jivesoftware.os.filer.io.api.ChunkTransaction;
 import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import java.io.IOException;
 import java.util.List;
@@ -61,11 +62,11 @@ public class PowerKeyedFPIndex implements FPIndex<Integer, PowerKeyedFPIndex> {
     @Override
     public void set(final Integer key, final long fp, StackBuffer stackBuffer) throws IOException, InterruptedException {
         backingChunkStore.execute(backingFP, null, (monkey, filer, _stackBuffer, lock) -> {
-            synchronized (lock) {
+            return ChunkLocks.write(lock, () -> {
                 filer.seek(8 + (8 * key));
                 FilerIO.writeLong(filer, fp, "fp", _stackBuffer);
-            }
-            return null;
+                return null;
+            });
         }, stackBuffer);
         fpIndex[key] = fp;
     }
@@ -74,11 +75,11 @@ public class PowerKeyedFPIndex implements FPIndex<Integer, PowerKeyedFPIndex> {
     public long getAndSet(final Integer key, final long fp, StackBuffer stackBuffer) throws IOException, InterruptedException {
         long got = fpIndex[key];
         backingChunkStore.execute(backingFP, null, (monkey, filer, _stackBuffer, lock) -> {
-            synchronized (lock) {
+            return ChunkLocks.write(lock, () -> {
                 filer.seek(8 + (8 * key));
                 FilerIO.writeLong(filer, fp, "fp", _stackBuffer);
-            }
-            return null;
+                return null;
+            });
         }, stackBuffer);
         fpIndex[key] = fp;
         return got;
@@ -101,6 +102,12 @@ public class PowerKeyedFPIndex implements FPIndex<Integer, PowerKeyedFPIndex> {
             keySizeLocks[key], key, hint, creator, opener, growFiler, filerTransaction, stackBuffer);
     }
 
+    @Override
+    public long relocate(ChunkStore chunkStore, Integer key, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        return KeyedFPIndexUtil.INSTANCE.relocate(this, keySemaphores.semaphore(key, seed), keySemaphores.getNumPermits(), chunkStore,
+            keySizeLocks[key], key, stackBuffer);
+    }
+
     @Override
     public <H, M, R> R readWriteAutoGrow(ChunkStore chunkStore, Integer key, H hint,
         CreateFiler<H, M, ChunkFiler> creator, OpenFiler<M, ChunkFiler> opener, GrowFiler<H, M, ChunkFiler> growFiler,
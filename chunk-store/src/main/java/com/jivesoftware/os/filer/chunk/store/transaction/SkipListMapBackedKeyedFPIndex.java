@@ -26,6 +26,7 @@ import com.jivesoftware.os.filer.io.api.ChunkTransaction;
 import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import com.jivesoftware.os.filer.io.map.MapStore;
 import com.jivesoftware.os.filer.io.map.SkipListMapContext;
@@ -69,7 +70,7 @@ public class SkipListMapBackedKeyedFPIndex implements FPIndex<byte[], SkipListMa
 
     @Override
     public boolean acquire(int alwaysRoomForNMoreKeys) {
-        return MapStore.INSTANCE.acquire(context.mapContext, alwaysRoomForNMoreKeys);
+        return SkipListMapStore.INSTANCE.acquire(context, alwaysRoomForNMoreKeys);
     }
 
     @Override
@@ -99,13 +100,13 @@ public class SkipListMapBackedKeyedFPIndex implements FPIndex<byte[], SkipListMa
         }
         if (got == null) {
             got = backingChunkStore.execute(backingFP, opener, (monkey, filer, _stackBuffer, lock) -> {
-                synchronized (lock) {
+                return ChunkLocks.read(lock, () -> {
                     byte[] got1 = SkipListMapStore.INSTANCE.getExistingPayload(filer, monkey.context, key, _stackBuffer);
                     if (got1 == null) {
                         return -1L;
                     }
                     return FilerIO.bytesLong(got1);
-                }
+                });
             }, stackBuffer);
             if (keyToFpCache != null) {
                 keyToFpCache.put(new IBA(key), got);
@@ -120,10 +121,10 @@ public class SkipListMapBackedKeyedFPIndex implements FPIndex<byte[], SkipListMa
             keyToFpCache.put(new IBA(key), fp);
         }
         backingChunkStore.execute(backingFP, opener, (monkey, filer, _stackBuffer, lock) -> {
-            synchronized (lock) {
+            return ChunkLocks.write(lock, () -> {
                 SkipListMapStore.INSTANCE.add(filer, context, key, FilerIO.longBytes(fp), _stackBuffer);
-            }
-            return null;
+                return null;
+            });
         }, stackBuffer);
     }
 
@@ -133,7 +134,7 @@ public class SkipListMapBackedKeyedFPIndex implements FPIndex<byte[], SkipListMa
             keyToFpCache.put(new IBA(key), fp);
         }
         return backingChunkStore.execute(backingFP, opener, (monkey, filer, _stackBuffer, lock) -> {
-            synchronized (lock) {
+            return ChunkLocks.write(lock, () -> {
                 byte[] payload = SkipListMapStore.INSTANCE.getExistingPayload(filer, monkey.context, key, _stackBuffer);
                 long got = -1L;
                 if (payload != null) {
@@ -141,7 +142,7 @@ public class SkipListMapBackedKeyedFPIndex implements FPIndex<byte[], SkipListMa
                 }
                 SkipListMapStore.INSTANCE.add(filer, context, key, FilerIO.longBytes(fp), _stackBuffer);
                 return got;
-            }
+            });
         }, stackBuffer);
     }
 
@@ -163,6 +164,13 @@ public class SkipListMapBackedKeyedFPIndex implements FPIndex<byte[], SkipListMa
             key, hint, creator, opener, growFiler, filerTransaction, stackBuffer);
     }
 
+    @Override
+    public long relocate(ChunkStore chunkStore, byte[] key, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        Object keyLock = keyLocks.lock(key, seed);
+        return KeyedFPIndexUtil.INSTANCE.relocate(this, keySemaphores.semaphore(key, seed), keySemaphores.getNumPermits(), chunkStore, keyLock,
+            key, stackBuffer);
+    }
+
     @Override
     public <H, M, R> R readWriteAutoGrow(ChunkStore chunkStore, byte[] key, H hint,
         CreateFiler<H, M, ChunkFiler> creator, OpenFiler<M, ChunkFiler> opener, GrowFiler<H, M, ChunkFiler> growFiler,
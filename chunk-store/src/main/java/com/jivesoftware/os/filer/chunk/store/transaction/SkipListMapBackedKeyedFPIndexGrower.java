@@ -18,6 +18,7 @@ package com.jivesoftware.os.filer.chunk.store.transaction;
 import com.jivesoftware.os.filer.io.GrowFiler;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import java.io.IOException;
 
 /**
@@ -27,7 +28,7 @@ public class SkipListMapBackedKeyedFPIndexGrower implements GrowFiler<Integer, S
 
     @Override
     public Integer acquire(Integer sizeHint, SkipListMapBackedKeyedFPIndex monkey, ChunkFiler filer, Object lock) throws IOException {
-        synchronized (lock) {
+        return ChunkLocks.write(lock, () -> {
             if (monkey.acquire(sizeHint)) {
                 // there is definitely room for N more
                 return null;
@@ -35,7 +36,7 @@ public class SkipListMapBackedKeyedFPIndexGrower implements GrowFiler<Integer, S
                 // there might not be room for N more
                 return monkey.nextGrowSize(sizeHint);
             }
-        }
+        });
     }
 
     @Override
@@ -48,21 +49,21 @@ public class SkipListMapBackedKeyedFPIndexGrower implements GrowFiler<Integer, S
         Object newLock,
         StackBuffer stackBuffer) throws IOException {
 
-        synchronized (currentLock) {
-            synchronized (newLock) {
-                if (newMonkey.acquire(sizeHint)) {
-                    currentMonkey.copyTo(currentFiler, newMonkey, newFiler, stackBuffer);
-                } else {
-                    throw new RuntimeException("Newly allocated MapBackedKeyedFPIndexGrower context does not have necessary capacity!");
-                }
+        ChunkLocks.write(currentLock, () -> ChunkLocks.write(newLock, () -> {
+            if (newMonkey.acquire(sizeHint)) {
+                currentMonkey.copyTo(currentFiler, newMonkey, newFiler, stackBuffer);
+            } else {
+                throw new RuntimeException("Newly allocated MapBackedKeyedFPIndexGrower context does not have necessary capacity!");
             }
-        }
+            return null;
+        }));
     }
 
     @Override
     public void release(Integer sizeHint, SkipListMapBackedKeyedFPIndex monkey, Object lock) {
-        synchronized (lock) {
+        ChunkLocks.write(lock, () -> {
             monkey.release(sizeHint);
-        }
+            return null;
+        });
     }
 }
@@ -28,6 +28,7 @@ import com.jivesoftware.os.filer.io.api.IndexAlignedHintAndTransactionSupplier;
 import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import java.io.IOException;
 import java.util.List;
@@ -61,13 +62,12 @@ public class TxNamedMapOfFiler<N extends FPIndex<byte[], N>, H, M> {
                 Object newLock,
                 StackBuffer stackBuffer
             ) throws IOException {
-                synchronized (currentLock) {
-                    synchronized (newLock) {
-                        currentFiler.seek(0);
-                        newFiler.seek(0);
-                        FilerIO.copy(currentFiler, newFiler, -1);
-                    }
-                }
+                ChunkLocks.write(currentLock, () -> ChunkLocks.write(newLock, () -> {
+                    currentFiler.seek(0);
+                    newFiler.seek(0);
+                    currentFiler.copyTo(newFiler, currentFiler.length());
+                    return null;
+                }));
             }
 
             @Override
@@ -20,6 +20,7 @@ import com.jivesoftware.os.filer.io.api.ChunkTransaction;
 import com.jivesoftware.os.filer.io.api.IndexAlignedChunkTransaction;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import com.jivesoftware.os.filer.io.map.MapContext;
 import com.jivesoftware.os.filer.io.map.MapStore;
 import java.io.IOException;
@@ -52,12 +53,13 @@ public class TxPartitionedNamedMap {
             final boolean[] currentContains = partitionedContains[p];
             namedMaps[p].read(mapName, (context, filer, stackBuffer1, lock) -> {
                 if (filer != null) {
-                    synchronized (lock) {
+                    ChunkLocks.read(lock, () -> {
                         for (int i = 0; i < currentKeysBytes.length; i++) {
                             byte[] keyBytes = currentKeysBytes[i];
                             currentContains[i] = (keyBytes != null && MapStore.INSTANCE.contains(filer, context, keyBytes, stackBuffer1));
                         }
-                    }
+                        return null;
+                    });
                 }
                 return null;
             }, stackBuffer);
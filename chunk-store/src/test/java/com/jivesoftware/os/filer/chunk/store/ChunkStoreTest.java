@@ -8,29 +8,42 @@
  */
 package com.jivesoftware.os.filer.chunk.store;
 
+import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
 import com.jivesoftware.os.filer.io.CreateFiler;
 import com.jivesoftware.os.filer.io.FilerIO;
 import com.jivesoftware.os.filer.io.HeapByteBufferFactory;
 import com.jivesoftware.os.filer.io.NoOpCreateFiler;
 import com.jivesoftware.os.filer.io.NoOpOpenFiler;
 import com.jivesoftware.os.filer.io.StripingLocksProvider;
+import com.jivesoftware.os.filer.io.api.CorruptionException;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
+import com.jivesoftware.os.filer.io.chunk.StripedFiler;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 /**
  * @author jonathan.colt
@@ -94,6 +107,339 @@ public class ChunkStoreTest {
         assertIntInChunk(chunkStore, chunk10, 10, stackBuffer);
     }
 
+    @Test
+    public void testBoundedChunkCache() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = {Files.createTempDirectory("testBoundedChunkCache").toFile()};
+        ChunkStore chunkStore = new ChunkStoreInitializer(StripedFiler.defaultNumberOfStripes(), 2, 1024)
+            .openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+
+        long[] chunkFPs = new long[1_000];
+        for (int i = 0; i < chunkFPs.length; i++) {
+            chunkFPs[i] = chunkStore.newChunk(8L, createFiler, stackBuffer);
+            writeIntToChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+        }
+        for (int i = 0; i < chunkFPs.length; i++) {
+            assertIntInChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+        }
+    }
+
+    @Test
+    public void testFreeChunksSurviveReopen() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = {Files.createTempDirectory("testFreeChunksSurviveReopen").toFile()};
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+
+        long[] chunkFPs = new long[10];
+        for (int i = 0; i < chunkFPs.length; i++) {
+            chunkFPs[i] = chunkStore.newChunk(8L, createFiler, stackBuffer);
+        }
+        for (int i = 0; i < 5; i++) {
+            chunkStore.remove(chunkFPs[i], stackBuffer);
+        }
+        long length = chunkStore.sizeInBytes();
+
+        chunkStore = new ChunkStoreInitializer().openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+        for (int i = 4; i >= 0; i--) {
+            assertEquals(chunkStore.newChunk(8L, createFiler, stackBuffer), chunkFPs[i]);
+        }
+        assertEquals(chunkStore.sizeInBytes(), length);
+        assertTrue(chunkStore.newChunk(8L, createFiler, stackBuffer) > chunkFPs[9]);
+    }
+
+    @Test
+    public void testFileChannelBacked() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File file = new File(Files.createTempDirectory("testFileChannelBacked").toFile(), "data");
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(file, byteBufferFactory, 500, 5_000, stackBuffer);
+
+        long[] chunkFPs = new long[100];
+        for (int i = 0; i < chunkFPs.length; i++) {
+            chunkFPs[i] = chunkStore.newChunk(8L * (i + 1), createFiler, stackBuffer);
+            writeIntToChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+        }
+        for (int i = 0; i < chunkFPs.length; i += 2) {
+            chunkStore.remove(chunkFPs[i], stackBuffer);
+        }
+        chunkStore.close();
+
+        chunkStore = new ChunkStoreInitializer().openOrCreate(file, byteBufferFactory, 500, 5_000, stackBuffer);
+        for (int i = 1; i < chunkFPs.length; i += 2) {
+            assertTrue(chunkStore.isValid(chunkFPs[i], stackBuffer));
+            assertIntInChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+        }
+        assertEquals(chunkStore.newChunk(8L * 99, createFiler, stackBuffer), chunkFPs[98]);
+    }
+
+    @Test
+    public void testConcurrentAllocation() throws Exception {
+        concurrentAllocation(new ChunkStoreInitializer());
+    }
+
+    @Test
+    public void testConcurrentBuddyAllocation() throws Exception {
+        concurrentAllocation(new ChunkStoreInitializer().setBuddyAllocation(true));
+    }
+
+    private void concurrentAllocation(ChunkStoreInitializer initializer) throws Exception {
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = {Files.createTempDirectory("testConcurrentAllocation").toFile()};
+        ChunkStore chunkStore = initializer.openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, new StackBuffer());
+
+        int numThreads = 8;
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final long size = 8L << (t % 4);
+            futures.add(executorService.submit(() -> {
+                StackBuffer stackBuffer = new StackBuffer();
+                List<Long> kept = new ArrayList<>();
+                for (int i = 0; i < 1_000; i++) {
+                    long chunkFP = chunkStore.newChunk(size, createFiler, stackBuffer);
+                    if (i % 3 == 0) {
+                        chunkStore.remove(chunkFP, stackBuffer);
+                    } else {
+                        kept.add(chunkFP);
+                    }
+                }
+                return kept;
+            }));
+        }
+        Set<Long> allocated = new HashSet<>();
+        for (Future<List<Long>> future : futures) {
+            for (long chunkFP : future.get()) {
+                assertTrue(allocated.add(chunkFP), "chunkFP handed out twice " + chunkFP);
+            }
+        }
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testBuddySplitAndMerge() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = {Files.createTempDirectory("testBuddySplitAndMerge").toFile()};
+        ChunkStoreInitializer initializer = new ChunkStoreInitializer().setBuddyAllocation(true);
+        ChunkStore chunkStore = initializer.openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+
+        long skyHook = chunkStore.newChunk(8L, createFiler, stackBuffer);
+        assertEquals(skyHook, chunkStore.getSkyHookFp());
+
+        long big = chunkStore.newChunk(60_000L, createFiler, stackBuffer);
+        long length = chunkStore.sizeInBytes();
+        chunkStore.remove(big, stackBuffer);
+
+        // free blocks, including the one that held big, are split rather than the file grown
+        long[] small = new long[16];
+        for (int i = 0; i < small.length; i++) {
+            small[i] = chunkStore.newChunk(4_000L, createFiler, stackBuffer);
+            writeIntToChunk(chunkStore, small[i], i, stackBuffer);
+        }
+        assertEquals(chunkStore.sizeInBytes(), length);
+        for (int i = 0; i < small.length; i++) {
+            assertIntInChunk(chunkStore, small[i], i, stackBuffer);
+            chunkStore.remove(small[i], stackBuffer);
+        }
+
+        // and merged back together once they are all free, also after a reopen
+        chunkStore = initializer.openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+        assertEquals(chunkStore.newChunk(60_000L, createFiler, stackBuffer), big);
+        assertEquals(chunkStore.sizeInBytes(), length);
+        assertIntInChunk(chunkStore, big, 0, stackBuffer);
+    }
+
+    @Test
+    public void testRelocateAndTruncate() throws Exception {
+        relocateAndTruncate(new ChunkStoreInitializer());
+    }
+
+    @Test
+    public void testBuddyRelocateAndTruncate() throws Exception {
+        relocateAndTruncate(new ChunkStoreInitializer().setBuddyAllocation(true));
+    }
+
+    private void relocateAndTruncate(ChunkStoreInitializer initializer) throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = {Files.createTempDirectory("testRelocateAndTruncate").toFile()};
+        ChunkStore chunkStore = initializer.openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+
+        long[] chunkFPs = new long[200];
+        for (int i = 0; i < chunkFPs.length; i++) {
+            chunkFPs[i] = chunkStore.newChunk(1_000L, createFiler, stackBuffer);
+            writeIntToChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+        }
+        for (int i = 0; i < chunkFPs.length / 2; i++) {
+            chunkStore.remove(chunkFPs[i], stackBuffer);
+        }
+        long tailFP = chunkFPs[chunkFPs.length - 1];
+
+        for (int i = chunkFPs.length / 2; i < chunkFPs.length; i++) {
+            long relocatedFP = chunkStore.relocate(chunkFPs[i], stackBuffer);
+            assertTrue(relocatedFP < chunkFPs[i]);
+            assertEquals(chunkLengthHeader(dirs[0], relocatedFP), chunkLengthHeader(dirs[0], chunkFPs[i]));
+            chunkStore.remove(chunkFPs[i], stackBuffer);
+            chunkFPs[i] = relocatedFP;
+        }
+
+        long dropped = 0;
+        for (long step = chunkStore.truncate(10_000L, stackBuffer); step > 0; step = chunkStore.truncate(10_000L, stackBuffer)) {
+            dropped += step;
+        }
+        assertTrue(dropped > 0);
+
+        // the truncated tail is handed out again rather than the free chunks that used to sit there
+        chunkStore = initializer.openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+        for (int i = chunkFPs.length / 2; i < chunkFPs.length; i++) {
+            assertIntInChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+        }
+        long chunkFP = chunkStore.newChunk(1_000L, createFiler, stackBuffer);
+        assertTrue(chunkFP < tailFP);
+        writeIntToChunk(chunkStore, chunkFP, -1, stackBuffer);
+        assertIntInChunk(chunkStore, chunkFP, -1, stackBuffer);
+        for (int i = chunkFPs.length / 2; i < chunkFPs.length; i++) {
+            assertIntInChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+        }
+    }
+
+    @Test
+    public void testRelocatedChunkForwardsTransactions() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = {Files.createTempDirectory("testRelocatedChunkForwardsTransactions").toFile()};
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+
+        long freeFP = chunkStore.newChunk(1_000L, createFiler, stackBuffer);
+        long chunkFP = chunkStore.newChunk(1_000L, createFiler, stackBuffer);
+        writeIntToChunk(chunkStore, chunkFP, 1, stackBuffer);
+        chunkStore.remove(freeFP, stackBuffer);
+        long relocatedFP = chunkStore.relocate(chunkFP, stackBuffer);
+        assertEquals(relocatedFP, freeFP);
+
+        // a transaction that looked up the old chunkFP before it was repointed still lands in the moved chunk
+        writeIntToChunk(chunkStore, chunkFP, 2, stackBuffer);
+        assertIntInChunk(chunkStore, relocatedFP, 2, stackBuffer);
+
+        chunkStore.removeDeferred(chunkFP, stackBuffer);
+        chunkStore.close();
+        chunkStore = new ChunkStoreInitializer().openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+        assertIntInChunk(chunkStore, relocatedFP, 2, stackBuffer);
+        assertEquals(chunkStore.newChunk(1_000L, createFiler, stackBuffer), chunkFP);
+    }
+
+    @Test
+    public void testSlabAllocation() throws Exception {
+        slabAllocation(false);
+    }
+
+    @Test
+    public void testBuddySlabAllocation() throws Exception {
+        slabAllocation(true);
+    }
+
+    @Test
+    public void testSlabsAreCompact() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        ChunkStore chunkStore = new ChunkStoreInitializer()
+            .openOrCreate(new File[]{Files.createTempDirectory("testSlabsAreCompact").toFile()}, 0, "data", 4_096, byteBufferFactory, 500, 5_000,
+                stackBuffer);
+        ChunkStore slabChunkStore = new ChunkStoreInitializer().setSlabAllocation(true)
+            .openOrCreate(new File[]{Files.createTempDirectory("testSlabsAreCompact").toFile()}, 0, "data", 4_096, byteBufferFactory, 500, 5_000,
+                stackBuffer);
+        for (int i = 0; i < 20_000; i++) {
+            chunkStore.newChunk(8L, createFiler, stackBuffer);
+            slabChunkStore.newChunk(8L, createFiler, stackBuffer);
+        }
+        assertTrue(slabChunkStore.sizeInBytes() < chunkStore.sizeInBytes(), slabChunkStore.sizeInBytes() + " vs " + chunkStore.sizeInBytes());
+    }
+
+    private void slabAllocation(boolean buddyAllocation) throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = {Files.createTempDirectory("testSlabAllocation").toFile()};
+        ChunkStoreInitializer initializer = new ChunkStoreInitializer().setBuddyAllocation(buddyAllocation).setSlabAllocation(true);
+        ChunkStore chunkStore = initializer.openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+
+        long[] chunkFPs = new long[2_000];
+        for (int i = 0; i < chunkFPs.length; i++) {
+            chunkFPs[i] = chunkStore.newChunk(8L << (i % 4), createFiler, stackBuffer);
+            writeIntToChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+        }
+        long length = chunkStore.sizeInBytes();
+
+        for (int i = 0; i < chunkFPs.length; i += 2) {
+            chunkStore.remove(chunkFPs[i], stackBuffer);
+            assertTrue(!chunkStore.isValid(chunkFPs[i], stackBuffer));
+        }
+
+        chunkStore = initializer.openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+        Set<Long> live = new HashSet<>();
+        for (int i = 1; i < chunkFPs.length; i += 2) {
+            assertTrue(chunkStore.isValid(chunkFPs[i], stackBuffer));
+            assertIntInChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+            live.add(chunkFPs[i]);
+        }
+        // removed slots are handed out again, zeroed
+        for (int i = 0; i < chunkFPs.length; i += 2) {
+            long chunkFP = chunkStore.newChunk(8L << (i % 4), createFiler, stackBuffer);
+            assertTrue(live.add(chunkFP));
+            assertIntInChunk(chunkStore, chunkFP, 0, stackBuffer);
+        }
+        assertEquals(chunkStore.sizeInBytes(), length);
+    }
+
+    @Test
+    public void testZeroOnReuse() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = {Files.createTempDirectory("testZeroOnReuse").toFile()};
+        ChunkStoreInitializer initializer = new ChunkStoreInitializer().setZeroOnReuse(true);
+        ChunkStore chunkStore = initializer.openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+
+        long size = 200_000L;
+        long chunkFP = chunkStore.newChunk(size, createFiler, stackBuffer);
+        fillChunk(chunkStore, chunkFP, size, (byte) 7, stackBuffer);
+        chunkStore.remove(chunkFP, stackBuffer);
+
+        assertEquals(chunkStore.newChunk(size, createFiler, stackBuffer), chunkFP);
+        assertChunkFilled(chunkStore, chunkFP, size, (byte) 0, stackBuffer);
+        fillChunk(chunkStore, chunkFP, size, (byte) 7, stackBuffer);
+        chunkStore.remove(chunkFP, stackBuffer);
+
+        // the dirty mark is on disk, so a store that zeroes on remove still zeroes it on reuse
+        chunkStore = new ChunkStoreInitializer().openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+        assertEquals(chunkStore.newChunk(size, createFiler, stackBuffer), chunkFP);
+        assertChunkFilled(chunkStore, chunkFP, size, (byte) 0, stackBuffer);
+    }
+
+    private void fillChunk(ChunkStore chunkStore, long chunkFP, long size, byte value, StackBuffer stackBuffer) throws Exception {
+        byte[] bytes = new byte[(int) size];
+        Arrays.fill(bytes, value);
+        chunkStore.execute(chunkFP, openFiler, (monkey, filer, stackBuffer1, lock) -> {
+            synchronized (lock) {
+                filer.write(bytes);
+                return null;
+            }
+        }, stackBuffer);
+    }
+
+    private void assertChunkFilled(ChunkStore chunkStore, long chunkFP, long size, byte value, StackBuffer stackBuffer) throws Exception {
+        chunkStore.execute(chunkFP, openFiler, (monkey, filer, stackBuffer1, lock) -> {
+            synchronized (lock) {
+                byte[] bytes = new byte[(int) size];
+                filer.read(bytes);
+                for (byte b : bytes) {
+                    assertEquals(b, value);
+                }
+                return null;
+            }
+        }, stackBuffer);
+    }
+
     @Test
     public void testCheckExists() throws Exception {
         StackBuffer stackBuffer = new StackBuffer();
@@ -128,6 +474,16 @@ public class ChunkStoreTest {
         }
     }
 
+    /**
+     * Reads a chunk's chunkLength header straight from the store's file, which for these tests is a single segment.
+     */
+    private static long chunkLengthHeader(File dir, long chunkFP) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, "data-0"), "r")) {
+            file.seek(chunkFP + 8 + 8 + 8);
+            return file.readLong();
+        }
+    }
+
     private void writeIntToChunk(ChunkStore chunkStore, long chunkFP, final int value, StackBuffer stackBuffer) throws IOException, InterruptedException {
         chunkStore.execute(chunkFP, openFiler, (monkey, filer, stackBuffer1, lock) -> {
             synchronized (lock) {
@@ -260,4 +616,202 @@ public class ChunkStoreTest {
 
         assertEquals(fps1, fps2);
     }
+
+    @Test
+    public void testReadersShareChunkLock() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = {Files.createTempDirectory("testReadersShareChunkLock").toFile()};
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+        long chunkFP = chunkStore.newChunk(8L, createFiler, stackBuffer);
+        writeIntToChunk(chunkStore, chunkFP, 7, stackBuffer);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(3);
+        CountDownLatch readersIn = new CountDownLatch(2);
+        CountDownLatch readersOut = new CountDownLatch(1);
+        AtomicBoolean written = new AtomicBoolean();
+        List<Future<Boolean>> readers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            readers.add(executorService.submit(() -> chunkStore.execute(chunkFP, openFiler, (monkey, filer, _stackBuffer, lock) -> ChunkLocks.read(lock, () -> {
+                readersIn.countDown();
+                boolean shared = readersIn.await(10, TimeUnit.SECONDS);
+                readersOut.await(10, TimeUnit.SECONDS);
+                return shared && !written.get();
+            }), new StackBuffer())));
+        }
+        assertTrue(readersIn.await(10, TimeUnit.SECONDS));
+
+        Future<?> writer = executorService.submit(() -> chunkStore.execute(chunkFP, openFiler, (monkey, filer, _stackBuffer, lock) -> ChunkLocks.write(lock, () -> {
+            written.set(true);
+            return null;
+        }), new StackBuffer()));
+        Thread.sleep(100);
+        assertFalse(written.get());
+
+        readersOut.countDown();
+        for (Future<Boolean> reader : readers) {
+            assertTrue(reader.get());
+        }
+        writer.get();
+        assertTrue(written.get());
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testStripeReadTxsShareTheStripe() throws Exception {
+        AutoGrowingByteBufferBackedFiler root = new AutoGrowingByteBufferBackedFiler(new HeapByteBufferFactory(), 1_024, 1_024);
+        StripedFiler stripedFiler = new StripedFiler(root, new byte[] { 0 }, new HeapByteBufferFactory(), 1);
+        stripedFiler.rootTx(-1L, (fp, chunkCache, filer) -> {
+            filer.setLength(1_024);
+            return null;
+        });
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<?> reader = executorService.submit(() -> stripedFiler.readTx(0, (fp, chunkCache, filer) -> {
+                entered.countDown();
+                return release.await(5, TimeUnit.SECONDS);
+            }));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            // another read tx on the same stripe gets in while the first is still inside, but a tx waits for it
+            assertEquals(stripedFiler.readTx(0, (fp, chunkCache, filer) -> filer.readLong(0)), (Long) 0L);
+            Future<?> writer = executorService.submit(() -> stripedFiler.tx(0, (fp, chunkCache, filer) -> {
+                filer.write(0, new byte[] { 1 }, 0, 1);
+                return null;
+            }));
+            Thread.sleep(100);
+            assertFalse(writer.isDone());
+
+            release.countDown();
+            reader.get(5, TimeUnit.SECONDS);
+            writer.get(5, TimeUnit.SECONDS);
+            assertEquals(stripedFiler.readTx(0, (fp, chunkCache, filer) -> filer.read(0)), (Integer) 1);
+        } finally {
+            release.countDown();
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRemoveDeferredWaitsForEarlierEpochs() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = {Files.createTempDirectory("testRemoveDeferredWaitsForEarlierEpochs").toFile()};
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+        long chunkFP = chunkStore.newChunk(8L, createFiler, stackBuffer);
+        writeIntToChunk(chunkStore, chunkFP, 7, stackBuffer);
+
+        long reader = chunkStore.enterEpoch();
+        chunkStore.removeDeferred(chunkFP, stackBuffer);
+        long laterReader = chunkStore.enterEpoch();
+        long otherFP = chunkStore.newChunk(8L, createFiler, stackBuffer);
+        assertTrue(otherFP != chunkFP);
+        assertIntInChunk(chunkStore, chunkFP, 7, stackBuffer);
+
+        chunkStore.exitEpoch(reader);
+        // the exit hands reclaiming off to the background, but the next deferred remove reclaims inline
+        chunkStore.removeDeferred(otherFP, stackBuffer);
+        assertEquals(chunkStore.newChunk(8L, createFiler, stackBuffer), chunkFP);
+        chunkStore.exitEpoch(laterReader);
+    }
+
+    @Test
+    public void testCloseRemovesDeferred() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = {Files.createTempDirectory("testCloseRemovesDeferred").toFile()};
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+        long chunkFP = chunkStore.newChunk(8L, createFiler, stackBuffer);
+
+        long reader = chunkStore.enterEpoch();
+        chunkStore.removeDeferred(chunkFP, stackBuffer);
+        chunkStore.close();
+        assertTrue(chunkStore.newChunk(8L, createFiler, stackBuffer) != chunkFP);
+
+        chunkStore.exitEpoch(reader);
+        chunkStore.close();
+        assertEquals(chunkStore.newChunk(8L, createFiler, stackBuffer), chunkFP);
+    }
+
+    @Test
+    public void testBackgroundReclaimFailureIsThrown() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = {Files.createTempDirectory("testBackgroundReclaimFailureIsThrown").toFile()};
+        ChunkStore chunkStore = new ChunkStoreInitializer().openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+
+        long reader = chunkStore.enterEpoch();
+        chunkStore.removeDeferred(8L, stackBuffer); // not a chunk, so the background remove fails once the reader exits
+        chunkStore.exitEpoch(reader);
+        try {
+            chunkStore.close();
+            fail();
+        } catch (IOException x) {
+            assertTrue(x.getCause() instanceof CorruptionException, x.toString());
+        }
+    }
+
+    @Test
+    public void testStripedAcrossDirectories() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = new File[4];
+        for (int i = 0; i < dirs.length; i++) {
+            dirs[i] = Files.createTempDirectory("testStripedAcrossDirectories").toFile();
+        }
+        ChunkStoreInitializer initializer = new ChunkStoreInitializer(4, Integer.MAX_VALUE, Long.MAX_VALUE).setStripeSegmentSize(64 * 1024);
+        ChunkStore chunkStore = initializer.openOrCreate(dirs, 1, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+
+        long[] chunkFPs = new long[64];
+        for (int i = 0; i < chunkFPs.length; i++) {
+            chunkFPs[i] = chunkStore.newChunk(8_000L, createFiler, stackBuffer);
+            writeIntToChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+        }
+
+        int segments = 0;
+        for (int i = 0; i < dirs.length; i++) {
+            String[] names = dirs[i].list();
+            assertTrue(names.length > 1, "every directory holds segments");
+            for (String name : names) {
+                int segment = Integer.parseInt(name.substring("data-".length()));
+                assertEquals((segment + 1) % dirs.length, i);
+                segments++;
+            }
+        }
+        assertTrue(segments * 64 * 1024 >= chunkStore.sizeInBytes());
+
+        chunkStore = initializer.openOrCreate(dirs, 1, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+        for (int i = 0; i < chunkFPs.length; i++) {
+            assertIntInChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        HeapByteBufferFactory byteBufferFactory = new HeapByteBufferFactory();
+        File[] dirs = new File[] { Files.createTempDirectory("testGroupCommit").toFile() };
+        ChunkStoreInitializer initializer = new ChunkStoreInitializer(4, Integer.MAX_VALUE, Long.MAX_VALUE).setGroupCommit(10, 100);
+        ChunkStore chunkStore = initializer.openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+
+        long[] chunkFPs = new long[16];
+        for (int i = 0; i < chunkFPs.length; i++) {
+            chunkFPs[i] = chunkStore.newChunk(8L, createFiler, stackBuffer);
+            writeIntToChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+        }
+        chunkStore.durable().get(10, TimeUnit.SECONDS);
+
+        chunkStore.remove(chunkFPs[0], stackBuffer);
+        chunkStore.durable().get(10, TimeUnit.SECONDS);
+        assertTrue(chunkStore.durable().isDone(), "nothing left to commit");
+        chunkStore.close();
+
+        chunkStore = initializer.openOrCreate(dirs, 0, "data", 4_096, byteBufferFactory, 500, 5_000, stackBuffer);
+        for (int i = 1; i < chunkFPs.length; i++) {
+            assertIntInChunk(chunkStore, chunkFPs[i], i, stackBuffer);
+        }
+        chunkStore.close();
+    }
 }
@@ -15,17 +15,19 @@
  */
 package com.jivesoftware.os.filer.io;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * @author jonathan.colt
  */
-public class AutoGrowingByteBufferBackedFiler implements Filer {
+public class AutoGrowingByteBufferBackedFiler implements DuplicableFiler {
 
     public static final long MAX_BUFFER_SEGMENT_SIZE = FilerIO.chunkLength(30);
-    public static long MAX_POSITION = MAX_BUFFER_SEGMENT_SIZE * 100;
+    public static long MAX_POSITION = MAX_BUFFER_SEGMENT_SIZE * (1 << 16); // 64TB, only guards against runaway positions
 
     private final ByteBufferFactory byteBufferFactory;
     private final long initialBufferSegmentSize;
@@ -98,6 +100,7 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
         this.fseekMask = fseekMask;
     }
 
+    @Override
     public AutoGrowingByteBufferBackedFiler duplicate(AutoGrowingByteBufferBackedFilerDuplicateBuffer duplicateBuffer, long startFP, long endFp) {
         return duplicateBuffer.duplicate(duplicateBuffer, filers, filersLength, maxBufferSegmentSize, fShift, fseekMask, length, startFP, endFp);
 //        ByteBufferBackedFiler[] duplicate = new ByteBufferBackedFiler[filersLength];
@@ -111,19 +114,22 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
     }
 
 
-    public AutoGrowingByteBufferBackedFiler duplicateNew(AutoGrowingByteBufferBackedFiler current) {
+    @Override
+    public AutoGrowingByteBufferBackedFiler duplicateNew(DuplicableFiler duplicated) {
+        AutoGrowingByteBufferBackedFiler current = (AutoGrowingByteBufferBackedFiler) duplicated;
         ByteBufferBackedFiler[] duplicate = new ByteBufferBackedFiler[filersLength];
         System.arraycopy(current.filers, 0, duplicate, 0, current.filersLength - 1);
         for (int i = current.filersLength - 1; i < duplicate.length; i++) {
-            duplicate[i] = new ByteBufferBackedFiler(filers[i].buffer.duplicate());
+            duplicate[i] = filers[i].duplicate();
         }
         return new AutoGrowingByteBufferBackedFiler(maxBufferSegmentSize, duplicate, filersLength, length, fShift, fseekMask);
     }
 
+    @Override
     public AutoGrowingByteBufferBackedFiler duplicateAll() {
         ByteBufferBackedFiler[] duplicate = new ByteBufferBackedFiler[filersLength];
         for (int i = 0; i < duplicate.length; i++) {
-            duplicate[i] = new ByteBufferBackedFiler(filers[i].buffer.duplicate());
+            duplicate[i] = filers[i].duplicate();
         }
         return new AutoGrowingByteBufferBackedFiler(maxBufferSegmentSize, duplicate, filersLength, length, fShift, fseekMask);
     }
@@ -154,7 +160,7 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
                 byte[] key = String.valueOf(lastFilerIndex)
                     .getBytes(StandardCharsets.UTF_8);
                 ByteBuffer reallocate = byteBufferFactory.reallocate(key, filers[lastFilerIndex].buffer, maxBufferSegmentSize);
-                filers[lastFilerIndex] = new ByteBufferBackedFiler(reallocate);
+                filers[lastFilerIndex] = new ByteBufferBackedFiler(reallocate, filers[lastFilerIndex].dirty);
             }
 
             int newLength = f + 1;
@@ -180,7 +186,7 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
             byte[] key = String.valueOf(f)
                 .getBytes(StandardCharsets.UTF_8);
             ByteBuffer reallocate = byteBufferFactory.reallocate(key, filers[f].buffer, Math.min(maxBufferSegmentSize, newSize));
-            filers[f] = new ByteBufferBackedFiler(reallocate);
+            filers[f] = new ByteBufferBackedFiler(reallocate, filers[f].dirty);
         }
         filers[f].seek(fseek);
         if (fpFilerIndex != f) {
@@ -215,6 +221,73 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
         position(len);
     }
 
+    /**
+     * Releases every whole segment past newLength back to the byteBufferFactory. The segment holding newLength keeps its size. Duplicates
+     * taken before a truncate must be discarded.
+     */
+    @Override
+    public void truncate(long newLength) throws IOException {
+        int keep = newLength == 0 ? 1 : (int) ((newLength - 1) >> fShift) + 1;
+        if (keep >= filersLength) {
+            return;
+        }
+        for (int n = keep; n < filersLength; n++) {
+            byteBufferFactory.release(String.valueOf(n).getBytes(StandardCharsets.UTF_8));
+        }
+        filers = Arrays.copyOf(filers, keep);
+        filersLength = keep;
+        length = Math.min(length, length());
+        position(0);
+    }
+
+    /**
+     * Copies length bytes from this filer's position to the position of to with bulk ByteBuffer puts between their segments, which for mapped
+     * segments is a plain memory copy, instead of staging the bytes through a byte[]. Both positions advance by the bytes copied. A copy to
+     * any other kind of filer is staged.
+     *
+     * @return the bytes copied, less than length only if this filer's highest position is reached first
+     */
+    @Override
+    public long copyTo(DuplicableFiler duplicable, long length) throws IOException {
+        if (!(duplicable instanceof AutoGrowingByteBufferBackedFiler)) {
+            return DuplicableFiler.super.copyTo(duplicable, length);
+        }
+        AutoGrowingByteBufferBackedFiler to = (AutoGrowingByteBufferBackedFiler) duplicable;
+        long fromFP = getFilePointer();
+        long toFP = to.getFilePointer();
+        length = Math.min(length, Math.max(0, this.length - fromFP));
+        to.ensure(length);
+        long copied = 0;
+        while (copied < length) {
+            long fp = fromFP + copied;
+            int f = (int) (fp >> fShift);
+            if (f >= filersLength) {
+                break;
+            }
+            ByteBuffer from = filers[f].buffer.duplicate();
+            int fromOffset = (int) (fp & fseekMask);
+
+            long tfp = toFP + copied;
+            ByteBufferBackedFiler intoFiler = to.filers[(int) (tfp >> to.fShift)];
+            ByteBuffer into = intoFiler.buffer.duplicate();
+            int intoOffset = (int) (tfp & to.fseekMask);
+
+            int n = (int) Math.min(length - copied, Math.min(from.capacity() - fromOffset, into.capacity() - intoOffset));
+            if (n <= 0) {
+                break;
+            }
+            from.limit(fromOffset + n);
+            from.position(fromOffset);
+            into.position(intoOffset);
+            into.put(from);
+            intoFiler.dirty();
+            copied += n;
+        }
+        position(fromFP + copied);
+        to.position(toFP + copied);
+        return copied;
+    }
+
     @Override
     public long getFilePointer() throws IOException {
         if (filersLength == 0) {
@@ -235,6 +308,24 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
         }
     }
 
+    /**
+     * Writes the changes of every mapped segment back to its file, see ByteBufferBackedFiler.force. Segments are tracked as dirty through
+     * this filer's duplicates too, so only those written since the last force are synced. Force the filer the segments were allocated
+     * through, not a duplicate, since a duplicate of a mapped buffer need not know its file.
+     *
+     * @return the bytes forced
+     */
+    @Override
+    public long force() {
+        ByteBufferBackedFiler[] forcing = filers;
+        int forcingLength = Math.min(filersLength, forcing.length);
+        long forced = 0;
+        for (int i = 0; i < forcingLength; i++) {
+            forced += forcing[i].force();
+        }
+        return forced;
+    }
+
     @Override
     public int read() throws IOException {
         int read = filers[fpFilerIndex].read();
@@ -317,12 +408,145 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
         }
     }
 
+    @Override
+    public void writeShort(int v) throws IOException {
+        ensure(2);
+        if (filers[fpFilerIndex].hasRemaining(2)) {
+            filers[fpFilerIndex].writeShort(v);
+        } else {
+            write(new byte[] { (byte) (v >>> 8), (byte) v });
+        }
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        ensure(4);
+        if (filers[fpFilerIndex].hasRemaining(4)) {
+            filers[fpFilerIndex].writeInt(v);
+        } else {
+            write(new byte[] { (byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v });
+        }
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        ensure(8);
+        if (filers[fpFilerIndex].hasRemaining(8)) {
+            filers[fpFilerIndex].writeLong(v);
+        } else {
+            write(FilerIO.longBytes(v));
+        }
+    }
+
+    @Override
+    public int read(long position) throws IOException {
+        int f = (int) (position >> fShift);
+        if (f >= filersLength) {
+            return -1;
+        }
+        return filers[f].read(position & fseekMask);
+    }
+
+    @Override
+    public int read(long position, byte[] b, int offset, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < len) {
+            long fp = position + read;
+            int f = (int) (fp >> fShift);
+            if (f >= filersLength) {
+                break;
+            }
+            int r = filers[f].read(fp & fseekMask, b, offset + read, len - read);
+            if (r <= 0) {
+                break;
+            }
+            read += r;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public short readShort(long position) throws IOException {
+        int f = (int) (position >> fShift);
+        long fseek = position & fseekMask;
+        if (f < filersLength && fseek + 2 <= filers[f].buffer.capacity()) {
+            return filers[f].readShort(fseek);
+        }
+        return (short) readSpanning(position, 2);
+    }
+
+    @Override
+    public int readInt(long position) throws IOException {
+        int f = (int) (position >> fShift);
+        long fseek = position & fseekMask;
+        if (f < filersLength && fseek + 4 <= filers[f].buffer.capacity()) {
+            return filers[f].readInt(fseek);
+        }
+        return (int) readSpanning(position, 4);
+    }
+
+    @Override
+    public long readLong(long position) throws IOException {
+        int f = (int) (position >> fShift);
+        long fseek = position & fseekMask;
+        if (f < filersLength && fseek + 8 <= filers[f].buffer.capacity()) {
+            return filers[f].readLong(fseek);
+        }
+        return readSpanning(position, 8);
+    }
+
+    private long readSpanning(long position, int length) throws IOException {
+        long v = 0;
+        for (int i = 0; i < length; i++) {
+            int b = read(position + i);
+            if (b == -1) {
+                throw new EOFException("Reading " + length + " bytes at " + position + " runs past the end of " + length());
+            }
+            v <<= 8;
+            v |= b;
+        }
+        return v;
+    }
+
+    @Override
+    public void write(long position, int b) throws IOException {
+        ensureLength(position + 1);
+        filers[(int) (position >> fShift)].write(position & fseekMask, b);
+    }
+
+    @Override
+    public void write(long position, byte[] b, int offset, int len) throws IOException {
+        ensureLength(position + len);
+        int written = 0;
+        while (written < len) {
+            long fp = position + written;
+            ByteBufferBackedFiler filer = filers[(int) (fp >> fShift)];
+            long fseek = fp & fseekMask;
+            int canWrite = (int) Math.min(len - written, filer.buffer.capacity() - fseek);
+            filer.write(fseek, b, offset + written, canWrite);
+            written += canWrite;
+        }
+    }
+
+    private void ensureLength(long end) throws IOException {
+        if (end > length) {
+            long fp = getFilePointer();
+            position(end);
+            position(fp);
+        }
+    }
+
+    @Override
     public boolean canLeak(long startOfFP, long endOfFP) {
         int startF = (int) (startOfFP >> fShift);
         int endF = (int) (endOfFP >> fShift);
         return (endF == startF);
     }
 
+    @Override
     public ByteBuffer leak(long startOfFP, long endOfFP) throws IOException {
         int startF = (int) (startOfFP >> fShift);
         int endF = (int) (endOfFP >> fShift);
@@ -333,6 +557,7 @@ public class AutoGrowingByteBufferBackedFiler implements Filer {
         long startFseek = startOfFP & fseekMask;
         long endFseek = endOfFP & fseekMask;
 
+        filers[startF].dirty(); // the view may well be written to
         ByteBuffer buf = filers[startF].buffer;
         buf.position((int) startFseek);
         buf.limit((int) endFseek);
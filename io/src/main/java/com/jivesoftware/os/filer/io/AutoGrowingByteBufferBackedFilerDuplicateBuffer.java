@@ -1,6 +1,7 @@
 package com.jivesoftware.os.filer.io;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  *
@@ -57,11 +58,18 @@ public class AutoGrowingByteBufferBackedFilerDuplicateBuffer {
             if ((i + 1) * maxBufferSegmentSize < startFP || (i - 1) * maxBufferSegmentSize > endFp) {
                 continue;
             }
-            duplicate[i] = byteBufferFiler(filers[i].buffer.duplicate());
+            duplicate[i] = byteBufferFiler(filers[i].buffer.duplicate(), filers[i].dirty);
         }
     }
 
-    public void recycle(AutoGrowingByteBufferBackedFiler recycle) {
+    /**
+     * Only duplicates of an AutoGrowingByteBufferBackedFiler are pooled.
+     */
+    public void recycle(DuplicableFiler duplicate) {
+        if (!(duplicate instanceof AutoGrowingByteBufferBackedFiler)) {
+            return;
+        }
+        AutoGrowingByteBufferBackedFiler recycle = (AutoGrowingByteBufferBackedFiler) duplicate;
         if (autoGrowingFilersStackDepth < autoGrowingFilers.length) {
             for (int i = 0; i < recycle.filers.length; i++) {
                 if (recycle.filers[i] != null) {
@@ -79,14 +87,18 @@ public class AutoGrowingByteBufferBackedFilerDuplicateBuffer {
     private ByteBufferBackedFiler[] byteBufferBackedFilers = new ByteBufferBackedFiler[2];
 
     public ByteBufferBackedFiler byteBufferFiler(ByteBuffer buffer) {
+        return byteBufferFiler(buffer, new AtomicBoolean());
+    }
+
+    private ByteBufferBackedFiler byteBufferFiler(ByteBuffer buffer, AtomicBoolean dirty) {
         ByteBufferBackedFiler byteBufferBackedFiler;
         if (byteBufferBackedFilersStackDepth > 0 && byteBufferBackedFilers[byteBufferBackedFilersStackDepth - 1] != null) {
             byteBufferBackedFilersStackDepth--;
             byteBufferBackedFiler = byteBufferBackedFilers[byteBufferBackedFilersStackDepth];
             byteBufferBackedFilers[byteBufferBackedFilersStackDepth] = null;
-            byteBufferBackedFiler.mutate(buffer);
+            byteBufferBackedFiler.mutate(buffer, dirty);
         } else {
-            byteBufferBackedFiler = new ByteBufferBackedFiler(buffer);
+            byteBufferBackedFiler = new ByteBufferBackedFiler(buffer, dirty);
         }
         return byteBufferBackedFiler;
     }
@@ -98,7 +110,7 @@ public class AutoGrowingByteBufferBackedFilerDuplicateBuffer {
             byteBufferBackedFilers = newByteBufferBackedFilers;
         }
         if (byteBufferBackedFilersStackDepth < byteBufferBackedFilers.length) {
-            recycle.mutate(null);
+            recycle.mutate(null, null);
             byteBufferBackedFilers[byteBufferBackedFilersStackDepth] = recycle;
             byteBufferBackedFilersStackDepth++;
         }
@@ -23,14 +23,24 @@ import java.util.Arrays;
  */
 public class ByteArrayPartitionFunction implements PartitionFunction<byte[]> {
 
-    public static final ByteArrayPartitionFunction INSTANCE = new ByteArrayPartitionFunction();
+    /**
+     * Partitions with Arrays.hashCode which is what existing stores were partitioned with, so this must not change.
+     */
+    public static final ByteArrayPartitionFunction INSTANCE = new ByteArrayPartitionFunction(null);
 
-    private ByteArrayPartitionFunction() {
+    private final KeyHasher keyHasher; // Nullable
+
+    /**
+     * @param keyHasher only for new stores; a store has to be read with the same partition function it was written with
+     */
+    public ByteArrayPartitionFunction(KeyHasher keyHasher) {
+        this.keyHasher = keyHasher;
     }
 
     @Override
     public int partition(int partitionCount, byte[] key) {
-        return Math.abs(Arrays.hashCode(key) % partitionCount);
+        int hash = keyHasher == null ? Arrays.hashCode(key) : keyHasher.hash(key);
+        return Math.abs(hash % partitionCount);
     }
 
 }
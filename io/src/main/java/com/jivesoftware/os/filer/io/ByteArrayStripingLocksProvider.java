@@ -1,7 +1,5 @@
 package com.jivesoftware.os.filer.io;
 
-import java.util.Arrays;
-
 /**
  *
  */
@@ -18,7 +16,7 @@ public class ByteArrayStripingLocksProvider implements LocksProvider<byte[]> {
 
     @Override
     public Object lock(byte[] toLock, int seed) {
-        return locks[Math.abs((Arrays.hashCode(toLock) ^ seed) % locks.length)];
+        return locks[Math.abs((KeyHashers.XX_HASH_64.hash(toLock) ^ seed) % locks.length)];
     }
 
     static private class ByteArrayStripingLock {
@@ -11,6 +11,7 @@ package com.jivesoftware.os.filer.io;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  *
@@ -18,14 +19,49 @@ import java.nio.MappedByteBuffer;
  */
 public class ByteBufferBackedFiler implements Filer {
 
+    // shorter positional reads and writes go byte by byte instead of through a duplicate, Java 8 having no absolute bulk get/put
+    private static final int BULK_THRESHOLD = 64;
+
     ByteBuffer buffer;
+    AtomicBoolean dirty; // shared with every duplicate of this filer so force can skip buffers nobody wrote to
 
     public ByteBufferBackedFiler(ByteBuffer buffer) {
+        this(buffer, new AtomicBoolean());
+    }
+
+    ByteBufferBackedFiler(ByteBuffer buffer, AtomicBoolean dirty) {
         this.buffer = buffer;
+        this.dirty = dirty;
     }
 
     public void mutate(ByteBuffer buffer) {
+        mutate(buffer, new AtomicBoolean());
+    }
+
+    void mutate(ByteBuffer buffer, AtomicBoolean dirty) {
         this.buffer = buffer;
+        this.dirty = dirty;
+    }
+
+    /**
+     * @return a filer over a duplicate of this filer's buffer that shares its dirty state
+     */
+    ByteBufferBackedFiler duplicate() {
+        return new ByteBufferBackedFiler(buffer.duplicate(), dirty);
+    }
+
+    /**
+     * Call after the bytes are in the buffer, never before: a force that clears the flag between the two would otherwise leave bytes it
+     * didn't sync behind a clean flag.
+     */
+    void dirty() {
+        if (!dirty.get()) {
+            dirty.set(true);
+        }
+    }
+
+    boolean isDirty() {
+        return dirty.get();
     }
 
     @Override
@@ -69,6 +105,25 @@ public class ByteBufferBackedFiler implements Filer {
         }*/
     }
 
+    /**
+     * Unlike flush this really writes a mapped buffer's changes back to its file, provided this filer or one of its duplicates has written
+     * to the buffer since the last force.
+     *
+     * @return the bytes forced, 0 if the buffer was clean or isn't mapped
+     */
+    public long force() {
+        if (buffer instanceof MappedByteBuffer && dirty.getAndSet(false)) {
+            try {
+                ((MappedByteBuffer) buffer).force();
+            } catch (RuntimeException | Error e) {
+                dirty.set(true);
+                throw e;
+            }
+            return buffer.capacity();
+        }
+        return 0;
+    }
+
     @Override
     public int read() throws IOException {
         int remaining = buffer.remaining();
@@ -103,16 +158,86 @@ public class ByteBufferBackedFiler implements Filer {
     @Override
     public void write(int b) throws IOException {
         buffer.put((byte) b);
+        dirty();
     }
 
     @Override
     public void write(byte[] b) throws IOException {
         buffer.put(b);
+        dirty();
     }
 
     @Override
     public void write(byte[] b, int _offset, int _len) throws IOException {
         buffer.put(b, _offset, _len);
+        dirty();
+    }
+
+    @Override
+    public int read(long position) throws IOException {
+        if (position >= buffer.capacity()) {
+            return -1;
+        }
+        return buffer.get((int) position) & 0xFF;
+    }
+
+    @Override
+    public int read(long position, byte[] b, int _offset, int _len) throws IOException {
+        int remaining = buffer.capacity() - (int) Math.min(position, buffer.capacity());
+        if (remaining == 0) {
+            return -1;
+        }
+        int count = Math.min(_len, remaining);
+        if (count < BULK_THRESHOLD) {
+            int index = (int) position;
+            for (int i = 0; i < count; i++) {
+                b[_offset + i] = buffer.get(index + i);
+            }
+        } else {
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position((int) position);
+            duplicate.get(b, _offset, count);
+        }
+        return count;
+    }
+
+    @Override
+    public short readShort(long position) throws IOException {
+        return buffer.getShort((int) position);
+    }
+
+    @Override
+    public int readInt(long position) throws IOException {
+        return buffer.getInt((int) position);
+    }
+
+    @Override
+    public long readLong(long position) throws IOException {
+        return buffer.getLong((int) position);
+    }
+
+    @Override
+    public void write(long position, int b) throws IOException {
+        buffer.put((int) position, (byte) b);
+        dirty();
+    }
+
+    @Override
+    public void write(long position, byte[] b, int _offset, int _len) throws IOException {
+        if (_len < BULK_THRESHOLD) {
+            int index = (int) position;
+            if (index < 0 || index + _len > buffer.capacity()) {
+                throw new IndexOutOfBoundsException("A write at " + position + " of len:" + _len + " overflows a buffer of " + buffer.capacity());
+            }
+            for (int i = 0; i < _len; i++) {
+                buffer.put(index + i, b[_offset + i]);
+            }
+        } else {
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position((int) position);
+            duplicate.put(b, _offset, _len);
+        }
+        dirty();
     }
 
     public boolean hasRemaining(int len) {
@@ -133,4 +258,22 @@ public class ByteBufferBackedFiler implements Filer {
     public long readLong() throws IOException {
         return buffer.getLong();
     }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        buffer.putShort((short) v);
+        dirty();
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        buffer.putInt(v);
+        dirty();
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        buffer.putLong(v);
+        dirty();
+    }
 }
@@ -29,4 +29,13 @@ public interface ByteBufferFactory {
      */
     ByteBuffer reallocate(byte[] key, ByteBuffer oldBuffer, long newSize);
 
+    /**
+     * Gives back whatever backs key once its buffers are no longer needed. Buffers already handed out may stay readable until they are
+     * collected, but must no longer be relied on.
+     *
+     * @param key
+     */
+    default void release(byte[] key) {
+    }
+
 }
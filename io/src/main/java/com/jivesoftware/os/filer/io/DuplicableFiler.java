@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A Filer that hands out duplicates over the same bytes, each with a file pointer of its own. This is all a StripedFiler, and so a
+ * ChunkStore, needs of the filer it is built on.
+ *
+ * @author jonathan.colt
+ */
+public interface DuplicableFiler extends Filer {
+
+    /**
+     * A duplicate that need only cover startFP to endFp. Duplicates the duplicateBuffer can pool are handed back to it once done with.
+     */
+    DuplicableFiler duplicate(AutoGrowingByteBufferBackedFilerDuplicateBuffer duplicateBuffer, long startFP, long endFp);
+
+    /**
+     * A duplicate of this filer's bytes as they are now, given a duplicate taken before this filer grew.
+     */
+    DuplicableFiler duplicateNew(DuplicableFiler current);
+
+    DuplicableFiler duplicateAll();
+
+    /**
+     * Gives back what lies past newLength. Duplicates taken before a truncate must be discarded.
+     */
+    void truncate(long newLength) throws IOException;
+
+    /**
+     * Syncs what has been written, through this filer or its duplicates, to the disk.
+     *
+     * @return the bytes forced
+     */
+    long force() throws IOException;
+
+    /**
+     * Copies length bytes from this filer's position to the position of to. Both positions advance by the bytes copied.
+     *
+     * @return the bytes copied, less than length only if the end of this filer is reached first
+     */
+    default long copyTo(DuplicableFiler to, long length) throws IOException {
+        long fromFP = getFilePointer();
+        long toFP = to.getFilePointer();
+        byte[] buffer = new byte[(int) Math.min(length, 65_536)];
+        long copied = 0;
+        while (copied < length) {
+            int read = read(fromFP + copied, buffer, 0, (int) Math.min(buffer.length, length - copied));
+            if (read <= 0) {
+                break;
+            }
+            to.write(toFP + copied, buffer, 0, read);
+            copied += read;
+        }
+        seek(fromFP + copied);
+        to.seek(toFP + copied);
+        return copied;
+    }
+
+    /**
+     * @return whether leak can hand out a view of the bytes from startOfFP to endOfFP
+     */
+    default boolean canLeak(long startOfFP, long endOfFP) {
+        return false;
+    }
+
+    /**
+     * @return an unsafe view of the bytes from startOfFP to endOfFP, or null if there is none
+     */
+    default ByteBuffer leak(long startOfFP, long endOfFP) throws IOException {
+        return null;
+    }
+}
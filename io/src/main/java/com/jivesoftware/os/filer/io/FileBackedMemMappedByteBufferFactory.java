@@ -18,18 +18,50 @@ public class FileBackedMemMappedByteBufferFactory implements ByteBufferFactory {
 
     private final String prefix;
     private final int directoryOffset;
+    private final boolean striped;
     private final File[] directories;
 
     public FileBackedMemMappedByteBufferFactory(String prefix, int directoryOffset, File... directories) {
+        this(prefix, directoryOffset, false, directories);
+    }
+
+    /**
+     * @param striped the segments of an AutoGrowingByteBufferBackedFiler, whose keys are their segment numbers, are laid out round robin so
+     * segment n lives in directory (n + directoryOffset) % directories.length and consecutive segments land on different disks. Otherwise
+     * each key is placed by its hash. Files must always be opened with the layout they were created with.
+     */
+    public FileBackedMemMappedByteBufferFactory(String prefix, int directoryOffset, boolean striped, File... directories) {
         this.prefix = prefix;
         this.directoryOffset = directoryOffset;
+        this.striped = striped;
         this.directories = directories;
     }
 
     private File getDirectory(String key) {
+        if (striped) {
+            long segment = segment(key);
+            if (segment >= 0) {
+                return directories[(int) ((segment + directoryOffset) % directories.length)];
+            }
+        }
         return directories[Math.abs((key.hashCode() + directoryOffset) % directories.length)];
     }
 
+    private static long segment(String key) {
+        if (key.isEmpty() || key.length() > 18) {
+            return -1;
+        }
+        long segment = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            segment = segment * 10 + (c - '0');
+        }
+        return segment;
+    }
+
     public MappedByteBuffer open(String key) {
         try {
             //System.out.println(String.format("Open key=%s for directories=%s", key, Arrays.toString(directories)));
@@ -86,6 +118,16 @@ public class FileBackedMemMappedByteBufferFactory implements ByteBufferFactory {
         return allocate(key, newSize);
     }
 
+    @Override
+    public void release(byte[] key) {
+        String name = new String(key, Charsets.UTF_8);
+        File file = new File(getDirectory(name), prefix + "-" + name);
+        // existing mappings stay valid until they are unmapped, the space comes back once the last one goes
+        if (file.exists() && !file.delete()) {
+            throw new RuntimeException("Failed to delete: " + file);
+        }
+    }
+
     private void ensureDirectory(File directory) {
         if (!directory.exists()) {
             if (!directory.mkdirs()) {
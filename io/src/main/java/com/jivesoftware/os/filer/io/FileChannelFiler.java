@@ -0,0 +1,386 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A Filer over a file read and written with positional FileChannel calls (pread/pwrite) instead of being mapped, for stores far larger than
+ * memory where mapping everything thrashes the page cache. Every call goes to the OS, so memory use is bounded by the pool of small direct
+ * buffers the calls are staged through. The positional methods are safe to call from many threads at once; the file pointer, like that of
+ * any Filer, is not, so threads that each need one take a duplicate. Past its end the file reads as missing rather than as zeros, so size it
+ * with setLength before creating a MapStore in it, as a ByteBufferBackedFiler would be. ChunkStoreInitializer can build a ChunkStore on one.
+ *
+ * @author jonathan.colt
+ */
+public class FileChannelFiler implements DuplicableFiler {
+
+    private final FileChannel channel;
+    private final int bufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> buffers;
+    private final AtomicBoolean dirty; // shared with duplicates
+    private final boolean duplicate;
+    private long fp;
+
+    public FileChannelFiler(File file, boolean readOnly) throws IOException {
+        this(file, readOnly, 4_096, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param bufferSize reads and writes up to this many bytes are staged through a pooled direct buffer; larger ones go straight to the channel
+     * @param maxPooledBuffers buffers beyond this many, needed only when more threads than that hit the filer at once, are not kept
+     */
+    public FileChannelFiler(File file, boolean readOnly, int bufferSize, int maxPooledBuffers) throws IOException {
+        if (bufferSize < 8) {
+            throw new IllegalArgumentException("bufferSize must hold a long but was " + bufferSize);
+        }
+        if (maxPooledBuffers < 1) {
+            throw new IllegalArgumentException("maxPooledBuffers must be at least 1 but was " + maxPooledBuffers);
+        }
+        this.channel = readOnly
+            ? FileChannel.open(file.toPath(), StandardOpenOption.READ)
+            : FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+        this.dirty = new AtomicBoolean();
+        this.duplicate = false;
+    }
+
+    private FileChannelFiler(FileChannelFiler of) {
+        this.channel = of.channel;
+        this.bufferSize = of.bufferSize;
+        this.buffers = of.buffers;
+        this.dirty = of.dirty;
+        this.duplicate = true;
+    }
+
+    /**
+     * Duplicates share the channel, so there is nothing to bound and the range is ignored.
+     */
+    @Override
+    public FileChannelFiler duplicate(AutoGrowingByteBufferBackedFilerDuplicateBuffer duplicateBuffer, long startFP, long endFp) {
+        return new FileChannelFiler(this);
+    }
+
+    /**
+     * Growth is seen through the shared channel, so current already covers it.
+     */
+    @Override
+    public DuplicableFiler duplicateNew(DuplicableFiler current) {
+        return current;
+    }
+
+    @Override
+    public FileChannelFiler duplicateAll() {
+        return new FileChannelFiler(this);
+    }
+
+    private ByteBuffer acquire(int length) {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+
+    private void release(ByteBuffer buffer) {
+        buffers.offer(buffer);
+    }
+
+    private int readFully(long position, ByteBuffer buffer) throws IOException {
+        int n = 0;
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + n);
+            if (count < 0) {
+                break;
+            }
+            n += count;
+        }
+        return n;
+    }
+
+    private void writeFully(long position, ByteBuffer buffer) throws IOException {
+        int n = 0;
+        while (buffer.hasRemaining()) {
+            n += channel.write(buffer, position + n);
+        }
+        dirty.set(true); // after the write, so a force racing it can't clear the flag before the bytes are there
+    }
+
+    private ByteBuffer readPrimitive(long position, int length) throws IOException {
+        ByteBuffer buffer = acquire(length);
+        if (readFully(position, buffer) < length) {
+            release(buffer);
+            throw new EOFException("Reading " + length + " bytes at " + position + " runs past the end of " + channel.size());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public int read(long position) throws IOException {
+        ByteBuffer buffer = acquire(1);
+        try {
+            if (readFully(position, buffer) < 1) {
+                return -1;
+            }
+            return buffer.get(0) & 0xFF;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    @Override
+    public int read(long position, byte[] b, int _offset, int _len) throws IOException {
+        if (_len == 0) {
+            return 0;
+        }
+        int n;
+        if (_len <= bufferSize) {
+            ByteBuffer buffer = acquire(_len);
+            try {
+                n = readFully(position, buffer);
+                buffer.flip();
+                buffer.get(b, _offset, n);
+            } finally {
+                release(buffer);
+            }
+        } else {
+            n = readFully(position, ByteBuffer.wrap(b, _offset, _len));
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public short readShort(long position) throws IOException {
+        ByteBuffer buffer = readPrimitive(position, 2);
+        short v = buffer.getShort();
+        release(buffer);
+        return v;
+    }
+
+    @Override
+    public int readInt(long position) throws IOException {
+        ByteBuffer buffer = readPrimitive(position, 4);
+        int v = buffer.getInt();
+        release(buffer);
+        return v;
+    }
+
+    @Override
+    public long readLong(long position) throws IOException {
+        ByteBuffer buffer = readPrimitive(position, 8);
+        long v = buffer.getLong();
+        release(buffer);
+        return v;
+    }
+
+    @Override
+    public void write(long position, int b) throws IOException {
+        ByteBuffer buffer = acquire(1);
+        try {
+            buffer.put((byte) b);
+            buffer.flip();
+            writeFully(position, buffer);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    @Override
+    public void write(long position, byte[] b, int _offset, int _len) throws IOException {
+        if (_len <= bufferSize) {
+            ByteBuffer buffer = acquire(_len);
+            try {
+                buffer.put(b, _offset, _len);
+                buffer.flip();
+                writeFully(position, buffer);
+            } finally {
+                release(buffer);
+            }
+        } else {
+            writeFully(position, ByteBuffer.wrap(b, _offset, _len));
+        }
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        fp = position;
+    }
+
+    @Override
+    public long skip(long position) throws IOException {
+        fp += position;
+        return fp;
+    }
+
+    @Override
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void setLength(long len) throws IOException {
+        long size = channel.size();
+        if (len < size) {
+            channel.truncate(len);
+        } else if (len > size) {
+            write(len - 1, 0);
+        }
+    }
+
+    @Override
+    public void truncate(long newLength) throws IOException {
+        if (newLength < channel.size()) {
+            channel.truncate(newLength);
+        }
+    }
+
+    @Override
+    public long getFilePointer() throws IOException {
+        return fp;
+    }
+
+    @Override
+    public void eof() throws IOException {
+        setLength(fp);
+    }
+
+    @Override
+    public void flush() throws IOException {
+    }
+
+    /**
+     * Unlike flush this syncs what has been written, through this filer or its duplicates, to the disk. A file that hasn't been written to
+     * since the last force isn't synced again.
+     *
+     * @return the length of the file if it was synced, otherwise 0
+     */
+    @Override
+    public long force() throws IOException {
+        if (!dirty.getAndSet(false)) {
+            return 0;
+        }
+        channel.force(false);
+        return channel.size();
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = read(fp);
+        if (read != -1) {
+            fp++;
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int _offset, int _len) throws IOException {
+        int read = read(fp, b, _offset, _len);
+        if (read > 0) {
+            fp += read;
+        }
+        return read;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        short v = readShort(fp);
+        fp += 2;
+        return v;
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        int v = readInt(fp);
+        fp += 4;
+        return v;
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        long v = readLong(fp);
+        fp += 8;
+        return v;
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        writePrimitive(acquire(2).putShort((short) v));
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        writePrimitive(acquire(4).putInt(v));
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        writePrimitive(acquire(8).putLong(v));
+    }
+
+    private void writePrimitive(ByteBuffer buffer) throws IOException {
+        try {
+            buffer.flip();
+            int length = buffer.remaining();
+            writeFully(fp, buffer);
+            fp += length;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(fp, b);
+        fp++;
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int _offset, int _len) throws IOException {
+        write(fp, b, _offset, _len);
+        fp += _len;
+    }
+
+    /**
+     * Closing a duplicate leaves the shared channel open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!duplicate) {
+            channel.close();
+        }
+    }
+}
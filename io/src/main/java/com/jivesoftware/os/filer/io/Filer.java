@@ -71,4 +71,93 @@ public interface Filer extends Readable, Writeable {
     int readInt() throws IOException;
 
     long readLong() throws IOException;
+
+    /*
+     Big-endian primitive writes at the file pointer, the counterparts of readShort, readInt and readLong. FilerIO dispatches to both so
+     filers over a ByteBuffer can use its own getLong/putLong and friends. The defaults write the bytes through write(byte[]).
+     */
+
+    default void writeShort(int v) throws IOException {
+        write(new byte[] { (byte) (v >>> 8), (byte) v });
+    }
+
+    default void writeInt(int v) throws IOException {
+        write(new byte[] { (byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v });
+    }
+
+    default void writeLong(long v) throws IOException {
+        write(new byte[] {
+            (byte) (v >>> 56), (byte) (v >>> 48), (byte) (v >>> 40), (byte) (v >>> 32),
+            (byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v });
+    }
+
+    /*
+     The positional methods below read and write at an absolute position instead of at the file pointer. Filers that implement them natively
+     leave the file pointer alone, so many threads can read one filer without each needing a cursor of its own. The defaults fall back to a
+     seek, which moves the file pointer.
+     */
+
+    /**
+     *
+     * @param position
+     * @return the byte at position as 0-255, or -1 past the end
+     * @throws IOException
+     */
+    default int read(long position) throws IOException {
+        seek(position);
+        return read();
+    }
+
+    /**
+     *
+     * @param position
+     * @param b
+     * @param _offset
+     * @param _len
+     * @return the bytes read, or -1 past the end
+     * @throws IOException
+     */
+    default int read(long position, byte b[], int _offset, int _len) throws IOException {
+        seek(position);
+        return read(b, _offset, _len);
+    }
+
+    default short readShort(long position) throws IOException {
+        seek(position);
+        return readShort();
+    }
+
+    default int readInt(long position) throws IOException {
+        seek(position);
+        return readInt();
+    }
+
+    default long readLong(long position) throws IOException {
+        seek(position);
+        return readLong();
+    }
+
+    /**
+     *
+     * @param position
+     * @param b
+     * @throws IOException
+     */
+    default void write(long position, int b) throws IOException {
+        seek(position);
+        write(b);
+    }
+
+    /**
+     *
+     * @param position
+     * @param b
+     * @param _offset
+     * @param _len
+     * @throws IOException
+     */
+    default void write(long position, byte b[], int _offset, int _len) throws IOException {
+        seek(position);
+        write(b, _offset, _len);
+    }
 }
@@ -51,7 +51,7 @@ public class FilerIO {
         byteCount = Math.min(byteCount, _maxBytes);
 
         byte[] chunk = new byte[(int) byteCount];
-        int remaining = (int) _maxBytes;
+        long remaining = _maxBytes;
         int bytesRead;
         long size = 0;
         while (remaining > 0 && (bytesRead = _from.read(chunk, 0, (int) Math.min(remaining, byteCount))) > -1) {
@@ -166,6 +166,10 @@ public class FilerIO {
      */
     public static void writeShort(Writeable _filer, int v,
         String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (_filer instanceof Filer) {
+            ((Filer) _filer).writeShort(v);
+            return;
+        }
         stackBuffer.primitiveBuffer[0] = (byte) (v >>> 8);
         stackBuffer.primitiveBuffer[1] = (byte) (v);
 
@@ -181,6 +185,10 @@ public class FilerIO {
      */
     public static void writeChar(Writeable _filer, int v,
         String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (_filer instanceof Filer) {
+            ((Filer) _filer).writeShort(v);
+            return;
+        }
 
         stackBuffer.primitiveBuffer[0] = (byte) (v >>> 8);
         stackBuffer.primitiveBuffer[1] = (byte) (v);
@@ -195,6 +203,10 @@ public class FilerIO {
      * @throws IOException
      */
     public static void writeInt(Writeable _filer, int v, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (_filer instanceof Filer) {
+            ((Filer) _filer).writeInt(v);
+            return;
+        }
         stackBuffer.primitiveBuffer[0] = (byte) (v >>> 24);
         stackBuffer.primitiveBuffer[1] = (byte) (v >>> 16);
         stackBuffer.primitiveBuffer[2] = (byte) (v >>> 8);
@@ -211,6 +223,10 @@ public class FilerIO {
      */
     public static void writeLong(Writeable _filer, long v,
         String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (_filer instanceof Filer) {
+            ((Filer) _filer).writeLong(v);
+            return;
+        }
         stackBuffer.primitiveBuffer[0] = (byte) (v >>> 56);
         stackBuffer.primitiveBuffer[1] = (byte) (v >>> 48);
         stackBuffer.primitiveBuffer[2] = (byte) (v >>> 40);
@@ -1053,6 +1069,9 @@ public class FilerIO {
      * @throws IOException
      */
     public static short readShort(Readable _filer, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (_filer instanceof Filer) {
+            return ((Filer) _filer).readShort();
+        }
         _filer.read(stackBuffer.primitiveBuffer, 0, 2);
         short v = 0;
         v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
@@ -1069,6 +1088,9 @@ public class FilerIO {
      * @throws IOException
      */
     public static int readUnsignedShort(Readable _filer, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (_filer instanceof Filer) {
+            return ((Filer) _filer).readShort() & 0xFFFF;
+        }
         _filer.read(stackBuffer.primitiveBuffer, 0, 2);
         int v = 0;
         v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
@@ -1085,6 +1107,9 @@ public class FilerIO {
      * @throws IOException
      */
     public static char readChar(Readable _filer, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (_filer instanceof Filer) {
+            return (char) ((Filer) _filer).readShort();
+        }
         _filer.read(stackBuffer.primitiveBuffer, 0, 2);
         char v = 0;
         v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
@@ -1114,6 +1139,9 @@ public class FilerIO {
      * @throws IOException
      */
     public static int readInt(Readable _filer, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (_filer instanceof Filer) {
+            return ((Filer) _filer).readInt();
+        }
         _filer.read(stackBuffer.primitiveBuffer, 0, 4);
         int v = 0;
         v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
@@ -1134,6 +1162,9 @@ public class FilerIO {
      * @throws IOException
      */
     public static long readLong(Readable _filer, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (_filer instanceof Filer) {
+            return ((Filer) _filer).readLong();
+        }
         _filer.read(stackBuffer.primitiveBuffer, 0, 8);
         long v = 0;
         v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
@@ -1163,6 +1194,9 @@ public class FilerIO {
      * @throws Exception
      */
     public static float readFloat(Readable _filer, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (_filer instanceof Filer) {
+            return Float.intBitsToFloat(((Filer) _filer).readInt());
+        }
         _filer.read(stackBuffer.primitiveBuffer, 0, 4);
         int v = 0;
         v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
@@ -1215,6 +1249,9 @@ public class FilerIO {
      * @throws Exception
      */
     public static double readDouble(Readable _filer, String fieldName, StackBuffer stackBuffer) throws IOException {
+        if (_filer instanceof Filer) {
+            return Double.longBitsToDouble(((Filer) _filer).readLong());
+        }
         _filer.read(stackBuffer.primitiveBuffer, 0, 8);
         long v = 0;
         v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io;
+
+/**
+ * Hashes keys for maps, partitions and lock striping. Maps record id() in their header so an implementation must never change its output or
+ * give up its id once data has been written with it.
+ *
+ * @author jonathan.colt
+ */
+public interface KeyHasher {
+
+    byte id();
+
+    long hash(byte[] key, int offset, int length);
+
+    default int hash(byte[] key) {
+        long hash = hash(key, 0, key.length);
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io;
+
+/**
+ * The KeyHashers a map header can refer to. Ids are persisted so only ever append.
+ *
+ * @author jonathan.colt
+ */
+public enum KeyHashers implements KeyHasher {
+
+    /**
+     * The original per byte LCG hash. Every map written before the hasher was recorded in the header used this.
+     */
+    LCG((byte) 0) {
+        @Override
+        public long hash(byte[] key, int offset, int length) {
+            long hash = 0;
+            long randMult = 0x5_DEEC_E66DL;
+            long randAdd = 0xBL;
+            long randMask = (1L << 48) - 1;
+            long seed = length;
+            for (int i = 0; i < length; i++) {
+                long x = (seed * randMult + randAdd) & randMask;
+                seed = x;
+                hash += (key[offset + i] + 128) * x;
+            }
+            return hash == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(hash);
+        }
+    },
+    /**
+     * xxHash64 with a seed of 0.
+     */
+    XX_HASH_64((byte) 1) {
+        private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+        private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long PRIME64_3 = 0x165667B19E3779F9L;
+        private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+        private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+        @Override
+        public long hash(byte[] key, int offset, int length) {
+            int p = offset;
+            int end = offset + length;
+            long h;
+            if (length >= 32) {
+                long v1 = PRIME64_1 + PRIME64_2;
+                long v2 = PRIME64_2;
+                long v3 = 0;
+                long v4 = -PRIME64_1;
+                int limit = end - 32;
+                do {
+                    v1 = round(v1, littleEndianLong(key, p));
+                    v2 = round(v2, littleEndianLong(key, p + 8));
+                    v3 = round(v3, littleEndianLong(key, p + 16));
+                    v4 = round(v4, littleEndianLong(key, p + 24));
+                    p += 32;
+                } while (p <= limit);
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = mergeRound(h, v1);
+                h = mergeRound(h, v2);
+                h = mergeRound(h, v3);
+                h = mergeRound(h, v4);
+            } else {
+                h = PRIME64_5;
+            }
+            h += length;
+
+            for (; p + 8 <= end; p += 8) {
+                h ^= round(0, littleEndianLong(key, p));
+                h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+            }
+            if (p + 4 <= end) {
+                h ^= (littleEndianInt(key, p) & 0xFFFF_FFFFL) * PRIME64_1;
+                h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+                p += 4;
+            }
+            for (; p < end; p++) {
+                h ^= (key[p] & 0xFF) * PRIME64_5;
+                h = Long.rotateLeft(h, 11) * PRIME64_1;
+            }
+
+            h ^= h >>> 33;
+            h *= PRIME64_2;
+            h ^= h >>> 29;
+            h *= PRIME64_3;
+            h ^= h >>> 32;
+            return h;
+        }
+
+        private long round(long acc, long input) {
+            acc += input * PRIME64_2;
+            acc = Long.rotateLeft(acc, 31);
+            return acc * PRIME64_1;
+        }
+
+        private long mergeRound(long acc, long val) {
+            acc ^= round(0, val);
+            return acc * PRIME64_1 + PRIME64_4;
+        }
+    },
+    /**
+     * MurmurHash64A with a seed of 0.
+     */
+    MURMUR_64((byte) 2) {
+        private static final long M = 0xC6A4A7935BD1E995L;
+        private static final int R = 47;
+
+        @Override
+        public long hash(byte[] key, int offset, int length) {
+            long h = length * M;
+            int p = offset;
+            int end = offset + (length & ~7);
+            for (; p < end; p += 8) {
+                long k = littleEndianLong(key, p);
+                k *= M;
+                k ^= k >>> R;
+                k *= M;
+                h ^= k;
+                h *= M;
+            }
+            int tail = length & 7;
+            if (tail > 0) {
+                for (int i = tail - 1; i >= 0; i--) {
+                    h ^= (long) (key[p + i] & 0xFF) << (8 * i);
+                }
+                h *= M;
+            }
+            h ^= h >>> R;
+            h *= M;
+            h ^= h >>> R;
+            return h;
+        }
+    };
+
+    private final byte id;
+
+    KeyHashers(byte id) {
+        this.id = id;
+    }
+
+    @Override
+    public byte id() {
+        return id;
+    }
+
+    public static KeyHashers fromId(byte id) {
+        for (KeyHashers keyHasher : values()) {
+            if (keyHasher.id == id) {
+                return keyHasher;
+            }
+        }
+        throw new IllegalArgumentException("Unknown key hasher id:" + id);
+    }
+
+    static long littleEndianLong(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFFL)
+            | (bytes[offset + 1] & 0xFFL) << 8
+            | (bytes[offset + 2] & 0xFFL) << 16
+            | (bytes[offset + 3] & 0xFFL) << 24
+            | (bytes[offset + 4] & 0xFFL) << 32
+            | (bytes[offset + 5] & 0xFFL) << 40
+            | (bytes[offset + 6] & 0xFFL) << 48
+            | (bytes[offset + 7] & 0xFFL) << 56;
+    }
+
+    static int littleEndianInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+            | (bytes[offset + 1] & 0xFF) << 8
+            | (bytes[offset + 2] & 0xFF) << 16
+            | (bytes[offset + 3] & 0xFF) << 24;
+    }
+}
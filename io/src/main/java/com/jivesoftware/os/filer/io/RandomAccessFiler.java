@@ -3,6 +3,8 @@ package com.jivesoftware.os.filer.io;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  *
@@ -127,6 +129,43 @@ public class RandomAccessFiler extends RandomAccessFile implements Filer {
         totalWriteByteCount += _len;
     }
 
+    /**
+     * Reads through the file's channel, leaving the file pointer where it is.
+     */
+    @Override
+    public int read(long position, byte[] b, int _offset, int _len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, _offset, _len);
+        FileChannel channel = getChannel();
+        int n = 0;
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + n);
+            if (count < 0) {
+                break;
+            }
+            n += count;
+        }
+        if (n == 0 && _len > 0) {
+            return -1;
+        }
+        readByteCount += n;
+        totalReadByteCount += n;
+        return n;
+    }
+
+    /**
+     * Writes through the file's channel, leaving the file pointer where it is.
+     */
+    @Override
+    public void write(long position, byte[] b, int _offset, int _len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, _offset, _len);
+        FileChannel channel = getChannel();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position() - _offset);
+        }
+        writeByteCount += _len;
+        totalWriteByteCount += _len;
+    }
+
     @Override
     public void eof() throws IOException {
         setLength(getFilePointer());
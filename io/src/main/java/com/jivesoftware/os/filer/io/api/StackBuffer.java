@@ -1,7 +1,7 @@
 package com.jivesoftware.os.filer.io.api;
 
-import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
 import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFilerDuplicateBuffer;
+import com.jivesoftware.os.filer.io.DuplicableFiler;
 import com.jivesoftware.os.filer.io.IBA;
 import com.jivesoftware.os.filer.io.chunk.Chunk;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
@@ -21,13 +21,24 @@ public class StackBuffer {
 
     private int chunkyStackDepth = 0;
     private Chunky[] chunkys = new Chunky[8];
+    private byte[] slotBuffer = new byte[0];
+
+    /**
+     * Scratch space of at least length bytes for moving map slots, reused by every call on this stack.
+     */
+    public byte[] slotBuffer(int length) {
+        if (slotBuffer.length < length) {
+            slotBuffer = new byte[length];
+        }
+        return slotBuffer;
+    }
 
     public IBA accessKey(byte[] key) {
         accessKey.violateImmutability(key);
         return accessKey;
     }
 
-    public ChunkFiler chunkFiler(ChunkStore chunkStore, AutoGrowingByteBufferBackedFiler filer, long chunkFP, long startOfFP, long endOfFP) {
+    public ChunkFiler chunkFiler(ChunkStore chunkStore, DuplicableFiler filer, long chunkFP, long startOfFP, long endOfFP) {
         ChunkFiler chunkFiler;
         if (chunkFilerStackDepth > 0 && chunkFilers[chunkFilerStackDepth - 1] != null) {
             chunkFilerStackDepth--;
@@ -48,7 +59,7 @@ public class StackBuffer {
         }
     }
 
-    public <M> Chunky<M> chunky(AutoGrowingByteBufferBackedFiler duplicate, ChunkFiler filer, Chunk<M> monkey) {
+    public <M> Chunky<M> chunky(DuplicableFiler duplicate, ChunkFiler filer, Chunk<M> monkey) {
         Chunky<M> chunky;
         if (chunkyStackDepth > 0 && chunkys[chunkyStackDepth - 1] != null) {
             chunkyStackDepth--;
@@ -71,17 +82,17 @@ public class StackBuffer {
 
     public static class Chunky<M> {
 
-        public AutoGrowingByteBufferBackedFiler duplicate;
+        public DuplicableFiler duplicate;
         public ChunkFiler filer;
         public Chunk<M> monkey;
 
-        Chunky(AutoGrowingByteBufferBackedFiler duplicate, ChunkFiler filer, Chunk<M> monkey) {
+        Chunky(DuplicableFiler duplicate, ChunkFiler filer, Chunk<M> monkey) {
             this.duplicate = duplicate;
             this.filer = filer;
             this.monkey = monkey;
         }
 
-        public void mutate(AutoGrowingByteBufferBackedFiler duplicate, ChunkFiler filer, Chunk<M> monkey) {
+        public void mutate(DuplicableFiler duplicate, ChunkFiler filer, Chunk<M> monkey) {
             this.duplicate = duplicate;
             this.filer = filer;
             this.monkey = monkey;
@@ -1,16 +1,25 @@
 package com.jivesoftware.os.filer.io.chunk;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
  *
  */
 public class Chunk<M> {
 
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<Chunk> ACQUISITIONS = AtomicLongFieldUpdater.newUpdater(Chunk.class, "acquisitions");
+
     final M monkey; // the monkey on our back
     final long chunkFP;
     final int chunkPower;
     final long startOfFP;
     final long endOfFP;
-    transient long acquisitions;
+    transient volatile long acquisitions; // counted atomically since cache hits share their stripe, see ChunkCache
+    transient int clock; // hits not yet swept away by a bounded ChunkCache
+    transient boolean probation; // not yet hit since entering a bounded ChunkCache
+    final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock(); // see ChunkLocks
 
     public Chunk(M monkey, long chunkFP, int chunkPower, long startOfFP, long endOfFP) {
         this.monkey = monkey;
@@ -19,4 +28,27 @@ public class Chunk<M> {
         this.startOfFP = startOfFP;
         this.endOfFP = endOfFP;
     }
+
+    void acquire() {
+        ACQUISITIONS.incrementAndGet(this);
+    }
+
+    long release() {
+        return ACQUISITIONS.decrementAndGet(this);
+    }
+
+    /**
+     * @return false, leaving the count alone, if this is the last acquisition
+     */
+    boolean releaseIfNotLast() {
+        while (true) {
+            long current = acquisitions;
+            if (current <= 1) {
+                return false;
+            }
+            if (ACQUISITIONS.compareAndSet(this, current, current - 1)) {
+                return true;
+            }
+        }
+    }
 }
@@ -15,78 +15,134 @@
  */
 package com.jivesoftware.os.filer.io.chunk;
 
-import com.jivesoftware.os.filer.io.ByteBufferBackedFiler;
 import com.jivesoftware.os.filer.io.ByteBufferFactory;
-import com.jivesoftware.os.filer.io.FilerIO;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
-import com.jivesoftware.os.filer.io.map.MapContext;
-import com.jivesoftware.os.filer.io.map.MapStore;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * An open addressing chunkFP to Chunk table. The chunkFPs live in a buffer from the bufferFactory (8 bytes per slot) and the chunks in a parallel
+ * array; a slot is empty when its chunk is null. Linear probing with backward shift deletion so there are no tombstones. Not thread safe, the
+ * owning stripe serializes access, except that acquireIfPresent and releaseIfNotLast may run under a shared hold of the stripe: they only
+ * read the table and count acquisitions atomically. Concurrent hits may lose a CLOCK increment, which only makes eviction slightly less exact.
+ * <p>
+ * By default a chunk stays cached until it is removed, or until its last release if it has no monkey. A bounded cache additionally evicts
+ * unacquired chunks once it holds more than maxEntries chunks or maxBytes of chunk space. New chunks enter a small probation FIFO; a chunk
+ * that is hit while on probation graduates to the main set, one that is not is the first to go. The main set is swept by a CLOCK hand over
+ * a small saturating hit count per chunk. A scan of one time chunks therefore only churns probation and leaves the working set alone.
+ * Acquired chunks are never evicted. A bounded cache also remembers the chunkPower of recently seen chunks in a small direct mapped table that
+ * eviction leaves alone, so reopening an evicted chunk doesn't have to read its header again.
+ *
  * @author jonathan.colt
  */
 public class ChunkCache {
 
-    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+    private static final ChunkMetrics.ChunkMetric EVICTED = ChunkMetrics.get("ChunkCache", "chunkCache", "evicted");
+
+    private static final double LOAD_FACTOR = 0.5d;
+    private static final int MAX_CLOCK = 3;
+    private static final int PROBATION_RATIO = 10; // probation is held to roughly 1 in 10 cached chunks
+    private static final int MAX_HEADERS = 1 << 16;
 
     private final byte[] name;
     private final ByteBufferFactory bufferFactory;
+    private final int maxEntries;
+    private final long maxBytes;
 
-    private MapContext mapContext;
-    private ByteBufferBackedFiler mapFiler;
+    private ByteBuffer keys;
     private Chunk<?>[] chunks;
-    private long acquisitions;
+    private int mask;
+    private int shift;
+    private int count;
+    private int maxCount;
+    private final LongAdder acquisitions = new LongAdder();
+    private long bytes;
+    private int hand;
+    private Chunk<?>[] probation;
+    private int probationHead;
+    private int probationSize;
+    private int probationCount;
+    private final long[] headerFPs; // 0 is never a chunkFP so it marks an empty slot
+    private final byte[] headerPowers;
+    private final int headerShift;
 
     public ChunkCache(byte[] name, ByteBufferFactory bufferFactory) {
+        this(name, bufferFactory, Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxEntries evict unacquired chunks beyond this many, Integer.MAX_VALUE for unbounded
+     * @param maxBytes evict unacquired chunks beyond this much chunk space, Long.MAX_VALUE for unbounded
+     */
+    public ChunkCache(byte[] name, ByteBufferFactory bufferFactory, int maxEntries, long maxBytes) {
         this.name = name;
         this.bufferFactory = bufferFactory;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        if (isBounded()) {
+            int headers = Integer.highestOneBit((int) Math.min(MAX_HEADERS, Math.max(2L, maxEntries * 4L)) - 1) << 1;
+            this.headerFPs = new long[headers];
+            this.headerPowers = new byte[headers];
+            this.headerShift = 64 - Integer.numberOfTrailingZeros(headers);
+        } else {
+            this.headerFPs = null;
+            this.headerPowers = null;
+            this.headerShift = 0;
+        }
+    }
+
+    public boolean isBounded() {
+        return maxEntries != Integer.MAX_VALUE || maxBytes != Long.MAX_VALUE;
     }
 
     public long approxSize() throws IOException {
-        MapContext _mapContext = mapContext;
-        if (_mapContext == null) {
-            return 0;
-        }
-        return MapStore.INSTANCE.getApproxCount(mapContext);
+        return count;
     }
 
     <M> void set(long chunkFP, Chunk<M> chunk, int initialCapacity, StackBuffer stackBuffer) throws IOException {
         ensureCapacity(initialCapacity, stackBuffer);
-        long ai = MapStore.INSTANCE.add(mapFiler, mapContext, (byte) 1, FilerIO.longBytes(chunkFP), EMPTY_PAYLOAD, stackBuffer);
-        chunks[(int) ai] = chunk;
+        put(insert(chunkFP), chunk);
+        evictIfNecessary();
     }
 
     public boolean contains(long chunkFP, StackBuffer stackBuffer) throws IOException {
-        if (mapContext != null) {
-            long ai = MapStore.INSTANCE.get(mapFiler, mapContext, FilerIO.longBytes(chunkFP), stackBuffer);
-            return ai > -1;
-        }
-        return false;
+        return indexOf(chunkFP) > -1;
+    }
+
+    public boolean isAcquired(long chunkFP) {
+        int i = indexOf(chunkFP);
+        return i > -1 && chunks[i].acquisitions > 0;
     }
 
     public <M> Chunk<M> acquireIfPresent(long chunkFP, StackBuffer stackBuffer) throws IOException {
-        if (mapContext != null) {
-            long ai = MapStore.INSTANCE.get(mapFiler, mapContext, FilerIO.longBytes(chunkFP), stackBuffer);
-            if (ai > -1) {
-                Chunk<M> chunk = (Chunk<M>) chunks[(int) ai];
-                chunk.acquisitions++;
-                acquisitions++;
-                return chunk;
+        int i = indexOf(chunkFP);
+        if (i > -1) {
+            @SuppressWarnings("unchecked")
+            Chunk<M> chunk = (Chunk<M>) chunks[i];
+            chunk.acquire();
+            if (chunk.clock < MAX_CLOCK) {
+                chunk.clock++;
             }
+            acquisitions.increment();
+            return chunk;
         }
         return null;
-
     }
 
     public boolean release(long chunkFP, StackBuffer stackBuffer) throws IOException {
-        if (mapContext != null) {
-            int ai = (int) MapStore.INSTANCE.get(mapFiler, mapContext, FilerIO.longBytes(chunkFP), stackBuffer);
-            if (ai > -1) {
-                chunks[ai].acquisitions--;
-                acquisitions--;
-                if (chunks[ai].acquisitions == 0 && chunks[ai].monkey == null) {
-                    remove(chunkFP, stackBuffer);
+        if (chunks != null) {
+            int i = indexOf(chunkFP);
+            if (i > -1) {
+                Chunk<?> chunk = chunks[i];
+                acquisitions.decrement();
+                if (chunk.release() == 0) {
+                    if (chunk.monkey == null) {
+                        removeAt(i);
+                    } else {
+                        evictIfNecessary();
+                    }
                 }
                 return true;
             } else {
@@ -96,53 +152,267 @@ public class ChunkCache {
         return true;
     }
 
+    /**
+     * Releases chunkFP unless this is its last acquisition, since the last release may remove or evict the chunk.
+     *
+     * @return false if the caller has to release chunkFP with release instead
+     */
+    boolean releaseIfNotLast(long chunkFP) {
+        int i = indexOf(chunkFP);
+        if (i > -1 && chunks[i].releaseIfNotLast()) {
+            acquisitions.decrement();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the chunkPower last recorded for chunkFP, or -1 if there is none
+     */
+    int cachedPower(long chunkFP) {
+        if (headerFPs == null) {
+            return -1;
+        }
+        int i = headerIndex(chunkFP);
+        return headerFPs[i] == chunkFP ? headerPowers[i] : -1;
+    }
+
+    void cachePower(long chunkFP, int chunkPower) {
+        if (headerFPs != null) {
+            int i = headerIndex(chunkFP);
+            headerFPs[i] = chunkFP;
+            headerPowers[i] = (byte) chunkPower;
+        }
+    }
+
+    private int headerIndex(long chunkFP) {
+        return (int) ((chunkFP * 0x9E3779B97F4A7C15L) >>> headerShift);
+    }
+
     public <M> Chunk<M> remove(long chunkFP, StackBuffer stackBuffer) throws IOException {
-        if (mapContext != null) {
-            int ai = (int) MapStore.INSTANCE.remove(mapFiler, mapContext, FilerIO.longBytes(chunkFP), stackBuffer);
-            if (ai > -1) {
-                Chunk<M> chunk = (Chunk<M>) chunks[ai];
-                acquisitions -= chunk.acquisitions;
-                chunks[ai] = null;
-                return chunk;
+        if (headerFPs != null) {
+            int h = headerIndex(chunkFP);
+            if (headerFPs[h] == chunkFP) {
+                headerFPs[h] = 0;
             }
         }
+        int i = indexOf(chunkFP);
+        if (i > -1) {
+            @SuppressWarnings("unchecked")
+            Chunk<M> chunk = (Chunk<M>) chunks[i];
+            acquisitions.add(-chunk.acquisitions);
+            removeAt(i);
+            return chunk;
+        }
         return null;
     }
 
     <M> Chunk<M> promoteAndAcquire(long chunkFP, Chunk<M> chunk, int initialCapacity, StackBuffer stackBuffer) throws IOException {
         ensureCapacity(initialCapacity, stackBuffer);
-        long ai = MapStore.INSTANCE.add(mapFiler, mapContext, (byte) 1, FilerIO.longBytes(chunkFP), EMPTY_PAYLOAD, stackBuffer);
-        if (ai == -1) {
-            throw new IllegalStateException("Context has no room");
-        }
-        chunks[(int) ai] = chunk;
-        chunk.acquisitions++;
-        acquisitions++;
+        put(insert(chunkFP), chunk);
+        chunk.acquire();
+        acquisitions.increment();
+        evictIfNecessary();
         return chunk;
     }
 
     public boolean isRemovable() {
-        return acquisitions == 0;
+        return acquisitions.sum() == 0;
     }
 
     void ensureCapacity(int initialCapacity, StackBuffer stackBuffer) throws IOException {
-        if (mapContext == null) {
-            long size = MapStore.INSTANCE.computeFilerSize(initialCapacity, 8, false, 0, false);
-            mapFiler = new ByteBufferBackedFiler(bufferFactory.allocate(name, size));
-            mapContext = MapStore.INSTANCE.create(initialCapacity, 8, false, 0, false, mapFiler, stackBuffer);
-            chunks = new Chunk[mapContext.capacity];
-        } else if (MapStore.INSTANCE.isFull(mapContext)) {
-            int nextGrowSize = MapStore.INSTANCE.nextGrowSize(mapContext);
-            long newSize = MapStore.INSTANCE.computeFilerSize(nextGrowSize, 8, false, 0, false);
-            ByteBufferBackedFiler newMapFiler = new ByteBufferBackedFiler(bufferFactory.allocate(name, newSize));
-            MapContext newMapContext = MapStore.INSTANCE.create(nextGrowSize, 8, false, 0, false, newMapFiler, stackBuffer);
-            final Chunk<?>[] newChunks = new Chunk[newMapContext.capacity];
-            MapStore.INSTANCE.copyTo(mapFiler, mapContext, newMapFiler, newMapContext,
-                (fromIndex, toIndex) -> newChunks[(int) toIndex] = chunks[(int) fromIndex], stackBuffer);
-            mapFiler = newMapFiler;
-            mapContext = newMapContext;
-            chunks = newChunks;
+        if (chunks == null) {
+            allocate(initialCapacity);
+        } else if (count >= maxCount) {
+            ByteBuffer oldKeys = keys;
+            Chunk<?>[] oldChunks = chunks;
+            allocate(maxCount * 2);
+            for (int i = 0; i < oldChunks.length; i++) {
+                if (oldChunks[i] != null) {
+                    chunks[insert(oldKeys.getLong(i << 3))] = oldChunks[i];
+                }
+            }
+        }
+    }
+
+    private void allocate(int maxCount) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (maxCount / LOAD_FACTOR)) - 1) << 1;
+        this.keys = bufferFactory.allocate(name, (long) capacity << 3);
+        this.chunks = new Chunk[capacity];
+        this.mask = capacity - 1;
+        this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        this.count = 0;
+        this.hand = 0;
+        if (isBounded() && probation == null) {
+            this.probation = new Chunk[16];
+        }
+        this.maxCount = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private int home(long chunkFP) {
+        // chunkFPs are aligned to chunk sizes so the low bits carry almost nothing; fibonacci hashing takes the well mixed high bits
+        return (int) ((chunkFP * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private int indexOf(long chunkFP) {
+        if (chunks == null) {
+            return -1;
+        }
+        for (int i = home(chunkFP); chunks[i] != null; i = (i + 1) & mask) {
+            if (keys.getLong(i << 3) == chunkFP) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
+    /**
+     * @return the slot for chunkFP, the caller puts the chunk there
+     */
+    private int insert(long chunkFP) {
+        int i = home(chunkFP);
+        while (chunks[i] != null) {
+            if (keys.getLong(i << 3) == chunkFP) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys.putLong(i << 3, chunkFP);
+        count++;
+        return i;
+    }
+
+    private void put(int i, Chunk<?> chunk) {
+        Chunk<?> existing = chunks[i];
+        if (existing != null) {
+            bytes -= existing.endOfFP - existing.startOfFP;
+            if (existing.probation) {
+                existing.probation = false;
+                probationCount--;
+            }
+        }
+        chunks[i] = chunk;
+        bytes += chunk.endOfFP - chunk.startOfFP;
+        if (probation != null) {
+            chunk.probation = true;
+            chunk.clock = 0;
+            probationCount++;
+            enqueueProbation(chunk);
+        }
+    }
+
+    private void evictIfNecessary() {
+        if (probation == null) {
+            return;
+        }
+        int evicted = 0;
+        while (count > maxEntries || bytes > maxBytes) {
+            boolean probationFirst = probationCount * PROBATION_RATIO >= count;
+            if (probationFirst ? (evictProbation() || evictMain()) : (evictMain() || evictProbation())) {
+                evicted++;
+            } else {
+                break; // everything left is acquired
+            }
+        }
+        if (evicted > 0) {
+            EVICTED.inc(evicted);
+        }
+    }
+
+    /**
+     * Pops probation in FIFO order. Chunks that were hit graduate to the main set and acquired chunks go to the back of the line.
+     */
+    private boolean evictProbation() {
+        for (int remaining = probationSize; remaining > 0; remaining--) {
+            Chunk<?> chunk = probation[probationHead];
+            probation[probationHead] = null;
+            probationHead = (probationHead + 1) % probation.length;
+            probationSize--;
+            if (!chunk.probation) {
+                continue;
+            }
+            int i = indexOf(chunk.chunkFP);
+            if (i == -1 || chunks[i] != chunk) {
+                continue;
+            }
+            if (chunk.acquisitions > 0) {
+                enqueueProbation(chunk);
+            } else if (chunk.clock > 0) {
+                chunk.probation = false;
+                probationCount--;
+            } else {
+                removeAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sweeps the clock hand over the main set at most MAX_CLOCK + 1 times around the table, which is enough to cool and evict any unacquired
+     * chunk, so a stripe whose chunks are all acquired stays over its bound rather than spinning.
+     */
+    private boolean evictMain() {
+        for (int swept = 0; swept < chunks.length * (MAX_CLOCK + 1); swept++) {
+            int i = hand;
+            hand = (i + 1) & mask;
+            Chunk<?> chunk = chunks[i];
+            if (chunk == null || chunk.probation || chunk.acquisitions > 0) {
+                continue;
+            }
+            if (chunk.clock > 0) {
+                chunk.clock--;
+            } else {
+                removeAt(i);
+                // backward shift may have pulled a later chunk into i
+                hand = i;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void enqueueProbation(Chunk<?> chunk) {
+        if (probationSize == probation.length) {
+            // stale entries are only dropped as they are popped, so compact before growing
+            Chunk<?>[] live = new Chunk[Math.max(16, Math.max(probationSize, probationCount * 2))];
+            int size = 0;
+            for (int j = 0; j < probationSize; j++) {
+                Chunk<?> queued = probation[(probationHead + j) % probation.length];
+                if (queued.probation && size < live.length) {
+                    live[size++] = queued;
+                }
+            }
+            if (size == live.length) {
+                live = Arrays.copyOf(live, size * 2);
+            }
+            probation = live;
+            probationHead = 0;
+            probationSize = size;
+        }
+        probation[(probationHead + probationSize) % probation.length] = chunk;
+        probationSize++;
+    }
+
+    private void removeAt(int i) {
+        Chunk<?> removed = chunks[i];
+        bytes -= removed.endOfFP - removed.startOfFP;
+        if (removed.probation) {
+            removed.probation = false;
+            probationCount--;
+        }
+        chunks[i] = null;
+        count--;
+        // backward shift anything that probed past i so lookups never need tombstones
+        for (int j = (i + 1) & mask; chunks[j] != null; j = (j + 1) & mask) {
+            long chunkFP = keys.getLong(j << 3);
+            int home = home(chunkFP);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys.putLong(i << 3, chunkFP);
+                chunks[i] = chunks[j];
+                chunks[j] = null;
+                i = j;
+            }
         }
     }
 
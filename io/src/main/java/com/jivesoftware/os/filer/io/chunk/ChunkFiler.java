@@ -1,6 +1,6 @@
 package com.jivesoftware.os.filer.io.chunk;
 
-import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
+import com.jivesoftware.os.filer.io.DuplicableFiler;
 import com.jivesoftware.os.filer.io.Filer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -16,12 +16,12 @@ import java.nio.ByteBuffer;
 public class ChunkFiler implements Filer {
 
     private ChunkStore chunkStore;
-    private AutoGrowingByteBufferBackedFiler filer;
+    private DuplicableFiler filer;
     private long chunkFP;
     private long startOfFP;
     private long endOfFP;
 
-    public ChunkFiler(ChunkStore chunkStore, AutoGrowingByteBufferBackedFiler filer, long chunkFP, long startOfFP, long endOfFP) {
+    public ChunkFiler(ChunkStore chunkStore, DuplicableFiler filer, long chunkFP, long startOfFP, long endOfFP) {
         this.chunkStore = chunkStore;
         this.filer = filer;
         this.chunkFP = chunkFP;
@@ -29,7 +29,7 @@ public class ChunkFiler implements Filer {
         this.endOfFP = endOfFP;
     }
 
-    public void mutate(ChunkStore chunkStore, AutoGrowingByteBufferBackedFiler filer, long chunkFP, long startOfFP, long endOfFP) {
+    public void mutate(ChunkStore chunkStore, DuplicableFiler filer, long chunkFP, long startOfFP, long endOfFP) {
         this.chunkStore = chunkStore;
         this.filer = filer;
         this.chunkFP = chunkFP;
@@ -120,6 +120,33 @@ public class ChunkFiler implements Filer {
         return filer.readLong();
     }
 
+    @Override
+    public void writeShort(int v) throws IOException {
+        long fp = filer.getFilePointer();
+        if (fp < startOfFP || fp > (endOfFP - 2)) {
+            throw new IndexOutOfBoundsException("A write starting at fp:" + fp + " with a len:2 will overflow  bounds. " + this);
+        }
+        filer.writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        long fp = filer.getFilePointer();
+        if (fp < startOfFP || fp > (endOfFP - 4)) {
+            throw new IndexOutOfBoundsException("A write starting at fp:" + fp + " with a len:4 will overflow  bounds. " + this);
+        }
+        filer.writeInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        long fp = filer.getFilePointer();
+        if (fp < startOfFP || fp > (endOfFP - 8)) {
+            throw new IndexOutOfBoundsException("A write starting at fp:" + fp + " with a len:8 will overflow  bounds. " + this);
+        }
+        filer.writeLong(v);
+    }
+
     @Override
     final public void write(int b) throws IOException {
         long fp = filer.getFilePointer();
@@ -143,6 +170,73 @@ public class ChunkFiler implements Filer {
         filer.write(b, _offset, _len);
     }
 
+    @Override
+    public int read(long position) throws IOException {
+        long fp = startOfFP + position;
+        if (position < 0 || fp > endOfFP) {
+            throw new IndexOutOfBoundsException("FP out of bounds " + startOfFP + " <= " + fp + " <= " + endOfFP);
+        } else if (fp == endOfFP) {
+            return -1;
+        }
+        return filer.read(fp);
+    }
+
+    @Override
+    public int read(long position, byte[] b, int _offset, int _len) throws IOException {
+        long fp = startOfFP + position;
+        if (position < 0 || fp > endOfFP) {
+            throw new IndexOutOfBoundsException("FP out of bounds " + fp + " " + this);
+        } else if (fp == endOfFP) {
+            return -1;
+        }
+        return filer.read(fp, b, _offset, (int) Math.min(endOfFP - fp, _len));
+    }
+
+    @Override
+    public short readShort(long position) throws IOException {
+        long fp = startOfFP + position;
+        if (position < 0 || (fp + 2) > endOfFP) {
+            throw new IndexOutOfBoundsException("FP out of bounds " + startOfFP + " <= " + fp + " <= " + endOfFP);
+        }
+        return filer.readShort(fp);
+    }
+
+    @Override
+    public int readInt(long position) throws IOException {
+        long fp = startOfFP + position;
+        if (position < 0 || (fp + 4) > endOfFP) {
+            throw new IndexOutOfBoundsException("FP out of bounds " + startOfFP + " <= " + fp + " <= " + endOfFP);
+        }
+        return filer.readInt(fp);
+    }
+
+    @Override
+    public long readLong(long position) throws IOException {
+        long fp = startOfFP + position;
+        if (position < 0 || (fp + 8) > endOfFP) {
+            throw new IndexOutOfBoundsException("FP out of bounds " + startOfFP + " <= " + fp + " <= " + endOfFP);
+        }
+        return filer.readLong(fp);
+    }
+
+    @Override
+    public void write(long position, int b) throws IOException {
+        long fp = startOfFP + position;
+        if (position < 0 || fp >= endOfFP) {
+            throw new IndexOutOfBoundsException("FP out of bounds " + fp + " " + this);
+        }
+        filer.write(fp, b);
+    }
+
+    @Override
+    public void write(long position, byte[] b, int _offset, int _len) throws IOException {
+        long fp = startOfFP + position;
+        if (position < 0 || fp > (endOfFP - _len)) {
+            throw new IndexOutOfBoundsException("A write starting at fp:" + fp + " with a len:" + _len + " will overflow  bounds. " + this);
+        }
+        filer.write(fp, b, _offset, _len);
+    }
+
     @Override
     final public void seek(long position) throws IOException {
         if (position > endOfFP - startOfFP) {
@@ -189,6 +283,19 @@ public class ChunkFiler implements Filer {
         filer.flush();
     }
 
+    /**
+     * Bulk copies length bytes from this chunk's position to the position of to, see AutoGrowingByteBufferBackedFiler.copyTo.
+     */
+    public long copyTo(ChunkFiler to, long length) throws IOException {
+        long fp = filer.getFilePointer();
+        long toFP = to.filer.getFilePointer();
+        if (fp < startOfFP || fp + length > endOfFP || toFP < to.startOfFP || toFP + length > to.endOfFP) {
+            throw new IndexOutOfBoundsException("A copy of len:" + length + " from fp:" + fp + " " + this + " to fp:" + toFP + " " + to
+                + " will overflow bounds.");
+        }
+        return filer.copyTo(to.filer, length);
+    }
+
     /**
      *
      * @return whether or not this chunk filer can leak an unsafe view of its backing byte buffer.
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Read and write transactions over the lock a ChunkTransaction is handed. When the lock is a chunk its readers share it and a writer excludes
+ * everyone; any other lock is used as a plain monitor. A read may nest inside a write on the same lock but not the other way around.
+ *
+ * @author jonathan.colt
+ */
+public final class ChunkLocks {
+
+    private ChunkLocks() {
+    }
+
+    public static <R, E1 extends Exception, E2 extends Exception> R read(Object lock, LockedTx<R, E1, E2> tx) throws E1, E2 {
+        if (lock instanceof Chunk) {
+            Lock readLock = ((Chunk<?>) lock).readWriteLock.readLock();
+            readLock.lock();
+            try {
+                return tx.tx();
+            } finally {
+                readLock.unlock();
+            }
+        }
+        synchronized (lock) {
+            return tx.tx();
+        }
+    }
+
+    public static <R, E1 extends Exception, E2 extends Exception> R write(Object lock, LockedTx<R, E1, E2> tx) throws E1, E2 {
+        if (lock instanceof Chunk) {
+            Lock writeLock = ((Chunk<?>) lock).readWriteLock.writeLock();
+            writeLock.lock();
+            try {
+                return tx.tx();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        synchronized (lock) {
+            return tx.tx();
+        }
+    }
+
+    public interface LockedTx<R, E1 extends Exception, E2 extends Exception> {
+
+        R tx() throws E1, E2;
+    }
+}
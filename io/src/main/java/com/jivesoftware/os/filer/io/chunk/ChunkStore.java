@@ -15,9 +15,9 @@
  */
 package com.jivesoftware.os.filer.io.chunk;
 
-import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
 import com.jivesoftware.os.filer.io.Copyable;
 import com.jivesoftware.os.filer.io.CreateFiler;
+import com.jivesoftware.os.filer.io.DuplicableFiler;
 import com.jivesoftware.os.filer.io.Filer;
 import com.jivesoftware.os.filer.io.FilerIO;
 import com.jivesoftware.os.filer.io.OpenFiler;
@@ -26,8 +26,21 @@ import com.jivesoftware.os.filer.io.api.CorruptionException;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.api.StackBuffer.Chunky;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author jonathan.colt
@@ -40,6 +53,7 @@ public class ChunkStore implements Copyable<ChunkStore> {
     private static ChunkMetrics.ChunkMetric[] removes = new ChunkMetrics.ChunkMetric[maxChunkPower];
     private static ChunkMetrics.ChunkMetric[] executeHits = new ChunkMetrics.ChunkMetric[maxChunkPower];
     private static ChunkMetrics.ChunkMetric[] executeMisses = new ChunkMetrics.ChunkMetric[maxChunkPower];
+    private static ChunkMetrics.ChunkMetric[] dirtyZeroed = new ChunkMetrics.ChunkMetric[maxChunkPower];
 
     static {
         for (int i = 0; i < maxChunkPower; i++) {
@@ -49,10 +63,26 @@ public class ChunkStore implements Copyable<ChunkStore> {
             removes[i] = ChunkMetrics.get("ChunkStore", size, "remove");
             executeHits[i] = ChunkMetrics.get("ChunkStore", size, "executeHit");
             executeMisses[i] = ChunkMetrics.get("ChunkStore", size, "executeMiss");
+            dirtyZeroed[i] = ChunkMetrics.get("ChunkStore", size, "dirtyZeroed");
         }
     }
 
     private static final long cMagicNumber = Long.MAX_VALUE;
+    private static final long EXTENT_BYTES = 1024 * 1024;
+    private static final int MAX_EXTENT_CHUNKS = 64;
+    private static final long cBuddyReferenceNumber = 3;
+    private static final int cChunkHeaderLength = 8 + 8 + 8 + 8;
+    private static final int cMinBuddyPower = 6;
+    private static final byte[] zerosHeader = new byte[cChunkHeaderLength];
+    private static final long cDirtyChunkLength = -2; // the chunkLength of a free chunk that still holds the bytes it was removed with
+    private static final long cSlabReferenceFlag = 1L << 8;
+    private static final long cSlabMarker = -2; // the chunkNexFreeChunkFP of a chunk that is carved into slots
+    private static final long cSlotFlag = 1L << 62;
+    private static final int cSlabChunkPower = 12;
+    private static final int cMinSlabSlotPower = 3;
+    private static final int cMaxSlabSlotPower = 6;
+    private static final int cSlabSlots = 512;
+    private static final int cSlabHeaderLength = 8 + (cSlabSlots / 8); // slotPower + used slots bitmap
     private static final byte[] zerosMax = new byte[(int) Math.pow(2, 16)]; // 65536 max used until min needed
 
     private StripedFiler filer;
@@ -60,9 +90,45 @@ public class ChunkStore implements Copyable<ChunkStore> {
     private int minPower;
     private long lengthOfFile;
     private long referenceNumber = 0;
+    private FreeChunks[] freeChunks; // each power is guarded by its own monitor
+    private BuddyFreeChunks buddyFreeChunks; // only for buddy stores, guarded by its own monitor
+    private Slabs[] slabs; // only for slab stores, each slot power is guarded by its own monitor
+    private final boolean zeroOnReuse;
+    private final long groupCommitWindowMillis;
+    private final int groupCommitMaxUpdates;
+    private GroupCommit groupCommit;
+    private final AtomicLong epoch = new AtomicLong();
+    private final LongAdder[] epochReaders = { new LongAdder(), new LongAdder(), new LongAdder() }; // active readers by entered epoch % 3
+    private final ArrayDeque<long[]> deferredRemoves = new ArrayDeque<>(); // chunkFP, epoch; guarded by its own monitor
+    private volatile boolean hasDeferredRemoves;
+    private final AtomicBoolean reclaimScheduled = new AtomicBoolean();
+    private final ThreadPoolExecutor reclaimer = newReclaimer();
+    private final AtomicReference<Exception> reclaimFailure = new AtomicReference<>(); // thrown by the next removeDeferred or close
+    private final Map<Long, Long> relocatedFPs = new ConcurrentHashMap<>(); // old chunkFP to where it moved, until the old chunk is removed
 
     public ChunkStore(StripedFiler filer) throws Exception {
+        this(filer, false);
+    }
+
+    /**
+     * @param zeroOnReuse removed chunks are marked dirty instead of being zeroed, and only the bytes a creator asks for are zeroed when the
+     * chunk is handed out again. Bytes past the requested size are then undefined. Buddy stores always zero on remove since their merged
+     * blocks must stay zeroed.
+     */
+    public ChunkStore(StripedFiler filer, boolean zeroOnReuse) throws Exception {
+        this(filer, zeroOnReuse, -1, 0);
+    }
+
+    /**
+     * @param groupCommitWindowMillis when negative allocations and removes are left for the OS to write back, as they always were. When 0
+     * every update forces the file before it returns. Otherwise a group commit thread forces the file once per window, or sooner once
+     * groupCommitMaxUpdates have piled up, and callers that need their updates on disk wait on durable().
+     */
+    public ChunkStore(StripedFiler filer, boolean zeroOnReuse, long groupCommitWindowMillis, int groupCommitMaxUpdates) throws Exception {
         this.filer = filer;
+        this.zeroOnReuse = zeroOnReuse;
+        this.groupCommitWindowMillis = groupCommitWindowMillis;
+        this.groupCommitMaxUpdates = groupCommitMaxUpdates;
     }
 
     public long getSkyHookFp() {
@@ -77,6 +143,14 @@ public class ChunkStore implements Copyable<ChunkStore> {
      * free 2^9
      * thru
      * free 2^64
+     *
+     * A store whose referenceNumber is 3 or more is a buddy store: every chunk including its header is a 2^n block aligned to 2^n from the
+     * end of the file header. Larger free blocks are split to satisfy smaller requests and free buddies are merged on remove. The free
+     * list heads are unused, the free blocks are found by walking the file on open.
+     *
+     * A store whose referenceNumber has the slab flag set packs chunks of up to 2^6 bytes into slabs: 2^12 chunks whose payload is the
+     * slotPower, a bitmap of the used slots and the slots themselves. The chunkNexFreeChunkFP of a slab is -2 so the slabs are found by
+     * walking the file on open. A slot is addressed by 2^62 | slabFP << 9 | slot.
      */
     public void setup(long _referenceNumber) {
         referenceNumber = _referenceNumber;
@@ -105,9 +179,16 @@ public class ChunkStore implements Copyable<ChunkStore> {
                 FilerIO.writeLong(txFiler, -1, "free", stackBuffer);
             }
             txFiler.flush();
+            freeChunks = new FreeChunks[64];
+            for (int i = minPower; i < 64; i++) {
+                freeChunks[i] = new FreeChunks();
+            }
+            buddyFreeChunks = isBuddy() ? new BuddyFreeChunks() : null;
+            slabs = hasSlabs() ? newSlabs() : null;
             return null;
         });
-
+        startGroupCommit();
+        updated();
     }
 
     public void open(StackBuffer stackBuffer) throws IOException, InterruptedException {
@@ -117,15 +198,68 @@ public class ChunkStore implements Copyable<ChunkStore> {
             referenceNumber = FilerIO.readLong(filer, "referenceNumber", stackBuffer);
             minPower = referenceNumber < 2 ? 8 : 0;
             zerosMin = new byte[(int) Math.pow(2, minPower)];
+            if (isBuddy()) {
+                buddyFreeChunks = loadBuddyFreeChunks(filer, stackBuffer);
+            } else {
+                freeChunks = loadFreeChunks(filer, stackBuffer);
+            }
+            slabs = hasSlabs() ? loadSlabs(filer, stackBuffer) : null;
             filer.seek(lengthOfFile);
             return null;
         });
+        startGroupCommit();
     }
 
     public void delete() throws IOException {
 
     }
 
+    private synchronized void startGroupCommit() {
+        if (groupCommitWindowMillis > 0 && groupCommit == null) {
+            groupCommit = new GroupCommit(filer, groupCommitWindowMillis, groupCommitMaxUpdates);
+        }
+    }
+
+    /**
+     * Called once an allocation, remove, relocation or truncation has finished updating the file.
+     */
+    private void updated() throws IOException {
+        if (groupCommit != null) {
+            groupCommit.updated();
+        } else if (groupCommitWindowMillis == 0) {
+            filer.force();
+        }
+    }
+
+    /**
+     * @return completes once every allocation, remove, relocation and truncation that returned before this call is on disk; without group
+     * commit that is immediately, since updates are then either forced as they happen or never
+     */
+    public CompletableFuture<Void> durable() {
+        GroupCommit commit = groupCommit;
+        return commit != null ? commit.durable() : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Stops the background reclaim, removes the deferred chunks no reader can still see, commits outstanding updates and stops the group
+     * commit thread, if there is one. Chunks whose readers are still active at close stay allocated. A background reclaim that failed since
+     * the last removeDeferred is thrown here.
+     */
+    public void close() throws IOException, InterruptedException {
+        reclaimer.shutdown();
+        reclaimer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        removeReclaimable(new StackBuffer());
+        GroupCommit commit;
+        synchronized (this) {
+            commit = groupCommit;
+            groupCommit = null;
+        }
+        if (commit != null) {
+            commit.close();
+        }
+        throwReclaimFailure();
+    }
+
     @Override
     public void copyTo(final ChunkStore to, StackBuffer stackBuffer) throws IOException, InterruptedException {
         this.filer.rootTx(-1L, (fp, chunkCache, fromFiler) -> {
@@ -133,8 +267,7 @@ public class ChunkStore implements Copyable<ChunkStore> {
                 (fp1, chunkCache1, toFiler) -> {
                     fromFiler.seek(0);
                     toFiler.seek(0);
-                    //TODO if these filers are both byte buffer backed then it's much faster to do an NIO ByteBuffer.put()
-                    FilerIO.copy(fromFiler, toFiler, lengthOfFile, -1);
+                    fromFiler.copyTo(toFiler, lengthOfFile);
                     to.open(stackBuffer);
                     return null;
                 });
@@ -150,6 +283,21 @@ public class ChunkStore implements Copyable<ChunkStore> {
         return referenceNumber;
     }
 
+    private boolean isBuddy() {
+        return (referenceNumber & ~cSlabReferenceFlag) >= cBuddyReferenceNumber;
+    }
+
+    private boolean hasSlabs() {
+        return (referenceNumber & cSlabReferenceFlag) != 0;
+    }
+
+    /**
+     * @return the bytes a chunk of this power can hold
+     */
+    private long chunkCapacity(int chunkPower) {
+        return isBuddy() ? FilerIO.chunkLength(chunkPower) - cChunkHeaderLength : FilerIO.chunkLength(chunkPower);
+    }
+
     /**
      * @param <M>
      * @param <H>
@@ -161,82 +309,462 @@ public class ChunkStore implements Copyable<ChunkStore> {
     public <M, H> long newChunk(final H hint,
         final CreateFiler<H, M, ChunkFiler> createFiler,
         StackBuffer stackBuffer) throws IOException, InterruptedException {
-        long _capacity = createFiler.sizeInBytes(hint);
-        final int chunkPower = FilerIO.chunkPower(_capacity, minPower);
-        final long chunkLength = FilerIO.chunkLength(chunkPower)
-            + 8 // add magicNumber
-            + 8 // add chunkPower
-            + 8 // add next free chunk of equal size
-            + 8; // add bytesLength
-        final long chunkPosition = freeSeek(chunkPower);
-        final AtomicBoolean reused = new AtomicBoolean(false);
-        final AtomicLong chunkFP = new AtomicLong(-1);
+        long chunkFP = createChunk(hint, createFiler, stackBuffer);
+        updated();
+        return chunkFP;
+    }
 
-        this.filer.rootTx(-1L, (fp, chunkCache, filer) -> {
-            long reuseFp = reuseChunk(filer, chunkPosition, stackBuffer);
+    private <M, H> long createChunk(final H hint,
+        final CreateFiler<H, M, ChunkFiler> createFiler,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+        long _capacity = createFiler.sizeInBytes(hint);
+        if (slabs != null && _capacity <= FilerIO.chunkLength(cMaxSlabSlotPower)) {
+            return newSlot(hint, createFiler, Math.max(cMinSlabSlotPower, FilerIO.chunkPower(_capacity, 0)), stackBuffer);
+        }
+        final int chunkPower = isBuddy()
+            ? Math.max(cMinBuddyPower, FilerIO.chunkPower(_capacity + cChunkHeaderLength, minPower))
+            : FilerIO.chunkPower(_capacity, minPower);
+        long chunkFP = allocate(chunkPower, stackBuffer);
+        if (!isBuddy()) {
+            zeroIfDirty(chunkFP, chunkPower, Math.min(_capacity, chunkCapacity(chunkPower)), stackBuffer);
+        }
 
-            if (reuseFp == -1) {
-                long newChunkFP = lengthOfFile;
-                filer.seek(newChunkFP + chunkLength - 1); // last byte in chunk
-                filer.write(0); // cause file backed ChunkStore to grow file on disk. Use setLength()?
-                filer.seek(newChunkFP);
-                FilerIO.writeLong(filer, cMagicNumber, "magicNumber", stackBuffer);
-                FilerIO.writeLong(filer, chunkPower, "chunkPower", stackBuffer);
-                FilerIO.writeLong(filer, -1, "chunkNexFreeChunkFP", stackBuffer);
-                FilerIO.writeLong(filer, chunkLength, "chunkLength", stackBuffer);
-                lengthOfFile += chunkLength;
-                filer.seek(lengthOfFile); //  force allocation of space
-                filer.seek(0);
-                FilerIO.writeLong(filer, lengthOfFile, "lengthOfFile", stackBuffer);
-                filer.flush();
-                reuseFp = newChunkFP;
-                reused.set(true);
+        filer.tx(chunkFP, (fp, chunkCache, filer) -> {
+            int chunkPower1 = readChunkPower(filer, fp);
+            if (chunkPower1 == -1) {
+                throw new CorruptionException("Invalid chunkFP " + fp);
             }
-            chunkFP.set(reuseFp);
+            filer.seek(fp + 8 + 8 + 8);
+            FilerIO.writeLong(filer, inUseChunkLength(chunkPower1), "chunkLength", stackBuffer);
+            long startOfFP = fp + cChunkHeaderLength;
+            long endOfFP = startOfFP + chunkCapacity(chunkPower1);
+            ChunkFiler chunkFiler = new ChunkFiler(ChunkStore.this, filer.duplicate(stackBuffer.duplicateBuffer, startOfFP, endOfFP), fp, startOfFP, endOfFP);
+            chunkFiler.seek(0);
+            M monkey = createFiler.create(hint, chunkFiler, stackBuffer);
+            chunkCache.set(fp, new Chunk<>(monkey, fp, chunkPower, startOfFP, endOfFP), 2, stackBuffer);
+            chunkCache.cachePower(fp, chunkPower1);
             return null;
         });
+        return chunkFP;
+    }
+
+    /**
+     * A dirty chunk is zeroed in pieces, each under its own short stripe lock, so zeroing a large chunk doesn't stall the other chunks on its
+     * stripe. Nothing else can reach the chunk until newChunk returns.
+     */
+    private void zeroIfDirty(long chunkFP, int chunkPower, long length, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        boolean dirty = filer.readTx(chunkFP, (fp, chunkCache, filer) -> filer.readLong(fp + 8 + 8 + 8) == cDirtyChunkLength);
+        if (!dirty) {
+            return;
+        }
+        for (long offset = 0; offset < length; offset += zerosMax.length) {
+            long zeroFP = chunkFP + cChunkHeaderLength + offset;
+            int zeroLength = (int) Math.min(zerosMax.length, length - offset);
+            filer.tx(chunkFP, (fp, chunkCache, filer) -> {
+                filer.seek(zeroFP);
+                filer.write(zerosMax, 0, zeroLength);
+                return null;
+            });
+        }
+        dirtyZeroed[0].inc(1);
+        dirtyZeroed[chunkPower].inc(1);
+    }
+
+    /**
+     * @return the chunkLength header of a chunk in use, which is what an extent writes for every chunk it reserves
+     */
+    private long inUseChunkLength(int chunkPower) {
+        return isBuddy() ? FilerIO.chunkLength(chunkPower) : FilerIO.chunkLength(chunkPower) + cChunkHeaderLength;
+    }
 
-        if (reused.get()) {
+    private long allocate(int chunkPower, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        final AtomicLong chunkFP = new AtomicLong(-1);
+        boolean reused;
+        if (isBuddy()) {
+            synchronized (buddyFreeChunks) {
+                reused = buddyAllocate(chunkPower, chunkFP, stackBuffer);
+            }
+        } else {
+            final long chunkLength = FilerIO.chunkLength(chunkPower)
+                + 8 // add magicNumber
+                + 8 // add chunkPower
+                + 8 // add next free chunk of equal size
+                + 8; // add bytesLength
+
+            FreeChunks free = freeChunks[chunkPower];
+            synchronized (free) {
+                if (free.size == 0) {
+                    reserveExtent(free, chunkPower, chunkLength, stackBuffer);
+                }
+                reused = free.size > free.fresh;
+                chunkFP.set(free.pop());
+                writeFreeHead(free, chunkPower, stackBuffer);
+            }
+        }
+
+        if (reused) {
             reuses[0].inc(1);
             reuses[chunkPower].inc(1);
         } else {
             allocates[0].inc(1);
             allocates[chunkPower].inc(1);
         }
+        return chunkFP.get();
+    }
 
-        filer.tx(chunkFP.get(), (fp, chunkCache, filer) -> {
-            filer.seek(fp);
-            long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
-            if (magicNumber != cMagicNumber) {
-                throw new CorruptionException("Invalid chunkFP " + fp);
+    private <M, H> long newSlot(H hint,
+        CreateFiler<H, M, ChunkFiler> createFiler,
+        int slotPower,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+
+        Slabs slabsOfPower = slabs[slotPower];
+        long slotFP;
+        boolean reused;
+        synchronized (slabsOfPower) {
+            long slabFP = slabsOfPower.firstWithFree();
+            reused = slabFP != -1;
+            if (!reused) {
+                slabFP = newSlab(slotPower, stackBuffer);
+                slabsOfPower.add(slabFP, new long[cSlabSlots / 64]);
             }
-            int chunkPower1 = (int) FilerIO.readLong(filer, "chunkPower", stackBuffer);
-            FilerIO.readLong(filer, "chunkNexFreeChunkFP", stackBuffer);
-            FilerIO.readLong(filer, "chunkLength", stackBuffer);
-            long startOfFP = filer.getFilePointer();
-            long endOfFP = startOfFP + FilerIO.chunkLength(chunkPower1);
+            int slot = slabsOfPower.take(slabFP);
+            writeSlabUsed(slabFP, slot, slabsOfPower.usedWord(slabFP, slot), stackBuffer);
+            slotFP = cSlotFlag | (slabFP << 9) | slot;
+        }
+
+        if (reused) {
+            reuses[0].inc(1);
+            reuses[slotPower].inc(1);
+        } else {
+            allocates[0].inc(1);
+            allocates[slotPower].inc(1);
+        }
+
+        filer.tx(slotFP, (fp, chunkCache, filer) -> {
+            long startOfFP = slotStartFP(fp, slotPower);
+            long endOfFP = startOfFP + FilerIO.chunkLength(slotPower);
             ChunkFiler chunkFiler = new ChunkFiler(ChunkStore.this, filer.duplicate(stackBuffer.duplicateBuffer, startOfFP, endOfFP), fp, startOfFP, endOfFP);
             chunkFiler.seek(0);
             M monkey = createFiler.create(hint, chunkFiler, stackBuffer);
-            chunkCache.set(fp, new Chunk<>(monkey, fp, chunkPower, startOfFP, endOfFP), 2, stackBuffer);
+            chunkCache.set(fp, new Chunk<>(monkey, fp, slotPower, startOfFP, endOfFP), 2, stackBuffer);
+            chunkCache.cachePower(fp, slotPower);
             return null;
         });
-        return chunkFP.get();
+        return slotFP;
+    }
+
+    /**
+     * Synchronize externally on slabs[slotPower].
+     */
+    private long newSlab(int slotPower, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        long slabFP = allocate(cSlabChunkPower, stackBuffer);
+        filer.tx(slabFP, (fp, chunkCache, filer) -> {
+            filer.seek(fp + 8 + 8);
+            FilerIO.writeLong(filer, cSlabMarker, "chunkNexFreeChunkFP", stackBuffer);
+            FilerIO.writeLong(filer, inUseChunkLength(cSlabChunkPower), "chunkLength", stackBuffer);
+            FilerIO.writeLong(filer, slotPower, "slotPower", stackBuffer);
+            filer.write(zerosMax, 0, cSlabSlots / 8);
+            filer.flush();
+            return null;
+        });
+        return slabFP;
+    }
+
+    /**
+     * Synchronize externally on slabs[slotPower].
+     */
+    private void writeSlabUsed(long slabFP, int slot, long usedWord, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        filer.tx(slabFP, (fp, chunkCache, filer) -> {
+            filer.seek(fp + cChunkHeaderLength + 8 + ((slot >>> 6) << 3));
+            FilerIO.writeLong(filer, usedWord, "used", stackBuffer);
+            filer.flush();
+            return null;
+        });
+    }
+
+    private static boolean isSlot(long chunkFP) {
+        return chunkFP >= 0 && (chunkFP & cSlotFlag) != 0;
+    }
+
+    private static long slabFP(long slotFP) {
+        return (slotFP & ~cSlotFlag) >>> 9;
+    }
+
+    private static int slot(long slotFP) {
+        return (int) (slotFP & (cSlabSlots - 1));
+    }
+
+    private static long slotStartFP(long slotFP, int slotPower) {
+        return slabFP(slotFP) + cChunkHeaderLength + cSlabHeaderLength + ((long) slot(slotFP) << slotPower);
+    }
+
+    private int slotsPerSlab(int slotPower) {
+        return (int) Math.min(cSlabSlots, (chunkCapacity(cSlabChunkPower) - cSlabHeaderLength) >> slotPower);
+    }
+
+    /**
+     * Positional, so it is safe under a read tx.
+     *
+     * @return the slotPower of the slab holding slotFP, or -1 if slotFP is not a slot in use
+     */
+    private int readSlotPower(Filer filer, long slotFP) throws IOException {
+        long slabFP = slabFP(slotFP);
+        if (filer.readLong(slabFP) != cMagicNumber) {
+            return -1;
+        }
+        long nextFreeFP = filer.readLong(slabFP + 8 + 8);
+        long chunkLength = filer.readLong(slabFP + 8 + 8 + 8);
+        if (nextFreeFP != cSlabMarker || chunkLength < 0) {
+            return -1;
+        }
+        int slotPower = (int) filer.readLong(slabFP + cChunkHeaderLength);
+        int slot = slot(slotFP);
+        long usedWord = filer.readLong(slabFP + cChunkHeaderLength + 8 + ((slot >>> 6) << 3));
+        return (usedWord & (1L << slot)) != 0 ? slotPower : -1;
+    }
+
+    /**
+     * Reads the magicNumber and chunkPower straight off the mapped buffer rather than a byte at a time. Positional, so it is safe under a
+     * read tx.
+     *
+     * @return the chunkPower, or -1 if there is no chunk at chunkFP
+     */
+    private int readChunkPower(Filer filer, long chunkFP) throws IOException {
+        if (filer.readLong(chunkFP) != cMagicNumber) {
+            return -1;
+        }
+        return (int) filer.readLong(chunkFP + 8);
+    }
+
+    private Slabs[] newSlabs() {
+        Slabs[] created = new Slabs[cMaxSlabSlotPower + 1];
+        for (int slotPower = cMinSlabSlotPower; slotPower <= cMaxSlabSlotPower; slotPower++) {
+            created[slotPower] = new Slabs(slotsPerSlab(slotPower));
+        }
+        return created;
+    }
+
+    /**
+     * Slabs are the chunks in use whose chunkNexFreeChunkFP is the slab marker. Synchronize externally on filer.lock()
+     */
+    private Slabs[] loadSlabs(Filer filer, StackBuffer stackBuffer) throws IOException {
+        Slabs[] loaded = newSlabs();
+        long chunkFP = getSkyHookFp();
+        while (chunkFP < lengthOfFile) {
+            filer.seek(chunkFP);
+            long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
+            if (magicNumber != cMagicNumber) {
+                throw new CorruptionException("Invalid chunkFP " + chunkFP + " while walking for slabs");
+            }
+            int chunkPower = (int) FilerIO.readLong(filer, "chunkPower", stackBuffer);
+            long nextFreeFP = FilerIO.readLong(filer, "chunkNexFreeChunkFP", stackBuffer);
+            long chunkLength = FilerIO.readLong(filer, "chunkLength", stackBuffer);
+            if (nextFreeFP == cSlabMarker && chunkLength >= 0) {
+                int slotPower = (int) FilerIO.readLong(filer, "slotPower", stackBuffer);
+                long[] used = new long[cSlabSlots / 64];
+                for (int i = 0; i < used.length; i++) {
+                    used[i] = FilerIO.readLong(filer, "used", stackBuffer);
+                }
+                loaded[slotPower].add(chunkFP, used);
+            }
+            chunkFP += isBuddy() ? FilerIO.chunkLength(chunkPower) : FilerIO.chunkLength(chunkPower) + cChunkHeaderLength;
+        }
+        return loaded;
+    }
+
+    /**
+     * Carves an extent of chunks off the end of the file and threads them onto the free list, so only one in every extent's worth of
+     * allocations of this power takes the root lock. Synchronize externally on free.
+     */
+    private void reserveExtent(FreeChunks free, int chunkPower, long chunkLength, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        int count = (int) Math.max(1, Math.min(MAX_EXTENT_CHUNKS, EXTENT_BYTES / chunkLength));
+        long firstFP = filer.rootTx(-1L, (fp, chunkCache, filer) -> {
+            long startFP = lengthOfFile;
+            long endFP = startFP + chunkLength * count;
+            filer.seek(endFP - 1); // last byte in extent
+            filer.write(0); // cause file backed ChunkStore to grow file on disk. Use setLength()?
+            for (long chunkFP = startFP; chunkFP < endFP; chunkFP += chunkLength) {
+                filer.seek(chunkFP);
+                FilerIO.writeLong(filer, cMagicNumber, "magicNumber", stackBuffer);
+                FilerIO.writeLong(filer, chunkPower, "chunkPower", stackBuffer);
+                FilerIO.writeLong(filer, chunkFP + chunkLength < endFP ? chunkFP + chunkLength : -1, "chunkNexFreeChunkFP", stackBuffer);
+                FilerIO.writeLong(filer, chunkLength, "chunkLength", stackBuffer);
+            }
+            lengthOfFile = endFP;
+            filer.seek(0);
+            FilerIO.writeLong(filer, lengthOfFile, "lengthOfFile", stackBuffer);
+            filer.seek(freeSeek(chunkPower));
+            FilerIO.writeLong(filer, startFP, "free", stackBuffer);
+            filer.flush();
+            return startFP;
+        });
+        for (int i = count - 1; i >= 0; i--) {
+            free.push(firstFP + chunkLength * i);
+        }
+        free.fresh = count;
+    }
+
+    /**
+     * The in memory list mirrors the on disk one, so the new head is known without reading any chunk. Synchronize externally on free.
+     */
+    private void writeFreeHead(FreeChunks free, int chunkPower, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        long headFP = free.peek();
+        filer.tx(freeSeek(chunkPower), (fp, chunkCache, filer) -> {
+            filer.seek(fp);
+            FilerIO.writeLong(filer, headFP, "free", stackBuffer);
+            filer.flush();
+            return null;
+        });
+    }
+
+    /**
+     * Splits the smallest free block that fits down to chunkPower, or grows the file when there is none. Synchronize externally on
+     * buddyFreeChunks.
+     *
+     * @return true if the chunk came from a free block
+     */
+    private boolean buddyAllocate(int chunkPower, AtomicLong chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        int power = chunkPower;
+        while (power < 63 && buddyFreeChunks.isEmpty(power)) {
+            power++;
+        }
+        if (power == 63) {
+            chunkFP.set(buddyGrow(chunkPower, stackBuffer));
+            return false;
+        }
+        int freePower = power;
+        long freeFP = buddyFreeChunks.pollFirst(freePower);
+        filer.tx(freeFP, (fp, chunkCache, filer) -> {
+            buddySplit(filer, fp, freePower, chunkPower, stackBuffer);
+            filer.flush();
+            return null;
+        });
+        chunkFP.set(freeFP);
+        return true;
+    }
+
+    /**
+     * Splits an already taken free block of freePower down to one in use block of chunkPower, freeing the upper halves. Synchronize
+     * externally on buddyFreeChunks.
+     */
+    private void buddySplit(Filer filer, long chunkFP, int freePower, int chunkPower, StackBuffer stackBuffer) throws IOException {
+        for (int p = freePower - 1; p >= chunkPower; p--) {
+            long buddyFP = chunkFP + FilerIO.chunkLength(p);
+            writeBuddyHeader(filer, buddyFP, p, -1, stackBuffer);
+            buddyFreeChunks.add(p, buddyFP);
+        }
+        writeBuddyHeader(filer, chunkFP, chunkPower, FilerIO.chunkLength(chunkPower), stackBuffer);
+    }
+
+    /**
+     * Appends a block of chunkPower, first padding the end of the file with free blocks until it is aligned. Synchronize externally on
+     * buddyFreeChunks.
+     */
+    private long buddyGrow(int chunkPower, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        long blockLength = FilerIO.chunkLength(chunkPower);
+        return filer.rootTx(-1L, (fp, chunkCache, filer) -> {
+            long base = getSkyHookFp();
+            long endFP = lengthOfFile;
+            long alignedFP = base + ((endFP - base + blockLength - 1) & -blockLength);
+            filer.seek(alignedFP + blockLength - 1); // last byte in chunk
+            filer.write(0); // cause file backed ChunkStore to grow file on disk. Use setLength()?
+            while (((endFP - base) & (blockLength - 1)) != 0) {
+                long padLength = Long.lowestOneBit(endFP - base);
+                buddyRelease(filer, endFP, Long.numberOfTrailingZeros(padLength), stackBuffer);
+                endFP += padLength;
+            }
+            writeBuddyHeader(filer, endFP, chunkPower, blockLength, stackBuffer);
+            lengthOfFile = endFP + blockLength;
+            filer.seek(0);
+            FilerIO.writeLong(filer, lengthOfFile, "lengthOfFile", stackBuffer);
+            filer.flush();
+            return endFP;
+        });
+    }
+
+    /**
+     * Frees a zeroed block, merging it with its buddy for as long as the buddy is free too. Synchronize externally on buddyFreeChunks.
+     */
+    private void buddyRelease(Filer filer, long chunkFP, int chunkPower, StackBuffer stackBuffer) throws IOException {
+        long base = getSkyHookFp();
+        if (buddyFreeChunks.contains(chunkPower, chunkFP)) {
+            System.err.println("WARNING: Some one is removing the same chunk more than once. chunkFP:" + chunkFP);
+            new RuntimeException().printStackTrace();
+            return;
+        }
+        while (chunkPower < 62) {
+            long buddyFP = base + ((chunkFP - base) ^ FilerIO.chunkLength(chunkPower));
+            if (!buddyFreeChunks.remove(chunkPower, buddyFP)) {
+                break;
+            }
+            // the upper header becomes payload of the merged block, which must stay zeroed
+            filer.seek(Math.max(chunkFP, buddyFP));
+            filer.write(zerosHeader);
+            chunkFP = Math.min(chunkFP, buddyFP);
+            chunkPower++;
+        }
+        writeBuddyHeader(filer, chunkFP, chunkPower, -1, stackBuffer);
+        buddyFreeChunks.add(chunkPower, chunkFP);
+    }
+
+    private void writeBuddyHeader(Filer filer, long chunkFP, int chunkPower, long chunkLength, StackBuffer stackBuffer) throws IOException {
+        filer.seek(chunkFP);
+        FilerIO.writeLong(filer, cMagicNumber, "magicNumber", stackBuffer);
+        FilerIO.writeLong(filer, chunkPower, "chunkPower", stackBuffer);
+        FilerIO.writeLong(filer, -1, "chunkNexFreeChunkFP", stackBuffer);
+        FilerIO.writeLong(filer, chunkLength, "chunkLength", stackBuffer);
+    }
+
+    /**
+     * Free blocks are the ones whose chunkLength is -1. Synchronize externally on filer.lock()
+     */
+    private BuddyFreeChunks loadBuddyFreeChunks(Filer filer, StackBuffer stackBuffer) throws IOException {
+        BuddyFreeChunks loaded = new BuddyFreeChunks();
+        long chunkFP = getSkyHookFp();
+        while (chunkFP < lengthOfFile) {
+            filer.seek(chunkFP);
+            long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
+            if (magicNumber != cMagicNumber) {
+                throw new CorruptionException("Invalid chunkFP " + chunkFP + " while walking buddy store");
+            }
+            int chunkPower = (int) FilerIO.readLong(filer, "chunkPower", stackBuffer);
+            FilerIO.readLong(filer, "chunkNexFreeChunkFP", stackBuffer);
+            long chunkLength = FilerIO.readLong(filer, "chunkLength", stackBuffer);
+            if (chunkLength == -1) {
+                loaded.add(chunkPower, chunkFP);
+            }
+            chunkFP += FilerIO.chunkLength(chunkPower);
+        }
+        return loaded;
     }
 
     /**
      * Synchronize externally on filer.lock()
      */
-    private long reuseChunk(Filer filer, long position, StackBuffer stackBuffer) throws IOException {
-        filer.seek(position);
-        long reuseFP = FilerIO.readLong(filer, "free", stackBuffer);
-        if (reuseFP == -1) {
-            return reuseFP;
+    private FreeChunks[] loadFreeChunks(Filer filer, StackBuffer stackBuffer) throws IOException {
+        FreeChunks[] loaded = new FreeChunks[64]; // the last header slot is the sky hook, not a free list
+        for (int chunkPower = minPower; chunkPower < 64; chunkPower++) {
+            loaded[chunkPower] = new FreeChunks();
+            filer.seek(freeSeek(chunkPower));
+            long freeFP = FilerIO.readLong(filer, "free", stackBuffer);
+            long maxFree = lengthOfFile / (FilerIO.chunkLength(Math.min(chunkPower, 62)) + 8 + 8 + 8 + 8);
+            int walked = 0;
+            long[] chain = new long[16];
+            while (freeFP != -1) {
+                if (walked > maxFree) {
+                    throw new CorruptionException("Free list for chunkPower " + chunkPower + " is longer than the file allows, probably cyclic.");
+                }
+                if (walked == chain.length) {
+                    chain = Arrays.copyOf(chain, walked * 2);
+                }
+                chain[walked++] = freeFP;
+                freeFP = readNextFree(filer, freeFP, stackBuffer);
+            }
+            for (int i = walked - 1; i >= 0; i--) {
+                loaded[chunkPower].push(chain[i]);
+            }
         }
-        long nextFree = readNextFree(filer, reuseFP, stackBuffer);
-        filer.seek(position);
-        FilerIO.writeLong(filer, nextFree, "free", stackBuffer);
-        return reuseFP;
+        return loaded;
     }
 
     /**
@@ -274,65 +802,118 @@ public class ChunkStore implements Copyable<ChunkStore> {
         StackBuffer stackBuffer)
         throws IOException, InterruptedException {
 
-        Chunky<M> chunky = filer.tx(chunkFP, (fp, chunkCache, filer) -> {
+        // hits share the stripe, only a miss needs it to itself to open and cache the chunk
+        Chunky<M> chunky = filer.readTx(chunkFP, (fp, chunkCache, filer) -> {
             Chunk<M> chunk = chunkCache.acquireIfPresent(chunkFP, stackBuffer);
             if (chunk == null) {
-                filer.seek(chunkFP);
-                long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
-                if (magicNumber != cMagicNumber) {
-                    throw new CorruptionException("Invalid chunkFP " + chunkFP);
-                }
-                int chunkPower = (int) FilerIO.readLong(filer, "chunkPower", stackBuffer);
-                FilerIO.readLong(filer, "chunkNexFreeChunkFP", stackBuffer);
-                FilerIO.readLong(filer, "chunkLength", stackBuffer);
-                long startOfFP = filer.getFilePointer();
-
-                long endOfFP = startOfFP + FilerIO.chunkLength(chunkPower);
-                ChunkFiler chunkFiler = stackBuffer.chunkFiler(ChunkStore.this, filer.duplicate(stackBuffer.duplicateBuffer, startOfFP, endOfFP), chunkFP,
-                    startOfFP, endOfFP);
-                chunkFiler.seek(0);
-
-                M monkey = openFiler.open(chunkFiler, stackBuffer);
-                chunk = new Chunk<>(monkey, chunkFP, chunkPower, startOfFP, endOfFP);
-                chunkCache.promoteAndAcquire(chunkFP, chunk, 2, stackBuffer);
-
-                executeMisses[0].inc(1);
-                executeMisses[chunkPower].inc(1);
-            } else {
-                executeHits[0].inc(1);
-                executeHits[chunk.chunkPower].inc(1);
+                return null;
             }
-
-            //ChunkFiler chunkFiler = new ChunkFiler(ChunkStore.this, filer.duplicate(chunk.startOfFP, chunk.endOfFP), chunkFP, chunk.startOfFP,
-            //    chunk.endOfFP);
-            AutoGrowingByteBufferBackedFiler duplicate = filer.duplicate(stackBuffer.duplicateBuffer, chunk.startOfFP, chunk.endOfFP);
-            ChunkFiler chunkFiler = stackBuffer.chunkFiler(ChunkStore.this, duplicate, chunkFP, chunk.startOfFP,
-                chunk.endOfFP);
-            chunkFiler.seek(0);
-            return stackBuffer.chunky(duplicate, chunkFiler, chunk);
+            executeHits[0].inc(1);
+            executeHits[chunk.chunkPower].inc(1);
+            return chunky(filer, chunk, stackBuffer);
         });
+        if (chunky == null) {
+            chunky = filer.tx(chunkFP, (fp, chunkCache, filer) -> executeMiss(chunkFP, openFiler, chunkCache, filer, stackBuffer));
+            if (chunky == null) {
+                Long relocatedFP = relocatedFPs.get(chunkFP);
+                if (relocatedFP == null) {
+                    throw new CorruptionException("Relocated chunkFP " + chunkFP + " was removed while still in use");
+                }
+                return execute(relocatedFP, openFiler, chunkTransaction, stackBuffer);
+            }
+        }
 
         try {
             return chunkTransaction.commit(chunky.monkey.monkey, chunky.filer, stackBuffer, chunky.monkey);
         } finally {
 
-            filer.tx(chunkFP, (fp, chunkCache, filer1) -> {
-                chunkCache.release(chunkFP, stackBuffer);
-                return null;
-            });
+            boolean released = filer.readTx(chunkFP, (fp, chunkCache, filer1) -> chunkCache.releaseIfNotLast(chunkFP));
+            if (!released) {
+                filer.tx(chunkFP, (fp, chunkCache, filer1) -> {
+                    chunkCache.release(chunkFP, stackBuffer);
+                    return null;
+                });
+            }
 
             ChunkFiler chunkyFiler = chunky.filer;
-            AutoGrowingByteBufferBackedFiler chunkyDuplicate = chunky.duplicate;
+            DuplicableFiler chunkyDuplicate = chunky.duplicate;
             stackBuffer.recycle(chunkyFiler);
             stackBuffer.duplicateBuffer.recycle(chunkyDuplicate);
             stackBuffer.recycle(chunky);
         }
     }
 
+    /**
+     * Under the stripe's write lock. Another tx may have cached the chunk since the caller's read tx missed it.
+     *
+     * @return null if the chunk has been relocated
+     */
+    private <M> Chunky<M> executeMiss(long chunkFP,
+        OpenFiler<M, ChunkFiler> openFiler,
+        ChunkCache chunkCache,
+        DuplicableFiler filer,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+        Chunk<M> chunk = chunkCache.acquireIfPresent(chunkFP, stackBuffer);
+        if (chunk == null) {
+            if (relocatedFPs.containsKey(chunkFP)) {
+                return null;
+            }
+            int chunkPower = chunkCache.cachedPower(chunkFP);
+            if (chunkPower == -1) {
+                chunkPower = isSlot(chunkFP) ? readSlotPower(filer, chunkFP) : readChunkPower(filer, chunkFP);
+                if (chunkPower == -1) {
+                    throw new CorruptionException("Invalid chunkFP " + chunkFP);
+                }
+                chunkCache.cachePower(chunkFP, chunkPower);
+            }
+            long startOfFP;
+            long endOfFP;
+            if (isSlot(chunkFP)) {
+                startOfFP = slotStartFP(chunkFP, chunkPower);
+                endOfFP = startOfFP + FilerIO.chunkLength(chunkPower);
+            } else {
+                startOfFP = chunkFP + cChunkHeaderLength;
+                endOfFP = startOfFP + chunkCapacity(chunkPower);
+            }
+            ChunkFiler chunkFiler = stackBuffer.chunkFiler(ChunkStore.this, filer.duplicate(stackBuffer.duplicateBuffer, startOfFP, endOfFP), chunkFP,
+                startOfFP, endOfFP);
+            chunkFiler.seek(0);
+
+            M monkey = openFiler.open(chunkFiler, stackBuffer);
+            chunk = new Chunk<>(monkey, chunkFP, chunkPower, startOfFP, endOfFP);
+            chunkCache.promoteAndAcquire(chunkFP, chunk, 2, stackBuffer);
+
+            executeMisses[0].inc(1);
+            executeMisses[chunkPower].inc(1);
+        } else {
+            executeHits[0].inc(1);
+            executeHits[chunk.chunkPower].inc(1);
+        }
+
+        return chunky(filer, chunk, stackBuffer);
+    }
+
+    private <M> Chunky<M> chunky(DuplicableFiler filer, Chunk<M> chunk, StackBuffer stackBuffer) throws IOException {
+        DuplicableFiler duplicate = filer.duplicate(stackBuffer.duplicateBuffer, chunk.startOfFP, chunk.endOfFP);
+        ChunkFiler chunkFiler = stackBuffer.chunkFiler(ChunkStore.this, duplicate, chunk.chunkFP, chunk.startOfFP, chunk.endOfFP);
+        chunkFiler.seek(0);
+        return stackBuffer.chunky(duplicate, chunkFiler, chunk);
+    }
+
     public void remove(long chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        removeChunk(chunkFP, stackBuffer);
+        updated();
+    }
+
+    private void removeChunk(long chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        if (isSlot(chunkFP)) {
+            removeSlot(chunkFP, stackBuffer);
+            return;
+        }
 
         final Integer chunkPower = filer.tx(chunkFP, (fp, chunkCache, filer) -> {
             chunkCache.remove(fp, stackBuffer);
+            relocatedFPs.remove(fp);
 
             filer.seek(fp);
             long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
@@ -341,59 +922,559 @@ public class ChunkStore implements Copyable<ChunkStore> {
             }
             int chunkPower1 = (int) FilerIO.readLong(filer, "chunkPower", stackBuffer);
             FilerIO.readLong(filer, "chunkNexFreeChunkFP", stackBuffer);
-            FilerIO.writeLong(filer, -1, "chunkLength", stackBuffer);
-            long chunkLength = FilerIO.chunkLength(chunkPower1); // bytes
-            // fill with zeros
-            while (chunkLength >= zerosMax.length) {
-                filer.write(zerosMax);
-                chunkLength -= zerosMax.length;
-            }
-            while (chunkLength >= zerosMin.length) {
-                filer.write(zerosMin);
-                chunkLength -= zerosMin.length;
+            if (zeroOnReuse && !isBuddy()) {
+                FilerIO.writeLong(filer, cDirtyChunkLength, "chunkLength", stackBuffer);
+            } else {
+                FilerIO.writeLong(filer, -1, "chunkLength", stackBuffer);
+                zero(filer, chunkCapacity(chunkPower1));
             }
             filer.flush();
             return chunkPower1;
         });
 
-        filer.rootTx(chunkFP, (fp, chunkCache, filer) -> {
-
-            // save as free chunk
-            long position = freeSeek(chunkPower);
-            filer.seek(position);
-            long freeFP = FilerIO.readLong(filer, "free", stackBuffer);
-            if (freeFP == -1) {
-                filer.seek(position);
-                FilerIO.writeLong(filer, fp, "free", stackBuffer);
-            } else if (fp != freeFP) {
-                filer.seek(position);
-                FilerIO.writeLong(filer, fp, "free", stackBuffer);
+        // save as free chunk
+        if (isBuddy()) {
+            synchronized (buddyFreeChunks) {
+                filer.tx(chunkFP, (fp, chunkCache, filer) -> {
+                    buddyRelease(filer, fp, chunkPower, stackBuffer);
+                    filer.flush();
+                    return null;
+                });
+            }
+            removes[0].inc(1);
+            removes[chunkPower].inc(1);
+            return;
+        }
+        FreeChunks free = freeChunks[chunkPower];
+        synchronized (free) {
+            long freeFP = free.peek();
+            if (chunkFP != freeFP) {
+                filer.tx(freeSeek(chunkPower), (fp, chunkCache, filer) -> {
+                    writeNextFree(filer, chunkFP, freeFP, stackBuffer);
+                    filer.seek(fp);
+                    FilerIO.writeLong(filer, chunkFP, "free", stackBuffer);
+                    filer.flush();
+                    return null;
+                });
+                free.push(chunkFP);
             } else {
-                System.err.println("WARNING: Some one is removing the same chunk more than once. chunkFP:" + fp);
+                System.err.println("WARNING: Some one is removing the same chunk more than once. chunkFP:" + chunkFP);
                 new RuntimeException().printStackTrace();
             }
-            writeNextFree(filer, fp, freeFP, stackBuffer);
-            filer.flush();
-            return null;
-        });
+        }
 
         removes[0].inc(1);
         removes[chunkPower].inc(1);
     }
 
+    /**
+     * Enters the current reclamation epoch. A reader calls this before it looks up a chunkFP that a writer may concurrently swap out, and
+     * passes the result to exitEpoch once it is done with the chunk, so that removeDeferred doesn't free the chunk underneath it. Readers
+     * only count themselves into one of three striped counters, so entering and exiting don't contend with each other.
+     */
+    public long enterEpoch() {
+        while (true) {
+            long entered = epoch.get();
+            LongAdder readers = epochReaders[(int) (entered % 3)];
+            readers.increment();
+            if (epoch.get() == entered) {
+                return entered;
+            }
+            // the epoch advanced past us before we were counted
+            readers.decrement();
+        }
+    }
+
+    /**
+     * Never removes anything itself; chunks this exit made reclaimable are removed by a background thread.
+     */
+    public void exitEpoch(long entered) {
+        epochReaders[(int) (entered % 3)].decrement();
+        if (hasDeferredRemoves) {
+            scheduleReclaim();
+        }
+    }
+
+    /**
+     * Removes a chunk that has already been swapped out of its index once every reader that entered an epoch before this call has exited.
+     * This never waits on readers; the chunk is removed by this call or, after the last reader that could still see it exits, in the
+     * background. Chunks still deferred at close are removed by close if their readers are gone; those deferred when the process dies are
+     * in neither an index nor a free list, and their space is leaked. A background removal that failed is thrown by the next call.
+     */
+    public void removeDeferred(long chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        throwReclaimFailure();
+        synchronized (deferredRemoves) {
+            // the chunk is already out of its index, so no reader entering after this epoch can find it
+            deferredRemoves.add(new long[] { chunkFP, epoch.get() });
+            hasDeferredRemoves = true;
+            advanceEpoch();
+        }
+        removeReclaimable(stackBuffer);
+    }
+
+    /**
+     * Moves to the next epoch if no reader is left in the one before the current. A chunk deferred in epoch e is therefore unreachable once
+     * the epoch reaches e + 2. Only ever called holding the deferredRemoves monitor.
+     */
+    private void advanceEpoch() {
+        long current = epoch.get();
+        if (epochReaders[(int) ((current + 2) % 3)].sum() == 0) {
+            epoch.set(current + 1);
+        }
+    }
+
+    private void scheduleReclaim() {
+        if (reclaimScheduled.compareAndSet(false, true)) {
+            try {
+                reclaimer.execute(() -> {
+                    reclaimScheduled.set(false);
+                    try {
+                        removeReclaimable(new StackBuffer());
+                    } catch (Exception x) {
+                        reclaimFailure.compareAndSet(null, x);
+                    }
+                });
+            } catch (RejectedExecutionException x) {
+                reclaimScheduled.set(false); // closed, and close has already removed whatever it could
+            }
+        }
+    }
+
+    /**
+     * A single thread that only starts with the first reclaim and stops again once idle, so a store that is never closed doesn't keep it.
+     */
+    private static ThreadPoolExecutor newReclaimer() {
+        ThreadPoolExecutor reclaimer = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "chunk-store-reclaimer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reclaimer.allowCoreThreadTimeOut(true);
+        return reclaimer;
+    }
+
+    private void throwReclaimFailure() throws IOException {
+        Exception failure = reclaimFailure.getAndSet(null);
+        if (failure != null) {
+            throw new IOException("Failed to remove deferred chunks in the background", failure);
+        }
+    }
+
+    /**
+     * Removes under the monitor so that once one call returns, every chunk it found reclaimable is free, whichever thread polled it.
+     */
+    private void removeReclaimable(StackBuffer stackBuffer) throws IOException, InterruptedException {
+        synchronized (deferredRemoves) {
+            if (deferredRemoves.isEmpty()) {
+                return;
+            }
+            advanceEpoch();
+            advanceEpoch();
+            long unreachable = epoch.get() - 2;
+            while (!deferredRemoves.isEmpty() && deferredRemoves.peek()[1] <= unreachable) {
+                remove(deferredRemoves.poll()[0], stackBuffer);
+            }
+            hasDeferredRemoves = !deferredRemoves.isEmpty();
+        }
+    }
+
+    /**
+     * Writes length zeros from the filer's current position.
+     */
+    private void zero(Filer filer, long length) throws IOException {
+        while (length >= zerosMax.length) {
+            filer.write(zerosMax);
+            length -= zerosMax.length;
+        }
+        while (length >= zerosMin.length) {
+            filer.write(zerosMin);
+            length -= zerosMin.length;
+        }
+    }
+
+    private void removeSlot(long slotFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        int slotPower = filer.tx(slotFP, (fp, chunkCache, filer) -> {
+            chunkCache.remove(fp, stackBuffer);
+            int slotPower1 = readSlotPower(filer, fp);
+            if (slotPower1 != -1) {
+                filer.seek(slotStartFP(fp, slotPower1));
+                filer.write(zerosMax, 0, (int) FilerIO.chunkLength(slotPower1));
+                filer.flush();
+            }
+            return slotPower1;
+        });
+
+        long slabFP = slabFP(slotFP);
+        int slot = slot(slotFP);
+        if (slotPower != -1) {
+            Slabs slabsOfPower = slabs[slotPower];
+            synchronized (slabsOfPower) {
+                if (slabsOfPower.release(slabFP, slot)) {
+                    writeSlabUsed(slabFP, slot, slabsOfPower.usedWord(slabFP, slot), stackBuffer);
+                    // keep one empty slab around so a power that churns around a slab boundary doesn't allocate and remove it over and over
+                    if (slabsOfPower.isEmpty(slabFP) && slabsOfPower.withFreeCount() > 1) {
+                        slabsOfPower.drop(slabFP);
+                        remove(slabFP, stackBuffer);
+                    }
+                    removes[0].inc(1);
+                    removes[slotPower].inc(1);
+                    return;
+                }
+            }
+        }
+        System.err.println("WARNING: Some one is removing the same chunk more than once. chunkFP:" + slotFP);
+        new RuntimeException().printStackTrace();
+    }
+
     private long freeSeek(long _chunkPower) {
         return 8 + 8 + ((_chunkPower - minPower) * 8);
     }
 
+    /**
+     * Moves a chunk into the lowest free slot below it so the tail of the file can be truncated. The old chunk is left intact; the caller
+     * repoints its reference, typically with FPIndex.getAndSet, and then retires the old chunk with removeDeferred. A chunk that is acquired
+     * is not moved. Transactions that looked up the old chunkFP before it was repointed are executed against the moved chunk until the old
+     * chunk is removed, so their writes are not lost.
+     *
+     * @return the new chunkFP, or chunkFP if there was no lower slot or the chunk is busy
+     */
+    public long relocate(long chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        long relocatedFP = relocateChunk(chunkFP, stackBuffer);
+        if (relocatedFP != chunkFP) {
+            updated();
+        }
+        return relocatedFP;
+    }
+
+    private long relocateChunk(long chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        if (isSlot(chunkFP)) {
+            return chunkFP;
+        }
+        int chunkPower = filer.readTx(chunkFP, (fp, chunkCache, filer) -> {
+            int chunkPower1 = readChunkPower(filer, fp);
+            if (chunkPower1 == -1) {
+                throw new CorruptionException("Invalid chunkFP " + fp);
+            }
+            return chunkPower1;
+        });
+        Object allocatorLock = isBuddy() ? buddyFreeChunks : freeChunks[chunkPower];
+        synchronized (allocatorLock) {
+            return filer.tx(chunkFP, (fp, chunkCache, filer) -> {
+                if (chunkCache.isAcquired(fp)) {
+                    return fp;
+                }
+                long toFP = isBuddy() ? buddyTakeBelow(filer, chunkPower, fp, stackBuffer) : takeBelow(filer, chunkPower, fp, stackBuffer);
+                if (toFP == -1) {
+                    return fp;
+                }
+                long capacity = chunkCapacity(chunkPower);
+                byte[] buffer = new byte[(int) Math.min(capacity, zerosMax.length)];
+                for (long offset = 0; offset < capacity; offset += buffer.length) {
+                    int length = (int) Math.min(buffer.length, capacity - offset);
+                    filer.seek(fp + cChunkHeaderLength + offset);
+                    filer.read(buffer, 0, length);
+                    filer.seek(toFP + cChunkHeaderLength + offset);
+                    filer.write(buffer, 0, length);
+                }
+                if (!isBuddy()) {
+                    // a buddy split writes the whole header, a free chunk taken off its list still carries the freed chunkLength
+                    filer.seek(toFP + 8 + 8 + 8);
+                    FilerIO.writeLong(filer, inUseChunkLength(chunkPower), "chunkLength", stackBuffer);
+                }
+                filer.flush();
+                chunkCache.remove(fp, stackBuffer);
+                relocatedFPs.put(fp, toFP);
+                return toFP;
+            });
+        }
+    }
+
+    /**
+     * Synchronize externally on buddyFreeChunks.
+     */
+    private long buddyTakeBelow(Filer filer, int chunkPower, long belowFP, StackBuffer stackBuffer) throws IOException {
+        int bestPower = -1;
+        long bestFP = belowFP;
+        for (int p = chunkPower; p < 63; p++) {
+            if (!buddyFreeChunks.isEmpty(p) && buddyFreeChunks.first(p) < bestFP) {
+                bestFP = buddyFreeChunks.first(p);
+                bestPower = p;
+            }
+        }
+        if (bestPower == -1) {
+            return -1;
+        }
+        buddyFreeChunks.remove(bestPower, bestFP);
+        buddySplit(filer, bestFP, bestPower, chunkPower, stackBuffer);
+        return bestFP;
+    }
+
+    /**
+     * Synchronize externally on freeChunks[chunkPower].
+     */
+    private long takeBelow(Filer filer, int chunkPower, long belowFP, StackBuffer stackBuffer) throws IOException {
+        FreeChunks free = freeChunks[chunkPower];
+        int best = -1;
+        for (int i = 0; i < free.size; i++) {
+            if (free.fps[i] < belowFP && (best == -1 || free.fps[i] < free.fps[best])) {
+                best = i;
+            }
+        }
+        if (best == -1) {
+            return -1;
+        }
+        return unlinkFree(filer, free, chunkPower, best, stackBuffer);
+    }
+
+    /**
+     * Removes the i'th free chunk, relinking its neighbours on disk. Synchronize externally on free.
+     */
+    private long unlinkFree(Filer filer, FreeChunks free, int chunkPower, int i, StackBuffer stackBuffer) throws IOException {
+        long nextFP = i > 0 ? free.fps[i - 1] : -1;
+        if (i == free.size - 1) {
+            filer.seek(freeSeek(chunkPower));
+            FilerIO.writeLong(filer, nextFP, "free", stackBuffer);
+        } else {
+            writeNextFree(filer, free.fps[i + 1], nextFP, stackBuffer);
+        }
+        return free.remove(i);
+    }
+
+    /**
+     * Drops free chunks from the end of the file and gives whole segments past the new end back to the filesystem. Together with relocate
+     * this compacts a store online; call it in small steps to limit the impact on concurrent work.
+     *
+     * @param maxBytes stop once this many bytes have been dropped
+     * @return the bytes dropped from the end of the file
+     */
+    public long truncate(long maxBytes, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        long truncated = truncateFile(maxBytes, stackBuffer);
+        updated();
+        return truncated;
+    }
+
+    private long truncateFile(long maxBytes, StackBuffer stackBuffer) throws IOException, InterruptedException {
+        long dropped = 0;
+        boolean progress = true;
+        while (progress && dropped < maxBytes) {
+            progress = false;
+            for (int chunkPower = minPower; chunkPower < 64 && dropped < maxBytes; chunkPower++) {
+                long blockLength = isBuddy() ? FilerIO.chunkLength(chunkPower) : FilerIO.chunkLength(chunkPower) + cChunkHeaderLength;
+                int power = chunkPower;
+                Object allocatorLock = isBuddy() ? buddyFreeChunks : freeChunks[chunkPower];
+                long droppedLength;
+                synchronized (allocatorLock) {
+                    droppedLength = filer.rootTx(-1L, (fp, chunkCache, filer) -> {
+                        long tailFP = lengthOfFile - blockLength;
+                        if (isBuddy()) {
+                            if (!buddyFreeChunks.remove(power, tailFP)) {
+                                return 0L;
+                            }
+                        } else {
+                            int i = freeChunks[power].indexOf(tailFP);
+                            if (i == -1) {
+                                return 0L;
+                            }
+                            unlinkFree(filer, freeChunks[power], power, i, stackBuffer);
+                            // the dropped bytes stay in the last segment, and a later extent expects them zeroed
+                            filer.seek(tailFP + 8 + 8 + 8);
+                            if (FilerIO.readLong(filer, "chunkLength", stackBuffer) == cDirtyChunkLength) {
+                                zero(filer, chunkCapacity(power));
+                            }
+                        }
+                        lengthOfFile = tailFP;
+                        filer.seek(0);
+                        FilerIO.writeLong(filer, lengthOfFile, "lengthOfFile", stackBuffer);
+                        filer.flush();
+                        return blockLength;
+                    });
+                }
+                if (droppedLength > 0) {
+                    dropped += droppedLength;
+                    progress = true;
+                }
+            }
+        }
+        if (dropped > 0) {
+            filer.truncate((fp, chunkCache, filer) -> lengthOfFile);
+        }
+        return dropped;
+    }
+
     public boolean isValid(final long chunkFP, StackBuffer stackBuffer) throws IOException, InterruptedException {
-        return filer.tx(chunkFP, (fp, chunkCache, filer) -> {
-            if (chunkCache.contains(fp, stackBuffer)) {
+        return filer.readTx(chunkFP, (fp, chunkCache, filer) -> {
+            if (chunkCache.contains(fp, stackBuffer) || chunkCache.cachedPower(fp) != -1) {
                 return true;
             }
-            filer.seek(fp);
-            long magicNumber = FilerIO.readLong(filer, "magicNumber", stackBuffer);
-            return magicNumber == cMagicNumber;
+            if (isSlot(fp)) {
+                return readSlotPower(filer, fp) != -1;
+            }
+            return readChunkPower(filer, fp) != -1;
         });
     }
 
+    /**
+     * The free chunks of one power in on disk list order, head on top. The bottom fresh entries were reserved by an extent and never used.
+     */
+    private static class FreeChunks {
+
+        private long[] fps = new long[16];
+        private int size;
+        private int fresh;
+
+        void push(long fp) {
+            if (size == fps.length) {
+                fps = Arrays.copyOf(fps, size * 2);
+            }
+            fps[size++] = fp;
+        }
+
+        long pop() {
+            if (size == 0) {
+                return -1;
+            }
+            if (size == fresh) {
+                fresh--;
+            }
+            return fps[--size];
+        }
+
+        long peek() {
+            return size == 0 ? -1 : fps[size - 1];
+        }
+
+        int indexOf(long fp) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (fps[i] == fp) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        long remove(int i) {
+            long fp = fps[i];
+            System.arraycopy(fps, i + 1, fps, i, size - i - 1);
+            size--;
+            if (i < fresh) {
+                fresh--;
+            }
+            return fp;
+        }
+    }
+
+    /**
+     * The free blocks of a buddy store by power, lowest fp first so the file stays dense at the front.
+     */
+    private static class BuddyFreeChunks {
+
+        @SuppressWarnings("unchecked")
+        private final TreeSet<Long>[] free = new TreeSet[64];
+
+        BuddyFreeChunks() {
+            for (int i = 0; i < free.length; i++) {
+                free[i] = new TreeSet<>();
+            }
+        }
+
+        boolean isEmpty(int chunkPower) {
+            return free[chunkPower].isEmpty();
+        }
+
+        long pollFirst(int chunkPower) {
+            return free[chunkPower].pollFirst();
+        }
+
+        long first(int chunkPower) {
+            return free[chunkPower].first();
+        }
+
+        void add(int chunkPower, long chunkFP) {
+            free[chunkPower].add(chunkFP);
+        }
+
+        boolean remove(int chunkPower, long chunkFP) {
+            return free[chunkPower].remove(chunkFP);
+        }
+
+        boolean contains(int chunkPower, long chunkFP) {
+            return free[chunkPower].contains(chunkFP);
+        }
+    }
+
+    /**
+     * The used slots of every slab of one slot power, and the slabs with a free slot lowest fp first.
+     */
+    private static class Slabs {
+
+        private final int slotsPerSlab;
+        private final Map<Long, long[]> used = new HashMap<>();
+        private final TreeSet<Long> withFree = new TreeSet<>();
+
+        Slabs(int slotsPerSlab) {
+            this.slotsPerSlab = slotsPerSlab;
+        }
+
+        void add(long slabFP, long[] usedBits) {
+            used.put(slabFP, usedBits);
+            if (count(usedBits) < slotsPerSlab) {
+                withFree.add(slabFP);
+            }
+        }
+
+        long firstWithFree() {
+            return withFree.isEmpty() ? -1 : withFree.first();
+        }
+
+        int withFreeCount() {
+            return withFree.size();
+        }
+
+        int take(long slabFP) {
+            long[] usedBits = used.get(slabFP);
+            for (int i = 0; i < usedBits.length; i++) {
+                if (usedBits[i] != -1L) {
+                    int slot = (i << 6) + Long.numberOfTrailingZeros(~usedBits[i]);
+                    usedBits[i] |= 1L << slot;
+                    if (count(usedBits) == slotsPerSlab) {
+                        withFree.remove(slabFP);
+                    }
+                    return slot;
+                }
+            }
+            throw new IllegalStateException("Slab " + slabFP + " has no free slot");
+        }
+
+        boolean release(long slabFP, int slot) {
+            long[] usedBits = used.get(slabFP);
+            if (usedBits == null || (usedBits[slot >>> 6] & (1L << slot)) == 0) {
+                return false;
+            }
+            usedBits[slot >>> 6] &= ~(1L << slot);
+            withFree.add(slabFP);
+            return true;
+        }
+
+        long usedWord(long slabFP, int slot) {
+            return used.get(slabFP)[slot >>> 6];
+        }
+
+        boolean isEmpty(long slabFP) {
+            return count(used.get(slabFP)) == 0;
+        }
+
+        void drop(long slabFP) {
+            used.remove(slabFP);
+            withFree.remove(slabFP);
+        }
+
+        private static int count(long[] usedBits) {
+            int count = 0;
+            for (long usedWord : usedBits) {
+                count += Long.bitCount(usedWord);
+            }
+            return count;
+        }
+    }
+
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Forces a StripedFiler from a single thread on behalf of many updates: once an update arrives the thread waits out the window, or less if
+ * maxUpdates pile up first, and then forces everything written so far with one msync. Updates never wait on the disk themselves; a caller
+ * that needs its update to be durable waits on the future from durable().
+ *
+ * @author jonathan.colt
+ */
+class GroupCommit implements Runnable {
+
+    private static final ChunkMetrics.ChunkMetric commits = ChunkMetrics.get("ChunkStore", "groupCommit", "commits");
+    private static final ChunkMetrics.ChunkMetric committedUpdates = ChunkMetrics.get("ChunkStore", "groupCommit", "updates");
+
+    private final StripedFiler filer;
+    private final long windowMillis;
+    private final int maxUpdates;
+    private final Thread thread;
+
+    // guarded by this
+    private int updates;
+    private CompletableFuture<Void> next = new CompletableFuture<>();
+    private CompletableFuture<Void> committing;
+    private boolean closed;
+
+    GroupCommit(StripedFiler filer, long windowMillis, int maxUpdates) {
+        this.filer = filer;
+        this.windowMillis = windowMillis;
+        this.maxUpdates = maxUpdates;
+        this.thread = new Thread(this, "chunk-store-group-commit");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    synchronized void updated() {
+        updates++;
+        if (updates == 1 || updates >= maxUpdates) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return completes once every update made before this call is on disk
+     */
+    synchronized CompletableFuture<Void> durable() {
+        if (updates > 0) {
+            return next;
+        }
+        return committing != null ? committing : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Commits whatever is outstanding and stops the thread.
+     */
+    void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        thread.join();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            CompletableFuture<Void> commit;
+            int committed;
+            synchronized (this) {
+                try {
+                    while (updates == 0 && !closed) {
+                        wait();
+                    }
+                    long deadline = System.currentTimeMillis() + windowMillis;
+                    long remaining = windowMillis;
+                    while (updates < maxUpdates && !closed && remaining > 0) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    closed = true;
+                }
+                if (updates == 0) {
+                    return;
+                }
+                commit = next;
+                committed = updates;
+                committing = commit;
+                next = new CompletableFuture<>();
+                updates = 0;
+            }
+
+            try {
+                filer.force();
+                commits.inc(1);
+                committedUpdates.inc(committed);
+                commit.complete(null);
+            } catch (Throwable t) {
+                commit.completeExceptionally(t);
+            }
+
+            synchronized (this) {
+                if (committing == commit) {
+                    committing = null;
+                }
+            }
+        }
+    }
+}
@@ -15,36 +15,72 @@
  */
 package com.jivesoftware.os.filer.io.chunk;
 
-import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
 import com.jivesoftware.os.filer.io.ByteBufferFactory;
+import com.jivesoftware.os.filer.io.DuplicableFiler;
 import com.jivesoftware.os.filer.io.FilerIO;
 import java.io.IOException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
+ * Hands out per stripe duplicates of the root filer. The root only grows under rootTx, which publishes the new length through a volatile so
+ * stripes learn about growth without touching the root on every tx. A tx has its stripe to itself, while read txs share it with each other.
+ *
  * @author jonathan.colt
  */
 public class StripedFiler {
 
-    private final AutoGrowingByteBufferBackedFiler root;
-    private final Object[] locks;
-    private final AutoGrowingByteBufferBackedFiler[] stripes;
+    private static final ChunkMetrics.ChunkMetric forces = ChunkMetrics.get("StripedFiler", "force", "calls");
+    private static final ChunkMetrics.ChunkMetric forcedBytes = ChunkMetrics.get("StripedFiler", "force", "bytes");
+
+    /**
+     * A few stripes per core, rounded up to a power of two.
+     */
+    public static int defaultNumberOfStripes() {
+        int stripes = Runtime.getRuntime().availableProcessors() * 4;
+        return Integer.highestOneBit(stripes - 1) << 1;
+    }
+
+    private final DuplicableFiler root;
+    private final ReentrantReadWriteLock[] locks;
+    private final DuplicableFiler[] stripes;
+    private final long[] stripesRootLength;
     private final byte[] name;
     private final ByteBufferFactory bufferFactory;
     private final ChunkCache[] stripesChunkCaches;
+    private final int maxCachedChunksPerStripe;
+    private final long maxCachedBytesPerStripe;
+    private volatile long rootLength;
 
-    public StripedFiler(AutoGrowingByteBufferBackedFiler root,
+    public StripedFiler(DuplicableFiler root,
         byte[] name,
         ByteBufferFactory bufferFactory,
         int numberOfStripes) {
+        this(root, name, bufferFactory, numberOfStripes, Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxCachedChunksPerStripe bound on each stripe's ChunkCache entries, Integer.MAX_VALUE for unbounded
+     * @param maxCachedBytesPerStripe bound on each stripe's cached chunk space, Long.MAX_VALUE for unbounded
+     */
+    public StripedFiler(DuplicableFiler root,
+        byte[] name,
+        ByteBufferFactory bufferFactory,
+        int numberOfStripes,
+        int maxCachedChunksPerStripe,
+        long maxCachedBytesPerStripe) {
         this.root = root;
         this.name = name;
         this.bufferFactory = bufferFactory;
-        this.locks = new Object[numberOfStripes];
+        this.locks = new ReentrantReadWriteLock[numberOfStripes];
         for (int i = 0; i < locks.length; i++) {
-            locks[i] = new Object();
+            locks[i] = new ReentrantReadWriteLock();
         }
-        this.stripes = new AutoGrowingByteBufferBackedFiler[numberOfStripes];
+        this.stripes = new DuplicableFiler[numberOfStripes];
+        this.stripesRootLength = new long[numberOfStripes];
         this.stripesChunkCaches = new ChunkCache[numberOfStripes];
+        this.maxCachedChunksPerStripe = maxCachedChunksPerStripe;
+        this.maxCachedBytesPerStripe = maxCachedBytesPerStripe;
     }
 
     public long length() throws IOException {
@@ -53,10 +89,24 @@ public class StripedFiler {
 
     public <R> R rootTx(long fp, StripeTx<R> stripeTx) throws IOException, InterruptedException {
         synchronized (root) {
-            return stripeTx.tx(fp, null, root);
+            try {
+                return stripeTx.tx(fp, null, root);
+            } finally {
+                rootLength = root.length();
+            }
         }
     }
 
+    /**
+     * Forces the root's dirty mapped segments to disk. This doesn't take the root lock, so growing the root isn't held up behind the msync; a
+     * segment added meanwhile is left for the next force.
+     */
+    public void force() throws IOException {
+        long forced = root.force();
+        forces.inc(1);
+        forcedBytes.inc(forced);
+    }
+
     private static final long multiplier = 0x5DEECE66DL;
     private static final long addend = 0xBL;
     private static final long mask = (1L << 48) - 1;
@@ -69,20 +119,97 @@ public class StripedFiler {
 
     public <R> R tx(long fp, StripeTx<R> stripeTx) throws IOException, InterruptedException {
         int stripe = Math.abs(hashFP(fp) % stripes.length);
-        synchronized (locks[stripe]) {
-            if (stripes[stripe] == null) {
+        Lock writeLock = locks[stripe].writeLock();
+        writeLock.lock();
+        try {
+            refresh(stripe);
+            return stripeTx.tx(fp, stripesChunkCaches[stripe], stripes[stripe]);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * A tx that shares its stripe with other read txs. It must only read, and only through the filer's positional reads or duplicates since the
+     * stripe's file pointer is shared. Of the ChunkCache it may only look chunks up (contains, isAcquired and cachedPower) and acquire or
+     * release them through acquireIfPresent and releaseIfNotLast.
+     */
+    public <R> R readTx(long fp, StripeTx<R> stripeTx) throws IOException, InterruptedException {
+        int stripe = Math.abs(hashFP(fp) % stripes.length);
+        ReentrantReadWriteLock lock = locks[stripe];
+        lock.readLock().lock();
+        try {
+            if (isStale(stripe)) {
+                lock.readLock().unlock();
+                lock.writeLock().lock();
+                try {
+                    refresh(stripe);
+                } finally {
+                    lock.readLock().lock(); // downgrade
+                    lock.writeLock().unlock();
+                }
+            }
+            return stripeTx.tx(fp, stripesChunkCaches[stripe], stripes[stripe]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean isStale(int stripe) {
+        return stripesChunkCaches[stripe] == null || stripes[stripe] == null || rootLength > stripesRootLength[stripe];
+    }
+
+    /**
+     * Under the stripe's write lock.
+     */
+    private void refresh(int stripe) throws IOException {
+        if (stripesChunkCaches[stripe] == null) {
+            stripesChunkCaches[stripe] = new ChunkCache(join(name, FilerIO.intBytes(stripe)), bufferFactory,
+                maxCachedChunksPerStripe, maxCachedBytesPerStripe);
+        }
+        if (stripes[stripe] == null) {
+            synchronized (root) {
                 stripes[stripe] = root.duplicateAll();
-                stripesChunkCaches[stripe] = new ChunkCache(join(name, FilerIO.intBytes(stripe)), bufferFactory);
-            } else if (root.length() > stripes[stripe].length()) {
+                stripesRootLength[stripe] = root.length();
+            }
+        } else if (rootLength > stripesRootLength[stripe]) {
+            synchronized (root) {
                 stripes[stripe] = root.duplicateNew(stripes[stripe]);
+                stripesRootLength[stripe] = root.length();
+            }
+        }
+    }
+
+    /**
+     * Gives back the root's segments past the length returned by newLengthTx, which runs under the root lock so nothing can grow in between.
+     * Every stripe is locked and dropped so none keeps a duplicate of a released segment; the caller guarantees nothing past the new length
+     * is in use.
+     */
+    public void truncate(StripeTx<Long> newLengthTx) throws IOException, InterruptedException {
+        truncate(0, newLengthTx);
+    }
+
+    private void truncate(int stripe, StripeTx<Long> newLengthTx) throws IOException, InterruptedException {
+        if (stripe < locks.length) {
+            Lock writeLock = locks[stripe].writeLock();
+            writeLock.lock();
+            try {
+                truncate(stripe + 1, newLengthTx);
+                stripes[stripe] = null;
+            } finally {
+                writeLock.unlock();
+            }
+        } else {
+            synchronized (root) {
+                root.truncate(newLengthTx.tx(-1L, null, root));
+                rootLength = root.length();
             }
-            return stripeTx.tx(fp, stripesChunkCaches[stripe], stripes[stripe]);
         }
     }
 
     public static interface StripeTx<R> {
 
-        R tx(long fp, ChunkCache chunkCache, AutoGrowingByteBufferBackedFiler filer) throws IOException, InterruptedException;
+        R tx(long fp, ChunkCache chunkCache, DuplicableFiler filer) throws IOException, InterruptedException;
     }
 
     static byte[] join(byte[] array1, byte[] array2) {
@@ -1,5 +1,8 @@
 package com.jivesoftware.os.filer.io.map;
 
+import com.jivesoftware.os.filer.io.KeyHasher;
+import com.jivesoftware.os.filer.io.KeyHashers;
+
 /**
  * @author jonathan
  */
@@ -13,9 +16,27 @@ public class MapContext {
     public final int maxCount; // read only
     public final int entrySize; // read only
     public final byte version; // read only
+    public final KeyHasher keyHasher; // read only
+    final int headerSize; // read only
+    final int entryHeaderSize; // read only
     transient long count;
     transient long requested;
 
+    /**
+     * A context whose keys are hashed with KeyHashers.LCG, as every map was before the hasher became configurable.
+     */
+    public MapContext(int keySize,
+        byte keyLengthSize,
+        int payloadSize,
+        byte payloadLengthSize,
+        int capacity,
+        int maxCount,
+        int entrySize,
+        byte version,
+        long count) {
+        this(keySize, keyLengthSize, payloadSize, payloadLengthSize, capacity, maxCount, entrySize, version, KeyHashers.LCG, count);
+    }
+
     public MapContext(int keySize,
         byte keyLengthSize,
         int payloadSize,
@@ -24,6 +45,7 @@ public class MapContext {
         int maxCount,
         int entrySize,
         byte version,
+        KeyHasher keyHasher,
         long count) {
         this.keySize = keySize;
         this.keyLengthSize = keyLengthSize;
@@ -33,6 +55,9 @@ public class MapContext {
         this.maxCount = maxCount;
         this.entrySize = entrySize;
         this.version = version;
+        this.keyHasher = keyHasher;
+        this.headerSize = MapStore.headerSize(version);
+        this.entryHeaderSize = MapStore.entryHeaderSize(version);
         this.count = count;
         this.requested = 0;
         if (keySize == 0 || capacity == 0 || maxCount == 0 || entrySize == 0) {
@@ -53,6 +78,7 @@ public class MapContext {
             + ", maxCount=" + maxCount
             + ", entrySize=" + entrySize
             + ", version=" + version
+            + ", keyHasher=" + keyHasher
             + ", count=" + count + '}';
     }
 
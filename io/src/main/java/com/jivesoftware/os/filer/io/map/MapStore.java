@@ -1,14 +1,28 @@
 package com.jivesoftware.os.filer.io.map;
 
+import com.jivesoftware.os.filer.io.AutoGrowingByteBufferBackedFiler;
 import com.jivesoftware.os.filer.io.Filer;
+import com.jivesoftware.os.filer.io.KeyHasher;
+import com.jivesoftware.os.filer.io.KeyHashers;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * this is a key+payload set that is backed buy a byte array. It is a fixed size set. It will not grow or shrink. You need to be aware and expect that your
  * system will cause the set to throw OverCapacityExceptions. The goal is to create a collection which will context to and from disk or net as fast as possible.
  * Nothing is synchronized to make it thread safe you need to synchronize higher up.
+ * <p>
+ * Version 5 maps use robin hood insertion and backward shift deletion so there are no tombstones and no lookup probes further than
+ * cMaxProbeDistance. Entries move when neighbours are added or removed, so callers which keep state aligned to set indexes must pass a
+ * MoveStream. Version 4 maps use plain linear probing with tombstones and never move an entry which is what SkipListMapStore requires because
+ * its columns point at set indexes. Maps older than the current version are still readable and writable but acquire() will refuse them so the
+ * growers copy (rehash) them into a current version map. Version 6 is version 5 plus a 7 bit hash tag per slot which lets probes skip slots
+ * holding other keys without reading their key bytes, worth the extra byte when keys are long. Version 5 and up record which KeyHasher they
+ * were written with in the header; older maps always used the LCG hash.
  *
  * @author jonathan
  */
@@ -17,7 +31,9 @@ public class MapStore {
     public static final MapStore INSTANCE = new MapStore();
 
     public static final byte cVariableSized = 1;
-    public static final byte cMapVersion = 4;
+    public static final byte cMapVersion = 5;
+    public static final byte cStableIndexMapVersion = 4;
+    public static final byte cHashTagMapVersion = 6;
 
     private static final int cCountSize = 4;
     private static final int cMaxCountSize = 4;
@@ -35,26 +51,51 @@ public class MapStore {
     private static final int cKeySizeVariableOffset = cKeySizeOffset + cKeySizeSize;
     private static final int cPayloadSizeOffset = cKeySizeVariableOffset + cVariableSized;
     private static final int cPayloadSizeVariableOffset = cPayloadSizeOffset + cPayloadSize;
+    private static final int cKeyHasherOffset = cPayloadSizeVariableOffset + cVariableSized; // robin hood maps only
 
     private static final double cSetDensity = 0.6d;
     static final byte cSkip = -1;
     static final byte cNull = 0;
+    static final int cMaxProbeDistance = 255; // stored as an unsigned byte after the mode byte
+    private static final int cStreamBatchSize = 1_024; // home indexes read per hold of the lock while streaming
+    static final KeyHasher cDefaultKeyHasher = KeyHashers.XX_HASH_64;
+    static final int cMaxCount = (int) (Integer.MAX_VALUE / (2 - cSetDensity)); // the most keys whose capacity still fits the 4 byte header
 
     private MapStore() {
     }
 
-    long cost(int _maxKeys, int _keySize, int _payloadSize) {
+    static int headerSize(byte version) {
+        return version < cMapVersion ? cHeaderSize : cHeaderSize + 1;
+    }
+
+    static int entryHeaderSize(byte version) {
+        // 1+ for head of entry status byte. 0 and -1 reserved. robin hood maps add 1 for the probe distance and hash tag maps 1 for the tag
+        if (version < cMapVersion) {
+            return 1;
+        }
+        return version < cHashTagMapVersion ? 2 : 3;
+    }
+
+    /**
+     * 7 bits of the hash the home slot isn't derived from so a slot holding a different key can usually be rejected without reading its key.
+     */
+    static byte hashTag(long keyHash) {
+        return (byte) (keyHash >>> 56); // hashes are never negative so this is 0..127
+    }
+
+    long cost(int _maxKeys, int _keySize, int _payloadSize, byte version) {
         int maxCapacity = calculateCapacity(_maxKeys);
-        // 1+ for head of entry status byte. 0 and -1 reserved
-        long entrySize = 1 + _keySize + _payloadSize;
-        return cHeaderSize + (entrySize * maxCapacity);
+        long entrySize = entryHeaderSize(version) + _keySize + _payloadSize;
+        return headerSize(version) + (entrySize * maxCapacity);
     }
 
+    /**
+     * Maps are not bound by 2GB of bytes, only by a capacity that fits the header's 4 byte fields and by the longest filer position.
+     */
     public long absoluteMaxCount(int _keySize, int _payloadSize) {
-        // 1+ for head of entry status byte. 0 and -1 reserved
-        int entrySize = 1 + _keySize + _payloadSize;
-        long maxCount = (Integer.MAX_VALUE - cHeaderSize) / entrySize;
-        return (long) (maxCount * cSetDensity);
+        long entrySize = entryHeaderSize(cMapVersion) + _keySize + _payloadSize;
+        long maxCapacity = (AutoGrowingByteBufferBackedFiler.MAX_POSITION - headerSize(cMapVersion)) / entrySize;
+        return Math.min(cMaxCount, (long) (maxCapacity / (2 - cSetDensity)));
     }
 
     public static int calculateCapacity(int maxCount) {
@@ -66,7 +107,8 @@ public class MapStore {
         return computeFilerSize(maxCount, mapContext.keySize,
             mapContext.keyLengthSize > 0,
             mapContext.payloadSize,
-            mapContext.payloadLengthSize > 0);
+            mapContext.payloadLengthSize > 0,
+            (byte) Math.max(mapContext.version, cMapVersion));
     }
 
     public long computeFilerSize(int maxCount,
@@ -74,11 +116,20 @@ public class MapStore {
         boolean variableKeySizes,
         int payloadSize,
         boolean variablePayloadSizes) throws IOException {
+        return computeFilerSize(maxCount, keySize, variableKeySizes, payloadSize, variablePayloadSizes, cMapVersion);
+    }
+
+    public long computeFilerSize(int maxCount,
+        int keySize,
+        boolean variableKeySizes,
+        int payloadSize,
+        boolean variablePayloadSizes,
+        byte version) throws IOException {
 
         byte keyLengthSize = keyLengthSize(variableKeySizes ? keySize : 0);
         byte payloadLengthSize = keyLengthSize(variablePayloadSizes ? payloadSize : 0);
 
-        return cost(maxCount, keyLengthSize + keySize, payloadLengthSize + payloadSize);
+        return cost(maxCount, keyLengthSize + keySize, payloadLengthSize + payloadSize, version);
     }
 
     public MapContext open(Filer filer, StackBuffer stackBuffer) throws IOException {
@@ -96,6 +147,7 @@ public class MapStore {
             getMaxCount(filer, stackBuffer),
             keyLengthSize + keySize + payloadLengthSize + payloadSize,
             version,
+            getKeyHasher(filer, version),
             count);
     }
 
@@ -109,6 +161,8 @@ public class MapStore {
             mapContext.keyLengthSize > 0,
             mapContext.payloadSize,
             mapContext.payloadLengthSize > 0,
+            (byte) Math.max(mapContext.version, cMapVersion),
+            mapContext.version < cMapVersion ? cDefaultKeyHasher : mapContext.keyHasher,
             filer,
             stackBuffer);
     }
@@ -121,13 +175,49 @@ public class MapStore {
         boolean variablePayloadSizes,
         Filer filer,
         StackBuffer stackBuffer) throws IOException {
+        return create(maxCount, keySize, variableKeySizes, payloadSize, variablePayloadSizes, cMapVersion, filer, stackBuffer);
+    }
+
+    public MapContext create(
+        int maxCount,
+        int keySize,
+        boolean variableKeySizes,
+        int payloadSize,
+        boolean variablePayloadSizes,
+        byte version,
+        Filer filer,
+        StackBuffer stackBuffer) throws IOException {
+        return create(maxCount, keySize, variableKeySizes, payloadSize, variablePayloadSizes, version,
+            version < cMapVersion ? KeyHashers.LCG : cDefaultKeyHasher, filer, stackBuffer);
+    }
 
+    /**
+     * @param keyHasher recorded in the header of robin hood maps, version 4 maps only support KeyHashers.LCG
+     */
+    public MapContext create(
+        int maxCount,
+        int keySize,
+        boolean variableKeySizes,
+        int payloadSize,
+        boolean variablePayloadSizes,
+        byte version,
+        KeyHasher keyHasher,
+        Filer filer,
+        StackBuffer stackBuffer) throws IOException {
+
+        if (version < cMapVersion && keyHasher != KeyHashers.LCG) {
+            throw new IllegalArgumentException("Version " + version + " maps have no room to record a key hasher so they must use " + KeyHashers.LCG);
+        }
+        if (version != cMapVersion && version != cStableIndexMapVersion && version != cHashTagMapVersion) {
+            throw new IllegalArgumentException("Only versions " + cStableIndexMapVersion + ", " + cMapVersion + " and " + cHashTagMapVersion
+                + " can be created but asked for " + version);
+        }
         int maxCapacity = calculateCapacity(maxCount);
 
         byte keyLengthSize = keyLengthSize(variableKeySizes ? keySize : 0);
         byte payloadLengthSize = keyLengthSize(variablePayloadSizes ? payloadSize : 0);
 
-        setMapVersion(filer, cMapVersion);
+        setMapVersion(filer, version);
 
         setMaxCount(filer, maxCount, stackBuffer);
         setCapacity(filer, maxCapacity, stackBuffer); // good to use prime
@@ -136,6 +226,9 @@ public class MapStore {
         setKeyLengthSize(filer, keyLengthSize);
         setPayloadSize(filer, payloadSize, stackBuffer);
         setPayloadLengthSize(filer, payloadLengthSize);
+        if (version >= cMapVersion) {
+            write(filer, cKeyHasherOffset, keyHasher.id());
+        }
 
         MapContext context = new MapContext(keySize,
             keyLengthSize,
@@ -144,7 +237,8 @@ public class MapStore {
             maxCapacity,
             maxCount,
             keyLengthSize + keySize + payloadLengthSize + payloadSize,
-            cMapVersion,
+            version,
+            keyHasher,
             0);
         setCount(context, filer, 0, stackBuffer);
         return context;
@@ -183,22 +277,40 @@ public class MapStore {
     }
 
     public int nextGrowSize(MapContext context) throws IOException {
-        return context.maxCount * 2;
+        return nextGrowSize(context, 0);
     }
 
+    /**
+     * Maps older than cMapVersion are refused by acquire so that they get rehashed, not because they are full. While the count still
+     * leaves room for withRoomForNMore they are rehashed into a map of the same maxCount rather than one twice the size.
+     */
     public int nextGrowSize(MapContext context, int withRoomForNMore) throws IOException {
-        int totalRoom = context.maxCount + withRoomForNMore;
-        int size = context.maxCount * 2;
+        if (context.version < cMapVersion && context.count + withRoomForNMore <= context.maxCount) {
+            return context.maxCount;
+        }
+        long totalRoom = (long) context.maxCount + withRoomForNMore;
+        if (totalRoom > cMaxCount) {
+            throw new IllegalStateException("Cannot grow a map of maxCount:" + context.maxCount + " by " + withRoomForNMore
+                + " beyond the largest maxCount:" + cMaxCount);
+        }
+        long size = context.maxCount * 2L;
         while (size < totalRoom) {
             size *= 2;
         }
-        return size;
+        return (int) Math.min(size, cMaxCount);
     }
 
     public boolean acquire(MapContext context, int n) {
+        return acquire(context, n, MapStore.cMapVersion);
+    }
+
+    /**
+     * @param minVersion maps older than this are refused so that the caller grows them into a new map, which is how old layouts get rehashed.
+     */
+    public boolean acquire(MapContext context, int n, byte minVersion) {
         context.requested += n;
         //System.out.println("requested: " + context.requested + " max:" + context.maxCount + " count:" + context.count);
-        if (context.version < MapStore.cMapVersion) {
+        if (context.version < minVersion) {
             return false;
         }
         return (context.requested <= (context.maxCount - context.count));
@@ -253,6 +365,10 @@ public class MapStore {
         writeInt(filer, cPayloadSizeOffset, v, stackBuffer);
     }
 
+    public KeyHasher getKeyHasher(Filer filer, byte version) throws IOException {
+        return version < cMapVersion ? KeyHashers.LCG : KeyHashers.fromId(read(filer, cKeyHasherOffset));
+    }
+
     public byte getPayloadLengthSize(Filer filer) throws IOException {
         return read(filer, cPayloadSizeVariableOffset);
     }
@@ -261,26 +377,58 @@ public class MapStore {
         write(filer, cPayloadSizeVariableOffset, v);
     }
 
+    /**
+     * Stable index (version 4) layout only. Use index(long, MapContext) for everything else.
+     */
     long index(long _arrayIndex, int entrySize) {
         return cHeaderSize + (1 + entrySize) * _arrayIndex;
     }
 
+    long index(long _arrayIndex, MapContext context) {
+        return context.headerSize + (context.entryHeaderSize + context.entrySize) * _arrayIndex;
+    }
+
     public long add(Filer filer, MapContext context, byte mode, byte[] key, byte[] payload, StackBuffer stackBuffer) throws IOException {
-        return add(filer, context, mode, key, 0, payload, 0, stackBuffer);
+        return add(filer, context, mode, key, 0, payload, 0, null, stackBuffer);
+    }
+
+    public long add(Filer filer, MapContext context, byte mode, byte[] key, byte[] payload, MoveStream moveStream, StackBuffer stackBuffer)
+        throws IOException {
+        return add(filer, context, mode, key, 0, payload, 0, moveStream, stackBuffer);
     }
 
     public long add(Filer filer, MapContext context, byte mode, long keyHash, byte[] key, byte[] payload, StackBuffer stackBuffer) throws IOException {
-        return add(filer, context, mode, keyHash, key, 0, payload, 0, stackBuffer);
+        return add(filer, context, mode, keyHash, key, 0, payload, 0, null, stackBuffer);
     }
 
     public long add(Filer filer, MapContext context, byte mode, byte[] key, int keyOffset, byte[] payload, int _payloadOffset, StackBuffer stackBuffer) throws
         IOException {
-        return add(filer, context, mode, hash(key, keyOffset, key.length), key, keyOffset, payload, _payloadOffset, stackBuffer);
+        return add(filer, context, mode, key, keyOffset, payload, _payloadOffset, null, stackBuffer);
+    }
+
+    public long add(Filer filer, MapContext context, byte mode, byte[] key, int keyOffset, byte[] payload, int _payloadOffset, MoveStream moveStream,
+        StackBuffer stackBuffer) throws IOException {
+        return add(filer, context, mode, hash(context, key, keyOffset, key.length), key, keyOffset, payload, _payloadOffset, moveStream,
+            stackBuffer);
     }
 
     public long add(Filer filer, MapContext context, byte mode, long keyHash, byte[] key, int keyOffset, byte[] payload, int _payloadOffset,
         StackBuffer stackBuffer)
         throws IOException {
+        return add(filer, context, mode, keyHash, key, keyOffset, payload, _payloadOffset, null, stackBuffer);
+    }
+
+    /**
+     * @param moveStream told about every existing entry this add relocates, may be null. Only version 5 maps ever relocate entries.
+     * @return the set index the key now lives at or -1 if there was no room
+     */
+    public long add(Filer filer, MapContext context, byte mode, long keyHash, byte[] key, int keyOffset, byte[] payload, int _payloadOffset,
+        MoveStream moveStream,
+        StackBuffer stackBuffer)
+        throws IOException {
+        if (context.version >= cMapVersion) {
+            return robinHoodAdd(filer, context, mode, keyHash, key, keyOffset, payload, _payloadOffset, moveStream, stackBuffer);
+        }
         int capacity = context.capacity;
         int keySize = context.keySize;
         int payloadSize = context.payloadSize;
@@ -288,7 +436,7 @@ public class MapStore {
             j < k; // max search for available slot
             i = (++i) % k, j++) { // wraps around table
 
-            long ai = index(i, context.entrySize);
+            long ai = index(i, context);
             byte currentMode = read(filer, ai);
             if (currentMode == cNull || currentMode == cSkip) {
                 if (context.count >= context.maxCount) {
@@ -301,7 +449,7 @@ public class MapStore {
                 setCount(context, filer, context.count + 1, stackBuffer);
                 return i;
             }
-            if (equals(filer, ai, context.keyLengthSize, key.length, key, keyOffset, stackBuffer)) {
+            if (equals(filer, ai + 1, context.keyLengthSize, key.length, key, keyOffset, stackBuffer)) {
                 write(filer, ai, mode);
                 write(filer, (ai + 1 + context.keyLengthSize + keySize), 0, context.payloadLengthSize, payload, payloadSize, _payloadOffset,
                     stackBuffer);
@@ -311,6 +459,96 @@ public class MapStore {
         return -1;
     }
 
+    private long robinHoodAdd(Filer filer, MapContext context, byte mode, long keyHash, byte[] key, int keyOffset, byte[] payload, int _payloadOffset,
+        MoveStream moveStream,
+        StackBuffer stackBuffer)
+        throws IOException {
+        int capacity = context.capacity;
+        int keySize = context.keySize;
+        int payloadSize = context.payloadSize;
+        int entryHeaderSize = context.entryHeaderSize;
+        boolean hashTagged = entryHeaderSize > 2;
+        byte hashTag = hashTag(keyHash);
+        long i = keyHash % (capacity - 1);
+        int distance = 0;
+        boolean occupied = false;
+        for (; distance < capacity && distance <= cMaxProbeDistance; distance++, i = (i + 1) % capacity) {
+            long ai = index(i, context);
+            byte currentMode = (byte) filer.read(ai);
+            if (currentMode == cNull) {
+                break;
+            }
+            if ((filer.read(ai + 1) & 0xFF) < distance) {
+                occupied = true; // we are further from home than the resident so we take its slot
+                break;
+            }
+            if (hashTagged && (byte) filer.read(ai + 2) != hashTag) {
+                continue;
+            }
+            if (equals(filer, ai + entryHeaderSize, context.keyLengthSize, key.length, key, keyOffset, stackBuffer)) {
+                write(filer, ai, mode);
+                write(filer, (ai + entryHeaderSize + context.keyLengthSize + keySize), 0, context.payloadLengthSize, payload, payloadSize, _payloadOffset,
+                    stackBuffer);
+                return i;
+            }
+        }
+        if (distance == capacity) {
+            return -1;
+        }
+        if (context.count >= context.maxCount) {
+            throw new OverCapacityException(context.count + " > " + context.maxCount + " ? " + context.requested);
+        }
+        if (distance > cMaxProbeDistance) {
+            throw new OverCapacityException("Probe distance " + distance + " > " + cMaxProbeDistance + " for count " + context.count);
+        }
+        if (occupied) {
+            shiftForward(filer, context, i, moveStream, stackBuffer);
+        }
+
+        long ai = index(i, context);
+        write(filer, ai, mode);
+        write(filer, ai + 1, (byte) distance);
+        if (hashTagged) {
+            write(filer, ai + 2, hashTag);
+        }
+        write(filer, (ai + entryHeaderSize), 0, context.keyLengthSize, key, keySize, keyOffset, stackBuffer);
+        write(filer, (ai + entryHeaderSize + context.keyLengthSize + keySize), 0, context.payloadLengthSize, payload, payloadSize, _payloadOffset,
+            stackBuffer);
+        setCount(context, filer, context.count + 1, stackBuffer);
+        return i;
+    }
+
+    /**
+     * Moves the run of entries starting at index one slot further from home to open up index. Keeping the run in home order is all robin hood needs.
+     */
+    private void shiftForward(Filer filer, MapContext context, long index, MoveStream moveStream, StackBuffer stackBuffer) throws IOException {
+        int capacity = context.capacity;
+        long end = index;
+        while (true) {
+            long ai = index(end, context);
+            if ((byte) filer.read(ai) == cNull) {
+                break;
+            }
+            if ((filer.read(ai + 1) & 0xFF) + 1 > cMaxProbeDistance) {
+                throw new OverCapacityException("Probe distance would exceed " + cMaxProbeDistance + " for count " + context.count);
+            }
+            end = (end + 1) % capacity;
+        }
+
+        int slotLength = context.entryHeaderSize + context.entrySize;
+        byte[] slot = stackBuffer.slotBuffer(slotLength);
+        for (long to = end; to != index; ) {
+            long from = (to == 0 ? capacity : to) - 1;
+            read(filer, index(from, context), slot, 0, slotLength);
+            slot[1]++;
+            write(filer, index(to, context), slot, 0, slotLength);
+            if (moveStream != null) {
+                moveStream.moved(from, to);
+            }
+            to = from;
+        }
+    }
+
     private void write(Filer filer, long offset, int destOffset, int length, byte[] key, int size, int keyOffset, StackBuffer stackBuffer) throws IOException {
 
         if (length == 0) {
@@ -335,12 +573,15 @@ public class MapStore {
         return get(filer, context, _key, stackBuffer) != -1;
     }
 
+    /**
+     * Stable index (version 4) layout only.
+     */
     public long startOfKey(long setIndex, int entrySize) {
         return (index(setIndex, entrySize) + 1); //  +1 to skip mode
     }
 
     public byte[] getKeyAtIndex(Filer filer, MapContext context, long i, StackBuffer stackBuffer) throws IOException {
-        long ai = index(i, context.entrySize);
+        long ai = index(i, context);
         byte mode = read(filer, ai);
         if (mode == cSkip || mode == cNull) {
             return null;
@@ -348,6 +589,21 @@ public class MapStore {
         return getKey(filer, context, i, stackBuffer);
     }
 
+    /**
+     * @return the key length or -1 if nothing lives at i
+     */
+    public int getKeyAtIndex(Filer filer, MapContext context, long i, byte[] key, int keyOffset, StackBuffer stackBuffer) throws IOException {
+        long ai = index(i, context);
+        byte mode = read(filer, ai);
+        if (mode == cSkip || mode == cNull) {
+            return -1;
+        }
+        return getKey(filer, context, i, key, keyOffset, stackBuffer);
+    }
+
+    /**
+     * Stable index (version 4) layout only.
+     */
     public long startOfPayload(long setIndex, int entrySize, int keyLength, int keySize) {
         long ai = index(setIndex, entrySize);
         return (ai + 1 + keyLength + keySize);
@@ -357,7 +613,7 @@ public class MapStore {
         if (i < 0 || i >= context.capacity) {
             throw new RuntimeException("Requested index (" + i + ") is out of bounds (0->" + (getCapacity(filer, stackBuffer) - 1) + ")");
         }
-        long ai = index(i, context.entrySize);
+        long ai = index(i, context);
         byte mode = read(filer, ai);
         if (mode == cSkip || mode == cNull) {
             return null;
@@ -365,17 +621,32 @@ public class MapStore {
         return getPayload(filer, context, i, stackBuffer);
     }
 
+    /**
+     * @return the payload length or -1 if nothing lives at i
+     */
+    public int getPayloadAtIndex(Filer filer, MapContext context, int i, byte[] payload, int payloadOffset, StackBuffer stackBuffer) throws IOException {
+        if (i < 0 || i >= context.capacity) {
+            throw new RuntimeException("Requested index (" + i + ") is out of bounds (0->" + (getCapacity(filer, stackBuffer) - 1) + ")");
+        }
+        long ai = index(i, context);
+        byte mode = read(filer, ai);
+        if (mode == cSkip || mode == cNull) {
+            return -1;
+        }
+        return getPayload(filer, context, i, payload, payloadOffset, stackBuffer);
+    }
+
     public void setPayloadAtIndex(Filer filer, MapContext context, long i, int _destOffset, byte[] payload, int _poffset, int _plength, StackBuffer stackBuffer)
         throws IOException {
         if (i < 0 || i >= context.capacity) {
             throw new RuntimeException("Requested index (" + i + ") is out of bounds (0->" + (getCapacity(filer, stackBuffer) - 1) + ")");
         }
-        long ai = index(i, context.entrySize);
+        long ai = index(i, context);
         byte mode = read(filer, ai);
         if (mode == cSkip || mode == cNull) {
             return;
         }
-        long offset = (ai + 1 + context.keyLengthSize + context.keySize);
+        long offset = (ai + context.entryHeaderSize + context.keyLengthSize + context.keySize);
         write(filer, offset, _destOffset, context.payloadLengthSize, payload, context.payloadSize, _poffset, stackBuffer);
     }
 
@@ -398,20 +669,22 @@ public class MapStore {
     }
 
     public long get(Filer filer, MapContext context, byte[] key, int keyOffset, StackBuffer stackBuffer) throws IOException {
-        return get(filer, context, hash(key, keyOffset, key.length), key, keyOffset, stackBuffer);
+        return get(filer, context, hash(context, key, keyOffset, key.length), key, keyOffset, stackBuffer);
     }
 
     public long get(Filer filer, MapContext context, long keyHash, byte[] key, int keyOffset, StackBuffer stackBuffer) throws IOException {
         if (key == null || key.length == 0) {
             return -1;
         }
-        int entrySize = context.entrySize;
+        if (context.version >= cMapVersion) {
+            return robinHoodGet(filer, context, keyHash, key, keyOffset, stackBuffer);
+        }
         int capacity = context.capacity;
         for (long i = keyHash % (capacity - 1), j = 0, k = capacity; // stack vars for efficiency
             j < k; // max search for key
             i = (++i) % k, j++) { // wraps around table
 
-            long ai = index(i, entrySize);
+            long ai = index(i, context);
             byte mode = read(filer, ai);
             if (mode == cSkip) {
                 continue;
@@ -419,7 +692,32 @@ public class MapStore {
             if (mode == cNull) {
                 return -1;
             }
-            if (equals(filer, ai, context.keyLengthSize, key.length, key, keyOffset, stackBuffer)) {
+            if (equals(filer, ai + 1, context.keyLengthSize, key.length, key, keyOffset, stackBuffer)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private long robinHoodGet(Filer filer, MapContext context, long keyHash, byte[] key, int keyOffset, StackBuffer stackBuffer) throws IOException {
+        int capacity = context.capacity;
+        int maxDistance = Math.min(capacity - 1, cMaxProbeDistance);
+        int entryHeaderSize = context.entryHeaderSize;
+        boolean hashTagged = entryHeaderSize > 2;
+        byte hashTag = hashTag(keyHash);
+        long i = keyHash % (capacity - 1);
+        for (int distance = 0; distance <= maxDistance; distance++, i = (i + 1) % capacity) {
+            long ai = index(i, context);
+            if ((byte) filer.read(ai) == cNull) {
+                return -1;
+            }
+            if ((filer.read(ai + 1) & 0xFF) < distance) {
+                return -1; // had the key been here it would have displaced this entry
+            }
+            if (hashTagged && (byte) filer.read(ai + 2) != hashTag) {
+                continue;
+            }
+            if (equals(filer, ai + entryHeaderSize, context.keyLengthSize, key.length, key, keyOffset, stackBuffer)) {
                 return i;
             }
         }
@@ -427,18 +725,30 @@ public class MapStore {
     }
 
     public byte getMode(Filer filer, MapContext context, long i) throws IOException {
-        long ai = index(i, context.entrySize);
+        long ai = index(i, context);
         return read(filer, ai);
     }
 
     public byte[] getKey(Filer filer, MapContext context, long i, StackBuffer stackBuffer) throws IOException {
-        long ai = index(i, context.entrySize);
-        int length = length(filer, context.keyLengthSize, context.keySize, ai + 1, stackBuffer);
+        long ai = index(i, context) + context.entryHeaderSize;
+        int length = length(filer, context.keyLengthSize, context.keySize, ai, stackBuffer);
         byte[] k = new byte[length];
-        read(filer, ai + 1 + context.keyLengthSize, k, 0, length);
+        read(filer, ai + context.keyLengthSize, k, 0, length);
         return k;
     }
 
+    /**
+     * Copies the key at i into key which must have room for it.
+     *
+     * @return the key length
+     */
+    public int getKey(Filer filer, MapContext context, long i, byte[] key, int keyOffset, StackBuffer stackBuffer) throws IOException {
+        long ai = index(i, context) + context.entryHeaderSize;
+        int length = length(filer, context.keyLengthSize, context.keySize, ai, stackBuffer);
+        read(filer, ai + context.keyLengthSize, key, keyOffset, length);
+        return length;
+    }
+
     private int length(Filer filer, byte lengthSize, int size, long i, StackBuffer stackBuffer) throws IOException {
         if (lengthSize == 0) {
             return size;
@@ -452,14 +762,34 @@ public class MapStore {
     }
 
     public byte[] getPayload(Filer filer, MapContext context, long i, StackBuffer stackBuffer) throws IOException {
-        long ai = index(i, context.entrySize);
-        long offest = ai + 1 + context.keyLengthSize + context.keySize;
+        long ai = index(i, context);
+        long offest = ai + context.entryHeaderSize + context.keyLengthSize + context.keySize;
         int length = length(filer, context.payloadLengthSize, context.payloadSize, offest, stackBuffer);
         byte[] p = new byte[length];
         read(filer, offest + context.payloadLengthSize, p, 0, length);
         return p;
     }
 
+    /**
+     * Copies the payload at i into payload which must have room for it.
+     *
+     * @return the payload length
+     */
+    public int getPayload(Filer filer, MapContext context, long i, byte[] payload, int payloadOffset, StackBuffer stackBuffer) throws IOException {
+        long offset = index(i, context) + context.entryHeaderSize + context.keyLengthSize + context.keySize;
+        int length = length(filer, context.payloadLengthSize, context.payloadSize, offset, stackBuffer);
+        read(filer, offset + context.payloadLengthSize, payload, payloadOffset, length);
+        return length;
+    }
+
+    /**
+     * For maps whose payload is a long written with FilerIO.longBytes.
+     */
+    public long getPayloadLong(Filer filer, MapContext context, long i, StackBuffer stackBuffer) throws IOException {
+        long offset = index(i, context) + context.entryHeaderSize + context.keyLengthSize + context.keySize;
+        return readLong(filer, offset + context.payloadLengthSize, stackBuffer);
+    }
+
     public long remove(Filer filer, MapContext context, byte[] key, StackBuffer stackBuffer) throws IOException {
         return remove(filer, context, key, 0, stackBuffer);
     }
@@ -469,45 +799,75 @@ public class MapStore {
     }
 
     public long remove(Filer filer, MapContext context, byte[] key, int keyOffset, StackBuffer stackBuffer) throws IOException {
-        return remove(filer, context, hash(key, 0, key.length), key, keyOffset, stackBuffer);
+        return remove(filer, context, hash(context, key, 0, key.length), key, keyOffset, stackBuffer);
     }
 
     public long remove(Filer filer, MapContext context, long keyHash, byte[] key, int keyOffset, StackBuffer stackBuffer) throws IOException {
-        if (key == null || key.length == 0) {
-            return -1;
+        return remove(filer, context, keyHash, key, keyOffset, null, stackBuffer);
+    }
+
+    public long remove(Filer filer, MapContext context, byte[] key, MoveStream moveStream, StackBuffer stackBuffer) throws IOException {
+        return remove(filer, context, hash(context, key, 0, key.length), key, 0, moveStream, stackBuffer);
+    }
+
+    /**
+     * @param moveStream told about every entry this remove relocates, may be null. The removed index is vacated before any moves are reported.
+     * @return the set index the key was removed from or -1 if it was absent
+     */
+    public long remove(Filer filer, MapContext context, long keyHash, byte[] key, int keyOffset, MoveStream moveStream, StackBuffer stackBuffer)
+        throws IOException {
+        long i = get(filer, context, keyHash, key, keyOffset, stackBuffer);
+        if (i != -1) {
+            removeAtIndex(filer, context, i, moveStream, stackBuffer);
         }
-        int capacity = context.capacity;
-        int entrySize = context.entrySize;
-        for (long i = keyHash % (capacity - 1), j = 0, k = capacity; // stack vars for efficiency
-            j < k; // max search for key
-            i = (++i) % k, j++) { // wraps around table
+        return i;
+    }
 
-            long ai = index(i, context.entrySize);
-            byte mode = read(filer, ai);
-            if (mode == cSkip) {
-                continue;
-            }
-            if (mode == cNull) {
-                return -1;
+    /**
+     * Removes whatever lives at the given set index. Handy when the caller already did a get() and needs the index before it gets reused.
+     */
+    public boolean removeAtIndex(Filer filer, MapContext context, long i, MoveStream moveStream, StackBuffer stackBuffer) throws IOException {
+        int capacity = context.capacity;
+        byte mode = read(filer, index(i, context));
+        if (mode == cNull || mode == cSkip) {
+            return false;
+        }
+        if (context.version >= cMapVersion) {
+            // backward shift every following entry which isn't already home
+            int slotLength = context.entryHeaderSize + context.entrySize;
+            byte[] slot = stackBuffer.slotBuffer(slotLength);
+            long to = i;
+            while (true) {
+                long from = (to + 1) % capacity;
+                long ai = index(from, context);
+                if ((byte) filer.read(ai) == cNull || filer.read(ai + 1) == 0) {
+                    break;
+                }
+                read(filer, ai, slot, 0, slotLength);
+                slot[1]--;
+                write(filer, index(to, context), slot, 0, slotLength);
+                if (moveStream != null) {
+                    moveStream.moved(from, to);
+                }
+                to = from;
             }
-            if (equals(filer, ai, context.keyLengthSize, key.length, key, keyOffset, stackBuffer)) {
-                long next = (i + 1) % k;
-                if (read(filer, index(next, entrySize)) == cNull) {
-                    for (long z = i; z >= 0; z--) {
-                        if (read(filer, index(z, entrySize)) != cSkip) {
-                            break;
-                        }
-                        write(filer, index(z, entrySize), cNull);
+            write(filer, index(to, context), cNull);
+        } else {
+            long next = (i + 1) % capacity;
+            if (read(filer, index(next, context)) == cNull) {
+                for (long z = i; z >= 0; z--) {
+                    if (read(filer, index(z, context)) != cSkip) {
+                        break;
                     }
-                    write(filer, index(i, entrySize), cNull);
-                } else {
-                    write(filer, index(i, entrySize), cSkip);
+                    write(filer, index(z, context), cNull);
                 }
-                setCount(context, filer, context.count - 1, stackBuffer);
-                return i;
+                write(filer, index(i, context), cNull);
+            } else {
+                write(filer, index(i, context), cSkip);
             }
         }
-        return -1;
+        setCount(context, filer, context.count - 1, stackBuffer);
+        return true;
     }
 
     public <E extends Exception> void get(Filer filer, MapContext context, IndexStream<E> _callback) {
@@ -515,7 +875,7 @@ public class MapStore {
             int capacity = context.capacity;
             long count = context.count;
             for (int i = 0; i < capacity; i++) {
-                long ai = index(i, context.entrySize);
+                long ai = index(i, context);
                 if (read(filer, ai) == cNull) {
                     continue;
                 }
@@ -562,8 +922,21 @@ public class MapStore {
             throw new RuntimeException("Insufficient room " + tmaxCount + " vs " + fcount);
         }
 
+        // robin hood adds can relocate entries we already copied so only report where everything landed once we are done
+        int[] fromIndexes = null;
+        MoveStream moveStream = null;
+        if (stream != null && toContext.version >= cMapVersion) {
+            int[] _fromIndexes = new int[toContext.capacity];
+            Arrays.fill(_fromIndexes, -1);
+            moveStream = (from, to) -> {
+                _fromIndexes[(int) to] = _fromIndexes[(int) from];
+                _fromIndexes[(int) from] = -1;
+            };
+            fromIndexes = _fromIndexes;
+        }
+
         for (int fromIndex = 0; fromIndex < fcapacity; fromIndex++) {
-            long ai = index(fromIndex, fromContext.entrySize);
+            long ai = index(fromIndex, fromContext);
             byte mode = read(fromFiler, ai);
             if (mode == cNull) {
                 continue;
@@ -574,9 +947,11 @@ public class MapStore {
             fcount--;
             byte[] key = getKey(fromFiler, fromContext, fromIndex, stackBuffer);
             byte[] payload = getPayload(fromFiler, fromContext, fromIndex, stackBuffer);
-            long toIndex = add(toFiler, toContext, mode, key, payload, stackBuffer);
+            long toIndex = add(toFiler, toContext, mode, key, payload, moveStream, stackBuffer);
 
-            if (stream != null) {
+            if (fromIndexes != null) {
+                fromIndexes[(int) toIndex] = fromIndex;
+            } else if (stream != null) {
                 stream.copied(fromIndex, toIndex);
             }
 
@@ -584,6 +959,14 @@ public class MapStore {
                 break;
             }
         }
+
+        if (fromIndexes != null) {
+            for (int toIndex = 0; toIndex < fromIndexes.length; toIndex++) {
+                if (fromIndexes[toIndex] != -1) {
+                    stream.copied(fromIndexes[toIndex], toIndex);
+                }
+            }
+        }
     }
 
     public interface CopyToStream {
@@ -591,11 +974,20 @@ public class MapStore {
         void copied(long fromIndex, long toIndex);
     }
 
+    /**
+     * Applying {@code aligned[toIndex] = aligned[fromIndex]; aligned[fromIndex] = null} in the order moves are reported keeps an index aligned array
+     * in step with the map.
+     */
+    public interface MoveStream {
+
+        void moved(long fromIndex, long toIndex);
+    }
+
     public void toSysOut(Filer filer, MapContext context, StackBuffer stackBuffer) throws IOException {
         try {
             int capacity = context.capacity;
             for (int i = 0; i < capacity; i++) {
-                long ai = index(i, context.entrySize);
+                long ai = index(i, context);
                 if (read(filer, ai) == cNull) {
                     System.out.println("\t" + i + "): null");
                     continue;
@@ -612,56 +1004,136 @@ public class MapStore {
         }
     }
 
+    /**
+     * The hash version 4 maps use. Callers that precompute a keyHash should use hash(MapContext, ...) so it matches the map's KeyHasher.
+     */
     public long hash(byte[] _key, int _start, int _length) {
-        long hash = 0;
-        long randMult = 0x5_DEEC_E66DL;
-        long randAdd = 0xBL;
-        long randMask = (1L << 48) - 1;
-        long seed = _length;
-        for (int i = 0; i < _length; i++) {
-            long x = (seed * randMult + randAdd) & randMask;
-            seed = x;
-            hash += (_key[_start + i] + 128) * x;
-        }
+        return KeyHashers.LCG.hash(_key, _start, _length);
+    }
+
+    public long hash(MapContext context, byte[] _key, int _start, int _length) {
+        long hash = context.keyHasher.hash(_key, _start, _length);
         return hash == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(hash);
     }
 
     public boolean stream(final Filer filer, final MapContext context, final Object lock, EntryStream stream, StackBuffer stackBuffer) throws IOException,
         InterruptedException {
-        for (int index = 0; index < context.capacity; index++) {
-            byte[] key;
-            byte[] payload = null;
-            synchronized (lock) {
-                key = getKeyAtIndex(filer, context, index, stackBuffer);
-                if (key != null) {
-                    payload = getPayloadAtIndex(filer, context, index, stackBuffer);
-                }
-            }
-            if (payload != null) {
-                if (!stream.stream(new Entry(key, payload, index))) {
+        return stream(filer, context, lock, index -> null, (entry, value) -> stream.stream(entry), stackBuffer);
+    }
+
+    /**
+     * Streams the entries a batch of home indexes at a time. Each batch is read under a single hold of the lock and streamed once it is released.
+     * Entries only ever move within the run that follows their home index, so every entry that stays in the map for the whole stream is seen
+     * exactly once however the map changes between batches.
+     *
+     * @param values read under the same hold as the entry at the index they are given, for callers that keep values aligned with the map's
+     * indexes
+     */
+    public <V> boolean stream(final Filer filer,
+        final MapContext context,
+        final Object lock,
+        IndexedValues<V> values,
+        ValueEntryStream<V> stream,
+        StackBuffer stackBuffer) throws IOException, InterruptedException {
+        List<Entry> entries = new ArrayList<>();
+        List<V> entryValues = new ArrayList<>();
+        for (int from = 0; from < context.capacity; from += cStreamBatchSize) {
+            int batchFrom = from;
+            int batchTo = (int) Math.min((long) from + cStreamBatchSize, context.capacity);
+            ChunkLocks.<Void, IOException, RuntimeException>read(lock, () -> {
+                streamBatch(filer, context, batchFrom, batchTo, index -> {
+                    byte[] key = getKeyAtIndex(filer, context, index, stackBuffer);
+                    byte[] payload = getPayloadAtIndex(filer, context, index, stackBuffer);
+                    if (key != null && payload != null) {
+                        entries.add(new Entry(key, payload, index));
+                        entryValues.add(values.get(index));
+                    }
+                });
+                return null;
+            });
+            for (int i = 0; i < entries.size(); i++) {
+                if (!stream.stream(entries.get(i), entryValues.get(i))) {
                     return false;
                 }
             }
+            entries.clear();
+            entryValues.clear();
         }
         return true;
     }
 
+    /**
+     * Streams the keys in batches the same way stream does.
+     */
     public boolean streamKeys(final Filer filer, final MapContext context, final Object lock, KeyStream stream, StackBuffer stackBuffer) throws IOException,
         InterruptedException {
-        for (int index = 0; index < context.capacity; index++) {
-            byte[] key;
-            synchronized (lock) {
-                key = getKeyAtIndex(filer, context, index, stackBuffer);
-            }
-            if (key != null) {
+        List<byte[]> keys = new ArrayList<>();
+        for (int from = 0; from < context.capacity; from += cStreamBatchSize) {
+            int batchFrom = from;
+            int batchTo = (int) Math.min((long) from + cStreamBatchSize, context.capacity);
+            ChunkLocks.<Void, IOException, RuntimeException>read(lock, () -> {
+                streamBatch(filer, context, batchFrom, batchTo, index -> {
+                    byte[] key = getKeyAtIndex(filer, context, index, stackBuffer);
+                    if (key != null) {
+                        keys.add(key);
+                    }
+                });
+                return null;
+            });
+            for (byte[] key : keys) {
                 if (!stream.stream(key)) {
                     return false;
                 }
             }
+            keys.clear();
         }
         return true;
     }
 
+    /**
+     * Visits the index of every entry whose home index is from (inclusive) to (exclusive).
+     */
+    private void streamBatch(Filer filer, MapContext context, int from, int to, IndexVisitor visitor) throws IOException {
+        if (context.version < cMapVersion) {
+            // version 4 entries never move so their home is wherever they are
+            for (int i = from; i < to; i++) {
+                byte mode = read(filer, index(i, context));
+                if (mode != cNull && mode != cSkip) {
+                    visitor.visit(i);
+                }
+            }
+            return;
+        }
+        int capacity = context.capacity;
+        for (long position = from; position < (long) from + capacity; position++) {
+            int i = (int) (position % capacity);
+            long ai = index(i, context);
+            boolean empty = (byte) filer.read(ai) == cNull;
+            long home = empty ? position : position - (filer.read(ai + 1) & 0xFF);
+            if (home >= to) {
+                break; // runs are kept in home order so nothing further along belongs to this batch
+            }
+            if (!empty && home >= from) {
+                visitor.visit(i);
+            }
+        }
+    }
+
+    private interface IndexVisitor {
+
+        void visit(int index) throws IOException;
+    }
+
+    public interface IndexedValues<V> {
+
+        V get(int index);
+    }
+
+    public interface ValueEntryStream<V> {
+
+        boolean stream(Entry entry, V value) throws IOException, InterruptedException;
+    }
+
     public interface EntryStream {
 
         boolean stream(Entry entry) throws IOException, InterruptedException;
@@ -686,7 +1158,6 @@ public class MapStore {
     }
 
     private boolean equals(Filer filer, long start, int keyLength, int keySize, byte[] b, int boffset, StackBuffer stackBuffer) throws IOException {
-        start++; // remove mode byte
         if (keyLength == 0) {
         } else if (keyLength == 1) {
             if (read(filer, start) != keySize) {
@@ -706,146 +1177,72 @@ public class MapStore {
         } else {
             throw new RuntimeException("Unsupported keylength=" + keyLength);
         }
-        byte[] currentKey = new byte[keySize];
-        filer.seek(start);
-        filer.read(currentKey);
-        for (int i = 0; i < keySize; i++) {
-            if (currentKey[i] != b[boffset + i]) {
-                return false;
+        byte[] currentKey = stackBuffer.primitiveBuffer;
+        for (int i = 0; i < keySize; i += currentKey.length) {
+            int length = Math.min(currentKey.length, keySize - i);
+            filer.read(start + i, currentKey, 0, length);
+            for (int j = 0; j < length; j++) {
+                if (currentKey[j] != b[boffset + i + j]) {
+                    return false;
+                }
             }
         }
         return true;
     }
 
     byte read(Filer filer, long start) throws IOException {
-        filer.seek(start);
-        return (byte) filer.read();
+        return (byte) filer.read(start);
     }
 
     void write(Filer filer, long start, byte v) throws IOException {
-        filer.seek(start);
-        filer.write(v);
+        filer.write(start, v);
     }
 
     int readShort(Filer filer, long start, StackBuffer stackBuffer) throws IOException {
-        filer.seek(start);
-        byte[] bytes = new byte[2];
-        filer.read(bytes);
-        short v = 0;
-        v |= (bytes[0] & 0xFF);
-        v <<= 8;
-        v |= (bytes[1] & 0xFF);
-        return v;
+        return filer.readShort(start);
     }
 
     int readUnsignedShort(Filer filer, long start, StackBuffer stackBuffer) throws IOException {
-        filer.seek(start);
-        byte[] bytes = new byte[2];
-        filer.read(bytes);
-        int v = 0;
-        v |= (bytes[0] & 0xFF);
-        v <<= 8;
-        v |= (bytes[1] & 0xFF);
-        return v;
+        return filer.readShort(start) & 0xFFFF;
     }
 
     int readInt(Filer filer, long start, StackBuffer stackBuffer) throws IOException {
-        filer.seek(start);
-        filer.read(stackBuffer.primitiveBuffer, 0, 4);
-        int v = 0;
-        v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[1] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[2] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[3] & 0xFF);
-        return v;
+        return filer.readInt(start);
     }
 
     float readFloat(Filer filer, long start, StackBuffer stackBuffer) throws IOException {
-        filer.seek(start);
-        filer.read(stackBuffer.primitiveBuffer, 0, 4);
-        int v = 0;
-        v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[1] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[2] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[3] & 0xFF);
-        return Float.intBitsToFloat(v);
+        return Float.intBitsToFloat(filer.readInt(start));
     }
 
     long readLong(Filer filer, long start, StackBuffer stackBuffer) throws IOException {
-        filer.seek(start);
-        filer.read(stackBuffer.primitiveBuffer, 0, 8);
-        long v = 0;
-        v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[1] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[2] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[3] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[4] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[5] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[6] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[7] & 0xFF);
-        return v;
+        return filer.readLong(start);
     }
 
     double readDouble(Filer filer, long start, StackBuffer stackBuffer) throws IOException {
-        filer.seek(start);
-        filer.read(stackBuffer.primitiveBuffer, 0, 8);
-        long v = 0;
-        v |= (stackBuffer.primitiveBuffer[0] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[1] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[2] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[3] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[4] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[5] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[6] & 0xFF);
-        v <<= 8;
-        v |= (stackBuffer.primitiveBuffer[7] & 0xFF);
-        return Double.longBitsToDouble(v);
+        return Double.longBitsToDouble(filer.readLong(start));
     }
 
     void writeUnsignedShort(Filer filer, long start, int v, StackBuffer stackBuffer) throws IOException {
-        filer.seek(start);
         stackBuffer.primitiveBuffer[0] = (byte) (v >>> 8);
         stackBuffer.primitiveBuffer[1] = (byte) (v);
-        filer.write(stackBuffer.primitiveBuffer, 0, 2);
+        filer.write(start, stackBuffer.primitiveBuffer, 0, 2);
     }
 
     void writeInt(Filer filer, long start, int v, StackBuffer stackBuffer) throws IOException {
-        filer.seek(start);
         stackBuffer.primitiveBuffer[0] = (byte) (v >>> 24);
         stackBuffer.primitiveBuffer[1] = (byte) (v >>> 16);
         stackBuffer.primitiveBuffer[2] = (byte) (v >>> 8);
         stackBuffer.primitiveBuffer[3] = (byte) (v);
 
-        filer.write(stackBuffer.primitiveBuffer, 0, 4);
+        filer.write(start, stackBuffer.primitiveBuffer, 0, 4);
     }
 
     void read(Filer filer, long start, byte[] read, int offset, int length) throws IOException {
-        filer.seek(start);
-        filer.read(read, offset, length);
+        filer.read(start, read, offset, length);
     }
 
     void write(Filer filer, long start, byte[] towrite, int offest, int length) throws IOException {
-        filer.seek(start);
-        filer.write(towrite, offest, length);
+        filer.write(start, towrite, offest, length);
     }
 
 }
@@ -4,6 +4,7 @@ import com.jivesoftware.os.filer.io.Filer;
 import com.jivesoftware.os.filer.io.FilerIO;
 import com.jivesoftware.os.filer.io.api.KeyRange;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import com.jivesoftware.os.filer.io.chunk.ChunkMetrics;
 import java.io.IOException;
 import java.util.Arrays;
@@ -59,9 +60,9 @@ public class SkipListMapStore {
         boolean variableKeySizes,
         int payloadSize) throws IOException {
         maxCount += 2; // room for a head key and a tail key
-        byte maxColumnHeight = maxColumnHeight(maxCount, MapStore.cMapVersion);
+        byte maxColumnHeight = maxColumnHeight(maxCount, MapStore.cStableIndexMapVersion);
         payloadSize = payloadSize(maxColumnHeight) + payloadSize;
-        return MapStore.INSTANCE.computeFilerSize(maxCount, keySize, variableKeySizes, payloadSize, false);
+        return MapStore.INSTANCE.computeFilerSize(maxCount, keySize, variableKeySizes, payloadSize, false, MapStore.cStableIndexMapVersion);
     }
 
     byte maxColumnHeight(int maxCount, int version) {
@@ -93,9 +94,11 @@ public class SkipListMapStore {
             throw new RuntimeException("Expected that headKey.length == keySize");
         }
         _maxCount += 2;
-        byte maxColumnHeight = maxColumnHeight(_maxCount, MapStore.cMapVersion);
+        byte maxColumnHeight = maxColumnHeight(_maxCount, MapStore.cStableIndexMapVersion);
         int columnAndPayload = payloadSize(maxColumnHeight) + _payloadSize;
-        MapContext mapContext = MapStore.INSTANCE.create(_maxCount, keySize, variableKeySizes, columnAndPayload, false, filer, stackBuffer);
+        // columns point at set indexes so the map must never relocate entries
+        MapContext mapContext = MapStore.INSTANCE.create(_maxCount, keySize, variableKeySizes, columnAndPayload, false, MapStore.cStableIndexMapVersion,
+            filer, stackBuffer);
         int headKeyIndex = (int) MapStore.INSTANCE.add(filer, mapContext, (byte) 1, headKey,
             newColumn(new byte[_payloadSize], maxColumnHeight, maxColumnHeight), stackBuffer);
         SkipListMapContext context = new SkipListMapContext(mapContext, maxColumnHeight, headKeyIndex, headKey, _valueComparator);
@@ -127,6 +130,10 @@ public class SkipListMapStore {
         return context;
     }
 
+    public boolean acquire(SkipListMapContext context, int n) {
+        return MapStore.INSTANCE.acquire(context.mapContext, n, MapStore.cStableIndexMapVersion);
+    }
+
     public long getCount(Filer filer, SkipListMapContext page, StackBuffer stackBuffer) throws IOException {
         return MapStore.INSTANCE.getCount(filer, stackBuffer) - 1; // -1 because of head
     }
@@ -315,10 +322,8 @@ public class SkipListMapStore {
                 if (index == context.headIndex) { // Barf
                     continue;
                 }
-                byte[] key;
-                synchronized (lock) {
-                    key = MapStore.INSTANCE.getKeyAtIndex(filer, context.mapContext, index, stackBuffer);
-                }
+                int i = index;
+                byte[] key = ChunkLocks.read(lock, () -> MapStore.INSTANCE.getKeyAtIndex(filer, context.mapContext, i, stackBuffer));
                 if (key != null) {
                     if (!stream.stream(key)) {
                         return false;
@@ -365,7 +370,7 @@ public class SkipListMapStore {
             }
 
             long ai = MapStore.INSTANCE.index(fromIndex, from.mapContext.entrySize);
-            byte mode = MapStore.INSTANCE.read(f, (int) ai);
+            byte mode = MapStore.INSTANCE.read(f, ai);
             if (mode == MapStore.cNull) {
                 continue;
             }
@@ -420,7 +425,7 @@ public class SkipListMapStore {
         int entrySize = context.mapContext.entrySize;
         int keyLength = context.mapContext.keyLengthSize;
         int keySize = context.mapContext.keySize;
-        int offset = (int) MapStore.INSTANCE.startOfPayload(setIndex, entrySize, keyLength, keySize) + 1 + (level * cColumKeySize);
+        long offset = MapStore.INSTANCE.startOfPayload(setIndex, entrySize, keyLength, keySize) + 1 + (level * cColumKeySize);
         return MapStore.INSTANCE.readInt(f, offset, stackBuffer);
     }
 
@@ -428,7 +433,7 @@ public class SkipListMapStore {
         int entrySize = context.mapContext.entrySize;
         int keyLength = context.mapContext.keyLengthSize;
         int keySize = context.mapContext.keySize;
-        int offset = (int) MapStore.INSTANCE.startOfPayload(setIndex, entrySize, keyLength, keySize) + 1 + (level * cColumKeySize);
+        long offset = MapStore.INSTANCE.startOfPayload(setIndex, entrySize, keyLength, keySize) + 1 + (level * cColumKeySize);
         MapStore.INSTANCE.writeInt(f, offset, v, stackBuffer);
     }
 
@@ -440,7 +445,7 @@ public class SkipListMapStore {
         int entrySize = context.mapContext.entrySize;
         int keyLength = context.mapContext.keyLengthSize;
         int keySize = context.mapContext.keySize;
-        int startOfPayload = (int) MapStore.INSTANCE.startOfPayload(setIndex, entrySize, keyLength, keySize);
+        long startOfPayload = MapStore.INSTANCE.startOfPayload(setIndex, entrySize, keyLength, keySize);
         int size = context.mapContext.payloadSize - columnSize(maxHeight);
         byte[] payload = new byte[size];
         MapStore.INSTANCE.read(f, startOfPayload + 1 + (maxHeight * cColumKeySize), payload, 0, size);
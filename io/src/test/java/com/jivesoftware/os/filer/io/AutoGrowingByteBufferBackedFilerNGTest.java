@@ -16,6 +16,11 @@
 package com.jivesoftware.os.filer.io;
 
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import java.io.EOFException;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import org.testng.Assert;
@@ -119,4 +124,214 @@ public class AutoGrowingByteBufferBackedFilerNGTest {
         }
     }
 
+    @Test
+    public void truncateTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        Path createTempDirectory = Files.createTempDirectory("truncateTest");
+        FileBackedMemMappedByteBufferFactory bf = new FileBackedMemMappedByteBufferFactory("f", 0, createTempDirectory.toFile());
+
+        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(bf, 64, 64);
+        for (int i = 0; i < 64; i++) {
+            FilerIO.writeInt(filer, i, "", stackBuffer);
+        }
+        Assert.assertTrue(filer.length() >= 256);
+        Assert.assertTrue(createTempDirectory.resolve("f-3").toFile().exists());
+
+        filer.truncate(100);
+        Assert.assertEquals(filer.length(), 128);
+        Assert.assertTrue(createTempDirectory.resolve("f-1").toFile().exists());
+        Assert.assertFalse(createTempDirectory.resolve("f-2").toFile().exists());
+        Assert.assertFalse(createTempDirectory.resolve("f-3").toFile().exists());
+        for (int i = 0; i < 25; i++) {
+            filer.seek(i * 4);
+            Assert.assertEquals(FilerIO.readInt(filer, "", stackBuffer), i);
+        }
+
+        filer.seek(200);
+        FilerIO.writeInt(filer, -1, "", stackBuffer);
+        filer.seek(200);
+        Assert.assertEquals(FilerIO.readInt(filer, "", stackBuffer), -1);
+    }
+
+    @Test
+    public void copyToTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        AutoGrowingByteBufferBackedFiler from = new AutoGrowingByteBufferBackedFiler(new HeapByteBufferFactory(), 64, 64);
+        for (int i = 0; i < 100; i++) {
+            FilerIO.writeInt(from, i, "", stackBuffer);
+        }
+        AutoGrowingByteBufferBackedFiler to = new AutoGrowingByteBufferBackedFiler(new HeapByteBufferFactory(), 16, 256);
+        FilerIO.writeInt(to, -1, "", stackBuffer);
+
+        from.seek(8);
+        Assert.assertEquals(from.copyTo(to, 90 * 4), 90 * 4);
+        Assert.assertEquals(from.getFilePointer(), 8 + 90 * 4);
+        Assert.assertEquals(to.getFilePointer(), 4 + 90 * 4);
+
+        to.seek(0);
+        Assert.assertEquals(FilerIO.readInt(to, "", stackBuffer), -1);
+        for (int i = 2; i < 92; i++) {
+            Assert.assertEquals(FilerIO.readInt(to, "", stackBuffer), i);
+        }
+
+        from.seek(90 * 4);
+        Assert.assertEquals(from.copyTo(to, 1_000), 10 * 4, "stops where the source ends");
+    }
+
+    @Test
+    public void forceOnlyDirtySegmentsTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        Path createTempDirectory = Files.createTempDirectory("forceOnlyDirtySegmentsTest");
+        FileBackedMemMappedByteBufferFactory bf = new FileBackedMemMappedByteBufferFactory("f", 0, createTempDirectory.toFile());
+
+        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(bf, 64, 64);
+        filer.seek(64 * 4 - 1);
+        filer.write(0);
+        filer.force();
+        Assert.assertEquals(filer.force(), 0, "nothing written since the last force");
+
+        AutoGrowingByteBufferBackedFiler duplicate = filer.duplicateAll();
+        duplicate.seek(64 + 8);
+        FilerIO.writeInt(duplicate, 7, "", stackBuffer);
+        Assert.assertEquals(filer.force(), 64, "only the segment written through the duplicate");
+        Assert.assertEquals(filer.force(), 0);
+    }
+
+    @Test
+    public void positionalTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(new HeapByteBufferFactory(), 8, 16);
+        for (int i = 0; i < 16; i++) {
+            FilerIO.writeLong(filer, i, "", stackBuffer);
+        }
+        filer.seek(4);
+
+        for (int i = 0; i < 16; i++) {
+            Assert.assertEquals(filer.readLong(i * 8), i);
+            Assert.assertEquals(filer.readInt(i * 8 + 4), i);
+        }
+        Assert.assertEquals(filer.readLong(12), 1L << 32, "spans two segments");
+
+        byte[] bytes = new byte[40];
+        Assert.assertEquals(filer.read(8, bytes, 0, bytes.length), bytes.length);
+        Assert.assertEquals(FilerIO.bytesLong(bytes), 1);
+
+        filer.write(12, FilerIO.intBytes(-1), 0, 4);
+        filer.write(16 * 8, 7);
+        Assert.assertEquals(filer.readLong(8), (1L << 32) - 1);
+        Assert.assertEquals(filer.readInt(12), -1);
+        Assert.assertEquals(filer.read(16 * 8), 7);
+        Assert.assertEquals(filer.read(16 * 8 + 16), -1);
+
+        Assert.assertEquals(filer.getFilePointer(), 4, "positional calls leave the file pointer alone");
+    }
+
+    @Test
+    public void positionalReadPastTheEndTest() throws Exception {
+        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(new HeapByteBufferFactory(), 8, 16);
+        filer.setLength(20);
+        Assert.assertEquals(filer.length(), 24, "a whole segment and the initial 8 bytes of the next");
+        filer.write(12, FilerIO.longBytes(7), 0, 8);
+        Assert.assertEquals(filer.readLong(12), 7, "spans two segments");
+
+        for (int position : new int[] { 17, 21, 23, 24 }) {
+            try {
+                filer.readLong(position);
+                Assert.fail("read a long at " + position + " of " + filer.length());
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+        try {
+            filer.readInt(22);
+            Assert.fail("read an int at 22 of " + filer.length());
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void primitivesAcrossSegmentsTest() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        AutoGrowingByteBufferBackedFiler filer = new AutoGrowingByteBufferBackedFiler(new HeapByteBufferFactory(), 8, 16);
+        filer.seek(13);
+        FilerIO.writeLong(filer, Long.MIN_VALUE + 7, "", stackBuffer);
+        FilerIO.writeInt(filer, -3, "", stackBuffer);
+        FilerIO.writeShort(filer, 0xABCD, "", stackBuffer);
+        FilerIO.writeDouble(filer, 0.5d, "", stackBuffer);
+        Assert.assertEquals(filer.getFilePointer(), 13 + 8 + 4 + 2 + 8);
+
+        filer.seek(13);
+        Assert.assertEquals(FilerIO.readLong(filer, "", stackBuffer), Long.MIN_VALUE + 7);
+        Assert.assertEquals(FilerIO.readInt(filer, "", stackBuffer), -3);
+        Assert.assertEquals(FilerIO.readUnsignedShort(filer, "", stackBuffer), 0xABCD);
+        Assert.assertEquals(FilerIO.readDouble(filer, "", stackBuffer), 0.5d);
+
+        byte[] bytes = new byte[8];
+        filer.seek(13);
+        filer.read(bytes);
+        Assert.assertEquals(bytes, FilerIO.longBytes(Long.MIN_VALUE + 7), "big-endian like the byte array path");
+    }
+
+    @Test
+    public void forceRacingWriteTest() throws Exception {
+        File file = Files.createTempFile("forceRacingWriteTest", ".seg").toFile();
+        MappedByteBuffer mapped;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 64);
+        }
+        boolean[] forceBeforeMark = new boolean[1];
+        boolean[] forceAfterMark = new boolean[1];
+        byte[] seenByForce = new byte[1];
+        // stands in for a force on another thread landing in the middle of a write
+        ByteBufferBackedFiler filer = new ByteBufferBackedFiler(mapped) {
+            @Override
+            void dirty() {
+                if (forceBeforeMark[0]) {
+                    forceBeforeMark[0] = false;
+                    force();
+                }
+                super.dirty();
+                if (forceAfterMark[0]) {
+                    forceAfterMark[0] = false;
+                    force();
+                }
+            }
+
+            @Override
+            public long force() {
+                seenByForce[0] = mapped.get(15);
+                return super.force();
+            }
+        };
+
+        byte v = 1;
+        for (int path = 0; path < 4; path++) {
+            // a force that clears the flag just before the write marks it must leave the segment dirty
+            filer.force();
+            forceBeforeMark[0] = true;
+            write(filer, path, ++v);
+            Assert.assertTrue(filer.isDirty(), "path " + path);
+
+            // a force that clears the flag just after the write marks it must already see the written bytes
+            forceAfterMark[0] = true;
+            write(filer, path, ++v);
+            Assert.assertFalse(filer.isDirty(), "path " + path);
+            Assert.assertEquals(seenByForce[0], v, "path " + path);
+        }
+    }
+
+    private static void write(ByteBufferBackedFiler filer, int path, byte v) throws Exception {
+        if (path == 0) {
+            filer.write(15, v);
+        } else if (path == 1) {
+            filer.write(8, new byte[] { 0, 0, 0, 0, 0, 0, 0, v }, 0, 8);
+        } else if (path == 2) {
+            filer.seek(8);
+            filer.writeLong(v);
+        } else {
+            filer.seek(15);
+            filer.write(v);
+        }
+    }
 }
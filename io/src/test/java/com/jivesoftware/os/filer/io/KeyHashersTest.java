@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io;
+
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import com.jivesoftware.os.filer.io.map.MapContext;
+import com.jivesoftware.os.filer.io.map.MapStore;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author jonathan.colt
+ */
+public class KeyHashersTest {
+
+    @Test
+    public void testXXHash64KnownValues() {
+        Assert.assertEquals(xx(""), 0xEF46DB3751D8E999L);
+        Assert.assertEquals(xx("a"), 0xD24EC4F1A98C6E5BL);
+        Assert.assertEquals(xx("abc"), 0x44BC2CF5AD770999L);
+        Assert.assertEquals(xx("Nobody inspects the spammish repetition"), 0xFBCEA83C8A378BF1L);
+    }
+
+    @Test
+    public void testOffsetsAreRespected() {
+        byte[] key = "0123456789abcdefghijklmnopqrstuvwxyz0123456789".getBytes(StandardCharsets.UTF_8);
+        for (KeyHashers keyHasher : KeyHashers.values()) {
+            for (int offset = 0; offset < 8; offset++) {
+                for (int length = 0; length < key.length - offset; length++) {
+                    byte[] copy = new byte[length];
+                    System.arraycopy(key, offset, copy, 0, length);
+                    Assert.assertEquals(keyHasher.hash(key, offset, length), keyHasher.hash(copy, 0, length), keyHasher + " " + offset + " " + length);
+                }
+            }
+            Assert.assertEquals(KeyHashers.fromId(keyHasher.id()), keyHasher);
+        }
+    }
+
+    @Test
+    public void testMapRecordsKeyHasher() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        for (KeyHashers keyHasher : KeyHashers.values()) {
+            long filerSize = MapStore.INSTANCE.computeFilerSize(1_000, 8, false, 8, false);
+            Filer filer = new ByteBufferBackedFiler(ByteBuffer.allocate((int) filerSize));
+            MapContext context = MapStore.INSTANCE.create(1_000, 8, false, 8, false, MapStore.cMapVersion, keyHasher, filer, stackBuffer);
+            for (long i = 0; i < 1_000; i++) {
+                MapStore.INSTANCE.add(filer, context, (byte) 1, FilerIO.longBytes(i), FilerIO.longBytes(i), stackBuffer);
+            }
+
+            MapContext reopened = MapStore.INSTANCE.open(filer, stackBuffer);
+            Assert.assertEquals(reopened.keyHasher, keyHasher);
+            for (long i = 0; i < 1_000; i++) {
+                Assert.assertEquals(MapStore.INSTANCE.getPayload(filer, reopened, FilerIO.longBytes(i), stackBuffer), FilerIO.longBytes(i));
+            }
+        }
+    }
+
+    @Test
+    public void testLegacyContextUsesLcg() throws Exception {
+        MapContext context = new MapContext(8, (byte) 0, 8, (byte) 0, 16, 8, 1 + 1 + 8 + 8, MapStore.cMapVersion, 0);
+        Assert.assertEquals(context.keyHasher, KeyHashers.LCG);
+    }
+
+    private static long xx(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return KeyHashers.XX_HASH_64.hash(bytes, 0, bytes.length);
+    }
+}
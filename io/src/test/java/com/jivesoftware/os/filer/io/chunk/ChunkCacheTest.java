@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 Jive Software.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jivesoftware.os.filer.io.chunk;
+
+import com.jivesoftware.os.filer.io.HeapByteBufferFactory;
+import com.jivesoftware.os.filer.io.api.StackBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author jonathan.colt
+ */
+public class ChunkCacheTest {
+
+    @Test
+    public void testChurn() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkCache cache = new ChunkCache("test".getBytes(), new HeapByteBufferFactory());
+        Map<Long, Chunk<Object>> expected = new HashMap<>();
+        Random random = new Random(1234);
+        for (int i = 0; i < 100_000; i++) {
+            // chunkFPs are aligned so keep the low bits zeroed like the real thing
+            long chunkFP = (long) random.nextInt(4_096) << 6;
+            if (random.nextBoolean()) {
+                Chunk<Object> chunk = new Chunk<>(chunkFP, chunkFP, 6, chunkFP, chunkFP + 64);
+                cache.set(chunkFP, chunk, 2, stackBuffer);
+                expected.put(chunkFP, chunk);
+            } else {
+                Assert.assertSame(cache.remove(chunkFP, stackBuffer), expected.remove(chunkFP));
+            }
+            Assert.assertEquals(cache.approxSize(), expected.size());
+        }
+        for (long chunkFP = 0; chunkFP < (4_096L << 6); chunkFP += 64) {
+            Assert.assertEquals(cache.contains(chunkFP, stackBuffer), expected.containsKey(chunkFP));
+        }
+    }
+
+    @Test
+    public void testAcquireRelease() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkCache cache = new ChunkCache("test".getBytes(), new HeapByteBufferFactory());
+        Assert.assertNull(cache.acquireIfPresent(64, stackBuffer));
+
+        for (long chunkFP = 64; chunkFP <= 64 * 100; chunkFP += 64) {
+            Chunk<Object> chunk = new Chunk<>(null, chunkFP, 6, chunkFP, chunkFP + 64);
+            Assert.assertSame(cache.promoteAndAcquire(chunkFP, chunk, 2, stackBuffer), chunk);
+        }
+        Assert.assertFalse(cache.isRemovable());
+        Assert.assertNotNull(cache.acquireIfPresent(128, stackBuffer));
+        Assert.assertTrue(cache.release(128, stackBuffer));
+        Assert.assertTrue(cache.contains(128, stackBuffer));
+
+        for (long chunkFP = 64; chunkFP <= 64 * 100; chunkFP += 64) {
+            Assert.assertTrue(cache.release(chunkFP, stackBuffer));
+            Assert.assertFalse(cache.contains(chunkFP, stackBuffer), "chunks without a monkey are dropped on last release");
+        }
+        Assert.assertTrue(cache.isRemovable());
+        Assert.assertEquals(cache.approxSize(), 0);
+        Assert.assertFalse(cache.release(64, stackBuffer));
+    }
+
+    @Test
+    public void testSharedAcquireRelease() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkCache cache = new ChunkCache("test".getBytes(), new HeapByteBufferFactory());
+        Chunk<Object> chunk = new Chunk<>(null, 64, 6, 64, 128);
+        cache.promoteAndAcquire(64, chunk, 2, stackBuffer);
+
+        // hits share the stripe, so acquisitions are counted atomically
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executorService.submit(() -> {
+                    StackBuffer threadStackBuffer = new StackBuffer();
+                    for (int i = 0; i < 10_000; i++) {
+                        Assert.assertSame(cache.acquireIfPresent(64, threadStackBuffer), chunk);
+                        Assert.assertTrue(cache.releaseIfNotLast(64));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        Assert.assertEquals(chunk.acquisitions, 1);
+        Assert.assertFalse(cache.releaseIfNotLast(64), "the last release is left to release");
+        Assert.assertTrue(cache.isAcquired(64));
+        Assert.assertTrue(cache.release(64, stackBuffer));
+        Assert.assertFalse(cache.contains(64, stackBuffer));
+        Assert.assertTrue(cache.isRemovable());
+    }
+
+    @Test
+    public void testBoundedEvictsColdChunksFirst() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkCache cache = new ChunkCache("test".getBytes(), new HeapByteBufferFactory(), 100, Long.MAX_VALUE);
+        Assert.assertTrue(cache.isBounded());
+
+        // a hot working set that is hit repeatedly
+        for (long chunkFP = 64; chunkFP <= 64 * 50; chunkFP += 64) {
+            cache.set(chunkFP, new Chunk<>(chunkFP, chunkFP, 6, chunkFP, chunkFP + 64), 2, stackBuffer);
+            for (int j = 0; j < 3; j++) {
+                cache.acquireIfPresent(chunkFP, stackBuffer);
+                cache.release(chunkFP, stackBuffer);
+            }
+        }
+        // a scan of one time chunks, one of which stays acquired
+        long pinned = 64 * 1_000;
+        cache.promoteAndAcquire(pinned, new Chunk<>(pinned, pinned, 6, pinned, pinned + 64), 2, stackBuffer);
+        for (long chunkFP = 64 * 1_001; chunkFP <= 64 * 2_000; chunkFP += 64) {
+            cache.set(chunkFP, new Chunk<>(chunkFP, chunkFP, 6, chunkFP, chunkFP + 64), 2, stackBuffer);
+        }
+
+        Assert.assertTrue(cache.approxSize() <= 100);
+        for (long chunkFP = 64; chunkFP <= 64 * 50; chunkFP += 64) {
+            Assert.assertTrue(cache.contains(chunkFP, stackBuffer), "hot chunk evicted " + chunkFP);
+        }
+        Assert.assertTrue(cache.contains(pinned, stackBuffer));
+        Assert.assertTrue(cache.release(pinned, stackBuffer));
+        Assert.assertTrue(cache.isRemovable());
+        Assert.assertTrue(cache.approxSize() <= 100);
+    }
+
+    @Test
+    public void testBoundedByBytes() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkCache cache = new ChunkCache("test".getBytes(), new HeapByteBufferFactory(), Integer.MAX_VALUE, 64 * 10);
+        for (long chunkFP = 64; chunkFP <= 64 * 100; chunkFP += 64) {
+            cache.set(chunkFP, new Chunk<>(chunkFP, chunkFP, 6, chunkFP, chunkFP + 64), 2, stackBuffer);
+        }
+        Assert.assertEquals(cache.approxSize(), 10);
+    }
+
+    @Test
+    public void testBoundedKeepsHeadersOfEvictedChunks() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        ChunkCache cache = new ChunkCache("test".getBytes(), new HeapByteBufferFactory(), 10, Long.MAX_VALUE);
+        for (long chunkFP = 64; chunkFP <= 64 * 20; chunkFP += 64) {
+            cache.set(chunkFP, new Chunk<>(chunkFP, chunkFP, 6, chunkFP, chunkFP + 64), 2, stackBuffer);
+            cache.cachePower(chunkFP, 6);
+        }
+        Assert.assertFalse(cache.contains(64, stackBuffer));
+        Assert.assertEquals(cache.cachedPower(64), 6);
+
+        cache.remove(64, stackBuffer);
+        Assert.assertEquals(cache.cachedPower(64), -1, "a removed chunk's header is forgotten");
+        Assert.assertEquals(new ChunkCache("test".getBytes(), new HeapByteBufferFactory()).cachedPower(64), -1);
+    }
+}
@@ -1,16 +1,25 @@
 package com.jivesoftware.os.filer.io.map;
 
 import com.jivesoftware.os.filer.io.ByteBufferBackedFiler;
+import com.jivesoftware.os.filer.io.FileChannelFiler;
 import com.jivesoftware.os.filer.io.Filer;
 import com.jivesoftware.os.filer.io.FilerIO;
 import com.jivesoftware.os.filer.io.HeapByteBufferFactory;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -166,6 +175,254 @@ public class MapStoreTest {
 
     }
 
+    @Test
+    public void robinHoodChurn() throws IOException {
+        churn(MapStore.cMapVersion, 4);
+    }
+
+    @Test
+    public void hashTaggedChurn() throws IOException {
+        churn(MapStore.cHashTagMapVersion, 32);
+    }
+
+    private void churn(byte version, int keySize) throws IOException {
+        StackBuffer stackBuffer = new StackBuffer();
+        int maxCount = 1_000;
+        long filerSize = MapStore.INSTANCE.computeFilerSize(maxCount, keySize, false, 4, false, version);
+        Filer filer = new ByteBufferBackedFiler(ByteBuffer.allocate((int) filerSize));
+        MapContext context = MapStore.INSTANCE.create(maxCount, keySize, false, 4, false, version, filer, stackBuffer);
+        Assert.assertEquals(context.version, version);
+
+        Integer[] aligned = new Integer[context.capacity];
+        MapStore.MoveStream mover = (fromIndex, toIndex) -> {
+            aligned[(int) toIndex] = aligned[(int) fromIndex];
+            aligned[(int) fromIndex] = null;
+        };
+
+        Random random = new Random(1234);
+        Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            int k = random.nextInt(maxCount * 2);
+            byte[] key = key(k, keySize);
+            if (expected.contains(k) || expected.size() == maxCount) {
+                long ai = MapStore.INSTANCE.get(filer, context, key, stackBuffer);
+                if (ai > -1) {
+                    aligned[(int) ai] = null;
+                    Assert.assertTrue(MapStore.INSTANCE.removeAtIndex(filer, context, ai, mover, stackBuffer));
+                }
+                expected.remove(k);
+            } else {
+                long ai = MapStore.INSTANCE.add(filer, context, (byte) 1, key, FilerIO.intBytes(k), mover, stackBuffer);
+                aligned[(int) ai] = k;
+                expected.add(k);
+            }
+        }
+
+        Assert.assertEquals(MapStore.INSTANCE.getCount(filer, stackBuffer), expected.size());
+        for (int k = 0; k < maxCount * 2; k++) {
+            long ai = MapStore.INSTANCE.get(filer, context, key(k, keySize), stackBuffer);
+            if (expected.contains(k)) {
+                Assert.assertTrue(ai > -1, "missing " + k);
+                Assert.assertEquals(MapStore.INSTANCE.getPayload(filer, context, ai, stackBuffer), FilerIO.intBytes(k));
+                Assert.assertEquals(aligned[(int) ai], (Integer) k);
+            } else {
+                Assert.assertEquals(ai, -1L);
+            }
+        }
+
+        int live = 0;
+        for (int i = 0; i < context.capacity; i++) {
+            byte mode = MapStore.INSTANCE.getMode(filer, context, i);
+            Assert.assertNotEquals(mode, MapStore.cSkip, "robin hood maps should never leave tombstones");
+            if (mode != MapStore.cNull) {
+                live++;
+            } else {
+                Assert.assertNull(aligned[i]);
+            }
+        }
+        Assert.assertEquals(live, expected.size());
+    }
+
+    @Test
+    public void readIntoBuffers() throws IOException {
+        StackBuffer stackBuffer = new StackBuffer();
+        long filerSize = MapStore.INSTANCE.computeFilerSize(16, 24, true, 8, false);
+        Filer filer = new ByteBufferBackedFiler(ByteBuffer.allocate((int) filerSize));
+        MapContext context = MapStore.INSTANCE.create(16, 24, true, 8, false, filer, stackBuffer);
+        for (int i = 0; i < 16; i++) {
+            byte[] key = new byte[1 + i];
+            Arrays.fill(key, (byte) i);
+            MapStore.INSTANCE.add(filer, context, (byte) 1, key, FilerIO.longBytes(i * 1_000L), stackBuffer);
+        }
+
+        byte[] keyBuffer = new byte[2 + 24];
+        byte[] payloadBuffer = new byte[8];
+        int found = 0;
+        for (int i = 0; i < context.capacity; i++) {
+            int keyLength = MapStore.INSTANCE.getKeyAtIndex(filer, context, i, keyBuffer, 2, stackBuffer);
+            int payloadLength = MapStore.INSTANCE.getPayloadAtIndex(filer, context, i, payloadBuffer, 0, stackBuffer);
+            if (keyLength == -1) {
+                Assert.assertEquals(payloadLength, -1);
+                continue;
+            }
+            found++;
+            Assert.assertEquals(Arrays.copyOfRange(keyBuffer, 2, 2 + keyLength), MapStore.INSTANCE.getKey(filer, context, i, stackBuffer));
+            Assert.assertEquals(payloadLength, 8);
+            Assert.assertEquals(FilerIO.bytesLong(payloadBuffer), (keyLength - 1) * 1_000L);
+            Assert.assertEquals(MapStore.INSTANCE.getPayloadLong(filer, context, i, stackBuffer), (keyLength - 1) * 1_000L);
+        }
+        Assert.assertEquals(found, 16);
+    }
+
+    private static byte[] key(int k, int keySize) {
+        byte[] key = new byte[keySize];
+        Arrays.fill(key, (byte) 'a'); // shared prefix so only the tail tells keys apart
+        FilerIO.intBytes(k, key, keySize - 4);
+        return key;
+    }
+
+    @Test
+    public void streamWhileRemoving() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        int maxCount = 1_000;
+        Filer filer = new ByteBufferBackedFiler(ByteBuffer.allocate((int) MapStore.INSTANCE.computeFilerSize(maxCount, 4, false, 4, false)));
+        MapContext context = MapStore.INSTANCE.create(maxCount, 4, false, 4, false, filer, stackBuffer);
+        Object lock = new Object();
+        for (int k = 0; k < maxCount; k++) {
+            MapStore.INSTANCE.add(filer, context, (byte) 1, key(k, 4), FilerIO.intBytes(k), stackBuffer);
+        }
+
+        // odd keys come and go, shifting the even keys that share their clusters back and forth
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> remover = executor.submit(() -> {
+            StackBuffer removerStackBuffer = new StackBuffer();
+            Random random = new Random(1234);
+            while (running.get()) {
+                int k = random.nextInt(maxCount / 2) * 2 + 1;
+                synchronized (lock) {
+                    MapStore.INSTANCE.remove(filer, context, key(k, 4), removerStackBuffer);
+                }
+                synchronized (lock) {
+                    MapStore.INSTANCE.add(filer, context, (byte) 1, key(k, 4), FilerIO.intBytes(k), removerStackBuffer);
+                }
+            }
+            return null;
+        });
+
+        try {
+            for (int i = 0; i < 200; i++) {
+                Set<Integer> streamed = new HashSet<>();
+                MapStore.INSTANCE.stream(filer, context, lock, entry -> {
+                    Assert.assertEquals(entry.payload, Arrays.copyOfRange(entry.key, 0, 4));
+                    streamed.add(FilerIO.bytesInt(entry.key));
+                    return true;
+                }, stackBuffer);
+                Set<Integer> streamedKeys = new HashSet<>();
+                MapStore.INSTANCE.streamKeys(filer, context, lock, key -> streamedKeys.add(FilerIO.bytesInt(key)), stackBuffer);
+                for (int k = 0; k < maxCount; k += 2) {
+                    Assert.assertTrue(streamed.contains(k), "stream skipped " + k);
+                    Assert.assertTrue(streamedKeys.contains(k), "streamKeys skipped " + k);
+                }
+            }
+        } finally {
+            running.set(false);
+            remover.get();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void upgradeKeepsMaxCount() throws IOException {
+        StackBuffer stackBuffer = new StackBuffer();
+        long filerSize = MapStore.INSTANCE.computeFilerSize(64, 4, false, 4, false, MapStore.cStableIndexMapVersion);
+        Filer filer = new ByteBufferBackedFiler(ByteBuffer.allocate((int) filerSize));
+        MapContext context = MapStore.INSTANCE.create(64, 4, false, 4, false, MapStore.cStableIndexMapVersion, filer, stackBuffer);
+        for (int i = 0; i < 48; i++) {
+            MapStore.INSTANCE.add(filer, context, (byte) 1, FilerIO.intBytes(i), FilerIO.intBytes(i), stackBuffer);
+        }
+
+        MapContext reopened = MapStore.INSTANCE.open(filer, stackBuffer);
+        Assert.assertFalse(MapStore.INSTANCE.acquire(reopened, 1));
+        int nextGrowSize = MapStore.INSTANCE.nextGrowSize(reopened, 1);
+        Assert.assertEquals(nextGrowSize, 64);
+
+        Filer newFiler = new ByteBufferBackedFiler(ByteBuffer.allocate((int) MapStore.INSTANCE.computeFilerSize(nextGrowSize, reopened)));
+        MapContext upgraded = MapStore.INSTANCE.create(nextGrowSize, reopened, newFiler, stackBuffer);
+        MapStore.INSTANCE.copyTo(filer, reopened, newFiler, upgraded, null, stackBuffer);
+        Assert.assertEquals(upgraded.version, MapStore.cMapVersion);
+        Assert.assertEquals(upgraded.maxCount, reopened.maxCount);
+        Assert.assertEquals(MapStore.INSTANCE.getCount(newFiler, stackBuffer), 48);
+        Assert.assertTrue(MapStore.INSTANCE.acquire(upgraded, 1));
+
+        // a v4 map without room left still doubles
+        for (int i = 48; i < 64; i++) {
+            MapStore.INSTANCE.add(filer, reopened, (byte) 1, FilerIO.intBytes(i), FilerIO.intBytes(i), stackBuffer);
+        }
+        Assert.assertEquals(MapStore.INSTANCE.nextGrowSize(reopened, 1), 128);
+    }
+
+    @Test
+    public void upgradeStableIndexMap() throws IOException {
+        StackBuffer stackBuffer = new StackBuffer();
+        long filerSize = MapStore.INSTANCE.computeFilerSize(64, 4, false, 4, false, MapStore.cStableIndexMapVersion);
+        Filer filer = new ByteBufferBackedFiler(ByteBuffer.allocate((int) filerSize));
+        MapContext context = MapStore.INSTANCE.create(64, 4, false, 4, false, MapStore.cStableIndexMapVersion, filer, stackBuffer);
+        for (int i = 0; i < 64; i++) {
+            MapStore.INSTANCE.add(filer, context, (byte) 1, FilerIO.intBytes(i), FilerIO.intBytes(i), stackBuffer);
+        }
+        for (int i = 0; i < 64; i += 2) {
+            MapStore.INSTANCE.remove(filer, context, FilerIO.intBytes(i), stackBuffer);
+        }
+
+        MapContext reopened = MapStore.INSTANCE.open(filer, stackBuffer);
+        Assert.assertEquals(reopened.version, MapStore.cStableIndexMapVersion);
+        Assert.assertFalse(MapStore.INSTANCE.acquire(reopened, 1));
+        Assert.assertTrue(MapStore.INSTANCE.acquire(reopened, 1, MapStore.cStableIndexMapVersion));
+
+        int nextGrowSize = MapStore.INSTANCE.nextGrowSize(reopened, 1);
+        Filer newFiler = new ByteBufferBackedFiler(ByteBuffer.allocate((int) MapStore.INSTANCE.computeFilerSize(nextGrowSize, reopened)));
+        MapContext upgraded = MapStore.INSTANCE.create(nextGrowSize, reopened, newFiler, stackBuffer);
+        Map<Long, Long> copied = new HashMap<>();
+        MapStore.INSTANCE.copyTo(filer, reopened, newFiler, upgraded, copied::put, stackBuffer);
+
+        Assert.assertEquals(upgraded.version, MapStore.cMapVersion);
+        Assert.assertEquals(copied.size(), 32);
+        for (Map.Entry<Long, Long> entry : copied.entrySet()) {
+            Assert.assertEquals(MapStore.INSTANCE.getKey(newFiler, upgraded, entry.getValue(), stackBuffer),
+                MapStore.INSTANCE.getKey(filer, reopened, entry.getKey(), stackBuffer));
+        }
+        Assert.assertTrue(MapStore.INSTANCE.acquire(upgraded, 1));
+        for (int i = 0; i < 64; i++) {
+            byte[] got = MapStore.INSTANCE.getPayload(newFiler, upgraded, FilerIO.intBytes(i), stackBuffer);
+            if (i % 2 == 0) {
+                Assert.assertNull(got);
+            } else {
+                Assert.assertEquals(got, FilerIO.intBytes(i));
+            }
+        }
+    }
+
+    @Test
+    public void growBeyondTwoGigabytes() throws IOException {
+        MapStore mapStore = MapStore.INSTANCE;
+        Assert.assertTrue(mapStore.absoluteMaxCount(32, 64) > Integer.MAX_VALUE / 100, "large entries must not be bound by 2GB of bytes");
+        Assert.assertTrue(mapStore.computeFilerSize(MapStore.cMaxCount, 32, false, 64, false) > Integer.MAX_VALUE);
+
+        int maxCount = 1 << 30;
+        MapContext context = new MapContext(8, (byte) 0, 8, (byte) 0, MapStore.calculateCapacity(maxCount), maxCount, 16, MapStore.cMapVersion,
+            MapStore.cDefaultKeyHasher, 0);
+        int grown = mapStore.nextGrowSize(context);
+        Assert.assertEquals(grown, MapStore.cMaxCount);
+        Assert.assertTrue(MapStore.calculateCapacity(grown) > 0);
+        try {
+            mapStore.nextGrowSize(context, MapStore.cMaxCount);
+            Assert.fail();
+        } catch (IllegalStateException x) {
+            // expected
+        }
+    }
+
     @Test(enabled = false)
     public void basicTest() throws IOException {
         test();
@@ -329,4 +586,27 @@ public class MapStoreTest {
 
     }
 
+    @Test
+    public void fileChannelBacked() throws Exception {
+        StackBuffer stackBuffer = new StackBuffer();
+        File file = Files.createTempFile("fileChannelBacked", ".map").toFile();
+        int count = 1_000;
+        try (FileChannelFiler filer = new FileChannelFiler(file, false)) {
+            filer.setLength(MapStore.INSTANCE.computeFilerSize(count, 4, false, 8, false));
+            MapContext context = MapStore.INSTANCE.create(count, 4, false, 8, false, filer, stackBuffer);
+            for (int i = 0; i < count; i++) {
+                MapStore.INSTANCE.add(filer, context, (byte) 1, FilerIO.intBytes(i), FilerIO.longBytes(i * 10L), stackBuffer);
+            }
+            filer.force();
+        }
+
+        try (FileChannelFiler filer = new FileChannelFiler(file, true)) {
+            MapContext context = MapStore.INSTANCE.open(filer, stackBuffer);
+            Assert.assertEquals(context.count, count);
+            for (int i = 0; i < count; i++) {
+                Assert.assertEquals(FilerIO.bytesLong(MapStore.INSTANCE.getPayload(filer, context, FilerIO.intBytes(i), stackBuffer)), i * 10L);
+            }
+            Assert.assertEquals(MapStore.INSTANCE.get(filer, context, FilerIO.intBytes(count), stackBuffer), -1);
+        }
+    }
 }
@@ -29,6 +29,7 @@ import com.jivesoftware.os.filer.io.api.KeyValueStore;
 import com.jivesoftware.os.filer.io.api.KeyValueTransaction;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import com.jivesoftware.os.filer.io.map.MapContext;
 import com.jivesoftware.os.filer.io.map.MapStore;
@@ -49,6 +50,11 @@ public class TxKeyObjectStore<K, V> implements KeyValueStore<K, V> {
     private final TxNamedMap namedMap;
     private Object[] values;
 
+    private final MapStore.MoveStream valueMover = (fromIndex, toIndex) -> {
+        values[(int) toIndex] = values[(int) fromIndex];
+        values[(int) fromIndex] = null;
+    };
+
     public TxKeyObjectStore(TxCog<Integer, MapBackedKeyedFPIndex, ChunkFiler> skyHookCog,
         IntIndexSemaphore keySemaphores,
         int seed,
@@ -90,13 +96,13 @@ public class TxKeyObjectStore<K, V> implements KeyValueStore<K, V> {
         GrowFiler<Integer, MapContext, ChunkFiler> grower = new GrowFiler<Integer, MapContext, ChunkFiler>() {
             @Override
             public Integer acquire(Integer sizeHint, MapContext monkey, ChunkFiler filer, Object lock) throws IOException {
-                synchronized (lock) {
+                return ChunkLocks.write(lock, () -> {
                     if (MapStore.INSTANCE.acquire(monkey, sizeHint)) {
                         return null;
                     } else {
                         return MapStore.INSTANCE.nextGrowSize(monkey, sizeHint);
                     }
-                }
+                });
             }
 
             @Override
@@ -109,22 +115,21 @@ public class TxKeyObjectStore<K, V> implements KeyValueStore<K, V> {
                 Object newLock,
                 StackBuffer stackBuffer) throws IOException {
 
-                synchronized (currentLock) {
-                    synchronized (newLock) {
-                        final Object[] newValues = new Object[newMonkey.capacity];
-                        MapStore.INSTANCE.copyTo(currentFiler, currentMonkey, newFiler, newMonkey,
-                            (fromIndex, toIndex) -> newValues[(int) toIndex] = values[(int) fromIndex], stackBuffer);
-                        values = newValues;
-
-                    }
-                }
+                ChunkLocks.write(currentLock, () -> ChunkLocks.write(newLock, () -> {
+                    final Object[] newValues = new Object[newMonkey.capacity];
+                    MapStore.INSTANCE.copyTo(currentFiler, currentMonkey, newFiler, newMonkey,
+                        (fromIndex, toIndex) -> newValues[(int) toIndex] = values[(int) fromIndex], stackBuffer);
+                    values = newValues;
+                    return null;
+                }));
             }
 
             @Override
             public void release(Integer sizeHint, MapContext monkey, Object lock) {
-                synchronized (lock) {
+                ChunkLocks.write(lock, () -> {
                     MapStore.INSTANCE.release(monkey, sizeHint);
-                }
+                    return null;
+                });
             }
         };
 
@@ -141,11 +146,12 @@ public class TxKeyObjectStore<K, V> implements KeyValueStore<K, V> {
         return namedMap.read(mapName, (context, filer, _stackBuffer, lock) -> {
             boolean[] result = new boolean[keysBytes.length];
             if (filer != null) {
-                synchronized (lock) {
+                ChunkLocks.read(lock, () -> {
                     for (int i = 0; i < keysBytes.length; i++) {
                         result[i] = (keysBytes[i] != null && MapStore.INSTANCE.contains(filer, context, keysBytes[i], _stackBuffer));
                     }
-                }
+                    return null;
+                });
             }
             return result;
         }, stackBuffer);
@@ -169,30 +175,35 @@ public class TxKeyObjectStore<K, V> implements KeyValueStore<K, V> {
 
                     @Override
                     public void set(V value) throws IOException {
-                        synchronized (lock) {
-                            long ai = MapStore.INSTANCE.add(filer, monkey, (byte) 1, keyBytes, EMPTY_PAYLOAD, _stackBuffer);
+                        ChunkLocks.write(lock, () -> {
+                            long ai = MapStore.INSTANCE.add(filer, monkey, (byte) 1, keyBytes, EMPTY_PAYLOAD, valueMover, _stackBuffer);
                             values[(int) ai] = value;
-                        }
+                            return null;
+                        });
                     }
 
                     @Override
                     public void remove() throws IOException {
-                        synchronized (lock) {
-                            long ai = MapStore.INSTANCE.remove(filer, monkey, keyBytes, _stackBuffer);
-                            values[(int) ai] = null;
-                        }
+                        ChunkLocks.write(lock, () -> {
+                            long ai = MapStore.INSTANCE.get(filer, monkey, keyBytes, _stackBuffer);
+                            if (ai > -1) {
+                                values[(int) ai] = null;
+                                MapStore.INSTANCE.removeAtIndex(filer, monkey, ai, valueMover, _stackBuffer);
+                            }
+                            return null;
+                        });
                     }
 
                     @Override
                     @SuppressWarnings("unchecked")
                     public V get() throws IOException {
-                        synchronized (lock) {
+                        return ChunkLocks.read(lock, () -> {
                             long ai = MapStore.INSTANCE.get(filer, monkey, keyBytes, _stackBuffer);
                             if (ai > -1) {
                                 return (V) values[(int) ai];
                             }
                             return null;
-                        }
+                        });
                     }
                 }), stackBuffer);
         } else {
@@ -207,12 +218,14 @@ public class TxKeyObjectStore<K, V> implements KeyValueStore<K, V> {
                     @Override
                     public void remove() throws IOException {
                         if (monkey != null && filer != null) {
-                            synchronized (lock) {
-                                long ai = MapStore.INSTANCE.remove(filer, monkey, keyBytes, _stackBuffer);
+                            ChunkLocks.write(lock, () -> {
+                                long ai = MapStore.INSTANCE.get(filer, monkey, keyBytes, _stackBuffer);
                                 if (ai > -1) {
                                     values[(int) ai] = null;
+                                    MapStore.INSTANCE.removeAtIndex(filer, monkey, ai, valueMover, _stackBuffer);
                                 }
-                            }
+                                return null;
+                            });
                         }
                     }
 
@@ -220,12 +233,13 @@ public class TxKeyObjectStore<K, V> implements KeyValueStore<K, V> {
                     @SuppressWarnings("unchecked")
                     public V get() throws IOException {
                         if (monkey != null && filer != null) {
-                            synchronized (lock) {
+                            return ChunkLocks.read(lock, () -> {
                                 long ai = MapStore.INSTANCE.get(filer, monkey, keyBytes, _stackBuffer);
                                 if (ai > -1) {
                                     return (V) values[(int) ai];
                                 }
-                            }
+                                return null;
+                            });
                         }
                         return null;
                     }
@@ -237,10 +251,14 @@ public class TxKeyObjectStore<K, V> implements KeyValueStore<K, V> {
     public boolean stream(final EntryStream<K, V> stream, StackBuffer stackBuffer) throws IOException, InterruptedException {
 
         return namedMap.stream(mapName,
-            (key, monkey, filer, lock) -> MapStore.INSTANCE.stream(filer, monkey, lock, entry -> {
-                K key1 = keyMarshaller.bytesKey(entry.key, 0);
-                return stream.stream(key1, (V) values[entry.payloadIndex]);
-            }, stackBuffer), stackBuffer);
+            (key, monkey, filer, lock) -> {
+                if (monkey == null || filer == null) {
+                    return true;
+                }
+                // the values are index aligned, so they have to be read under the same hold of the lock as the keys they belong to
+                return MapStore.INSTANCE.stream(filer, monkey, lock, index -> (V) values[index],
+                    (entry, value) -> stream.stream(keyMarshaller.bytesKey(entry.key, 0), value), stackBuffer);
+            }, stackBuffer);
 
     }
 
@@ -31,6 +31,7 @@ import com.jivesoftware.os.filer.io.api.KeyValueStore;
 import com.jivesoftware.os.filer.io.api.KeyValueTransaction;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import com.jivesoftware.os.filer.io.map.MapStore;
 import java.io.IOException;
@@ -91,7 +92,7 @@ public class TxKeyValueStore<K, V> implements KeyValueStore<K, V> {
         }
         namedMap.multiReadWriteAutoGrow(keysBytes, name,
             (monkey, filer, stackBuffer1, lock, index) -> {
-                synchronized (lock) {
+                return ChunkLocks.write(lock, () -> {
                     indexAlignedKeyValueTransaction.commit(new KeyValueContext<V>() {
 
                         @Override
@@ -114,8 +115,8 @@ public class TxKeyValueStore<K, V> implements KeyValueStore<K, V> {
                             return null;
                         }
                     }, index);
-                }
-                return null;
+                    return null;
+                });
             }, stackBuffer);
     }
 
@@ -129,28 +130,30 @@ public class TxKeyValueStore<K, V> implements KeyValueStore<K, V> {
 
                     @Override
                     public void set(V value) throws IOException {
-                        synchronized (lock) {
+                        ChunkLocks.write(lock, () -> {
                             MapStore.INSTANCE.add(filer, monkey, (byte) 1, keyBytes, keyValueMarshaller.valueBytes(value), _stackBuffer);
-                        }
+                            return null;
+                        });
                     }
 
                     @Override
                     public void remove() throws IOException {
-                        synchronized (lock) {
+                        ChunkLocks.write(lock, () -> {
                             MapStore.INSTANCE.remove(filer, monkey, keyBytes, _stackBuffer);
-                        }
+                            return null;
+                        });
                     }
 
                     @Override
                     public V get() throws IOException {
-                        synchronized (lock) {
+                        return ChunkLocks.read(lock, () -> {
                             long pi = MapStore.INSTANCE.get(filer, monkey, keyBytes, _stackBuffer);
                             if (pi > -1) {
                                 byte[] rawValue = MapStore.INSTANCE.getPayload(filer, monkey, pi, _stackBuffer);
                                 return keyValueMarshaller.bytesValue(key, rawValue, 0);
                             }
                             return null;
-                        }
+                        });
                     }
                 }), stackBuffer);
         } else {
@@ -165,22 +168,24 @@ public class TxKeyValueStore<K, V> implements KeyValueStore<K, V> {
                     @Override
                     public void remove() throws IOException {
                         if (filer != null && monkey != null) {
-                            synchronized (lock) {
+                            ChunkLocks.write(lock, () -> {
                                 MapStore.INSTANCE.remove(filer, monkey, keyBytes, _stackBuffer);
-                            }
+                                return null;
+                            });
                         }
                     }
 
                     @Override
                     public V get() throws IOException {
                         if (filer != null && monkey != null) {
-                            synchronized (lock) {
+                            return ChunkLocks.read(lock, () -> {
                                 long pi = MapStore.INSTANCE.get(filer, monkey, keyBytes, _stackBuffer);
                                 if (pi > -1) {
                                     byte[] rawValue = MapStore.INSTANCE.getPayload(filer, monkey, pi, _stackBuffer);
                                     return keyValueMarshaller.bytesValue(key, rawValue, 0);
                                 }
-                            }
+                                return null;
+                            });
                         }
                         return null;
                     }
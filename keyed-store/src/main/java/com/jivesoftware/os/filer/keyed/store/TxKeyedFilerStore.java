@@ -35,6 +35,7 @@ import com.jivesoftware.os.filer.io.api.KeyValueStore;
 import com.jivesoftware.os.filer.io.api.KeyedFilerStore;
 import com.jivesoftware.os.filer.io.api.StackBuffer;
 import com.jivesoftware.os.filer.io.chunk.ChunkFiler;
+import com.jivesoftware.os.filer.io.chunk.ChunkLocks;
 import com.jivesoftware.os.filer.io.chunk.ChunkStore;
 import java.io.IOException;
 import java.util.List;
@@ -170,11 +171,8 @@ public class TxKeyedFilerStore<H, M> implements KeyedFilerStore<H, M> {
     public boolean stream(List<KeyRange> ranges,
         KeyValueStore.EntryStream<byte[], Filer> stream,
         StackBuffer stackBuffer) throws IOException, InterruptedException {
-        return namedMapOfFiler.stream(name, ranges, (key, monkey, filer, lock) -> {
-            synchronized (lock) {
-                return stream.stream(key, filer);
-            }
-        }, stackBuffer);
+        return namedMapOfFiler.stream(name, ranges, (key, monkey, filer, lock) -> ChunkLocks.<Boolean, IOException, InterruptedException>read(lock,
+            () -> stream.stream(key, filer)), stackBuffer);
     }
 
     @Override